@@ -0,0 +1,97 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Binds of {@link BookCursorAdapter} once its holders are warmed up, counted by the allocation
+ * counters of the runtime on the main thread. A bind copies the texts into the buffers of the
+ * holder, so it allocates nothing. The JVM benchmark only measures the bytes under Robolectric,
+ * whose framework is not the one of the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AdapterAllocationTest {
+
+    private static final int ROWS = 1000;
+    private static final int HOLDERS = 12;
+    private static final int WARM_UP_BINDS = 2 * ROWS;
+    private static final int BINDS = 10 * ROWS;
+
+    private static final String[] COLUMNS = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void steadyStateBindDoesNotAllocate() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS, ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            // Names and numbers of every length the holders have to take
+            cursor.addRow(new Object[]{i + 1, "Book " + i + " of the catalog".substring(0,
+                    i % 15), i * 37 % 100000, i % 3 == 0 ? -i : i});
+        }
+
+        final int[] allocations = new int[2];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView parent = new RecyclerView(context);
+                parent.setLayoutManager(new LinearLayoutManager(context));
+                BookCursorAdapter adapter = new BookCursorAdapter(context,
+                        new BookCursorAdapter.OnBookClickListener() {
+                            @Override
+                            public void onBookClick(long id) {
+                            }
+                        });
+                adapter.swapCursor(cursor, BookListSnapshot.of(cursor));
+                BookCursorAdapter.BookViewHolder[] holders =
+                        new BookCursorAdapter.BookViewHolder[HOLDERS];
+                for (int i = 0; i < HOLDERS; i++) {
+                    holders[i] = adapter.onCreateViewHolder(parent, 0);
+                }
+                // The text views make their wrappers of the buffers on the first binds
+                bind(adapter, holders, WARM_UP_BINDS);
+
+                Debug.resetThreadAllocCount();
+                Debug.resetThreadAllocSize();
+                Debug.startAllocCounting();
+                try {
+                    bind(adapter, holders, BINDS);
+                } finally {
+                    Debug.stopAllocCounting();
+                }
+                allocations[0] = Debug.getThreadAllocCount();
+                allocations[1] = Debug.getThreadAllocSize();
+            }
+        });
+        cursor.close();
+        assertEquals("Objects allocated by " + BINDS + " binds", 0, allocations[0]);
+        assertEquals("Bytes allocated by " + BINDS + " binds", 0, allocations[1]);
+    }
+
+    /**
+     * Binds the rows in order to the holders in turn, as a scroll through the list does.
+     */
+    private static void bind(BookCursorAdapter adapter, BookCursorAdapter.BookViewHolder[] holders,
+                             int binds) {
+        for (int i = 0; i < binds; i++) {
+            adapter.onBindViewHolder(holders[i % HOLDERS], i % ROWS);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.View;
+import android.view.Window;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Frame times of the list of 10000 books while Sale is tapped without a pause on the rows of
+ * the screen. Each sale reloads the list, whose diff is computed off the main thread so only
+ * the sold row is bound again. The durations are logged and reported as instrumentation
+ * status, with the share of frames over the budget of a 60 Hz display.
+ * Runs on the books of the device, deleted first.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameTimeBenchmark {
+
+    private static final String LOG_TAG = FrameTimeBenchmark.class.getSimpleName();
+
+    private static final int BOOKS = 10000;
+    private static final int QUANTITY = 100000;
+    private static final int INSERT_ROWS = 2000;
+
+    private static final long DURATION_MS = 10000;
+    private static final long TAP_INTERVAL_MS = 100;
+
+    /**
+     * Rows of the screen tapped in turn
+     */
+    private static final int TAPPED_ROWS = 5;
+
+    private static final long FRAME_BUDGET_NS = 16666667;
+
+    /**
+     * Share of the frames allowed over the budget. A list rebound in full on every sale
+     * misses it on most of the frames following a tap.
+     */
+    private static final double MAX_JANKY_SHARE = 0.05;
+
+    /**
+     * Time for the last sales to be sent and the list to be loaded again
+     */
+    private static final long SETTLE_MS = 2000;
+
+    private Instrumentation mInstrumentation;
+    private ContentResolver mResolver;
+    private MainActivity mActivity;
+    private HandlerThread mMetricsThread;
+    private final List<Long> mFrames = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        // Frame metrics came with N
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+        for (int seeded = 0; seeded < BOOKS; seeded += INSERT_ROWS) {
+            ContentValues[] books = new ContentValues[INSERT_ROWS];
+            for (int i = 0; i < INSERT_ROWS; i++) {
+                books[i] = new ContentValues();
+                books[i].put(BookEntry.COLUMN_BOOK_NAME, "Book " + (seeded + i));
+                books[i].put(BookEntry.COLUMN_BOOK_PRICE, 100 + i % 900);
+                books[i].put(BookEntry.COLUMN_BOOK_QUANTITY, QUANTITY);
+                books[i].put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier " + i % 20);
+                books[i].put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, "98765" + i % 20);
+            }
+            mResolver.bulkInsert(BookEntry.CONTENT_URI, books);
+        }
+
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(), MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        mActivity = (MainActivity) mInstrumentation.startActivitySync(intent);
+        mInstrumentation.waitForIdleSync();
+        mMetricsThread = new HandlerThread("FrameMetrics");
+        mMetricsThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (mActivity == null) {
+            return;
+        }
+        mMetricsThread.quit();
+        mActivity.finish();
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void frameTimesUnderSaleTaps() throws Exception {
+        final RecyclerView list = mActivity.findViewById(R.id.list_view);
+        final Window.OnFrameMetricsAvailableListener listener =
+                new Window.OnFrameMetricsAvailableListener() {
+                    @Override
+                    public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics,
+                                                        int dropCountSinceLastInvocation) {
+                        synchronized (mFrames) {
+                            mFrames.add(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION));
+                        }
+                    }
+                };
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mActivity.getWindow().addOnFrameMetricsAvailableListener(listener,
+                        new Handler(mMetricsThread.getLooper()));
+            }
+        });
+
+        long end = SystemClock.elapsedRealtime() + DURATION_MS;
+        for (int i = 0; SystemClock.elapsedRealtime() < end; i++) {
+            final int position = i % TAPPED_ROWS;
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    RecyclerView.ViewHolder holder =
+                            list.findViewHolderForAdapterPosition(position);
+                    if (holder != null) {
+                        View sale = holder.itemView.findViewById(R.id.sale_btn);
+                        sale.performClick();
+                    }
+                }
+            });
+            SystemClock.sleep(TAP_INTERVAL_MS);
+        }
+        SystemClock.sleep(SETTLE_MS);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mActivity.getWindow().removeOnFrameMetricsAvailableListener(listener);
+            }
+        });
+
+        long[] frames;
+        synchronized (mFrames) {
+            frames = new long[mFrames.size()];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = mFrames.get(i);
+            }
+        }
+        Arrays.sort(frames);
+        int janky = 0;
+        for (long frame : frames) {
+            if (frame > FRAME_BUDGET_NS) {
+                janky++;
+            }
+        }
+        double jankyShare = frames.length == 0 ? 0 : (double) janky / frames.length;
+
+        Bundle status = new Bundle();
+        report(status, frames, janky);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+
+        assertTrue("No frame drawn while tapping", frames.length > 0);
+        assertTrue(janky + " of " + frames.length + " frames over the budget",
+                jankyShare <= MAX_JANKY_SHARE);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static void report(Bundle status, long[] sorted, int janky) {
+        long p50 = percentile(sorted, 50) / 1000;
+        long p90 = percentile(sorted, 90) / 1000;
+        long p99 = percentile(sorted, 99) / 1000;
+        long max = sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1000;
+        Log.i(LOG_TAG, "frames: " + sorted.length + ", janky " + janky + ", p50 " + p50
+                + " us, p90 " + p90 + " us, p99 " + p99 + " us, max " + max + " us");
+        status.putInt("frame_count", sorted.length);
+        status.putInt("frame_janky", janky);
+        status.putLong("frame_p50_us", p50);
+        status.putLong("frame_p90_us", p90);
+        status.putLong("frame_p99_us", p99);
+        status.putLong("frame_max_us", max);
+    }
+}
@@ -0,0 +1,353 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.StrictMode;
+import android.os.strictmode.Violation;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.matcher.RootMatchers.isDialog;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Scrolls the list and taps Sale under a StrictMode policy detecting disk reads and writes on
+ * the main thread, which fails on any of them. Also checks the quantity shown for the sold
+ * book never goes back up while the sales are sent and the list loaded again.
+ * The writes of the editor and the deletion of all the books, all sent through
+ * {@link BookWriteExecutor}, run under the same policy.
+ * Runs on the books of the device, deleted first.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MainThreadStrictModeTest {
+
+    private static final String LOG_TAG = MainThreadStrictModeTest.class.getSimpleName();
+
+    private static final int BOOKS = 2000;
+    private static final int QUANTITY = 100;
+    private static final int SALES = 10;
+
+    /**
+     * Time for the sales to be sent and the list to be loaded again
+     */
+    private static final long SETTLE_MS = 3000;
+
+    /**
+     * Time for a write of the editor or of the menu to be stored
+     */
+    private static final long WRITE_TIMEOUT_MS = 5000;
+
+    private Instrumentation mInstrumentation;
+    private ContentResolver mResolver;
+    private MainActivity mActivity;
+    private StrictMode.ThreadPolicy mOldPolicy;
+    private final List<Violation> mViolations = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        // The listener of the violations came with P
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.P);
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+        ContentValues[] books = new ContentValues[BOOKS];
+        for (int i = 0; i < BOOKS; i++) {
+            books[i] = new ContentValues();
+            books[i].put(BookEntry.COLUMN_BOOK_NAME, "Book " + i);
+            books[i].put(BookEntry.COLUMN_BOOK_PRICE, 100 + i);
+            books[i].put(BookEntry.COLUMN_BOOK_QUANTITY, QUANTITY);
+            books[i].put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier " + i % 10);
+            books[i].put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, "98765" + i % 10);
+        }
+        mResolver.bulkInsert(BookEntry.CONTENT_URI, books);
+
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(), MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        mActivity = (MainActivity) mInstrumentation.startActivitySync(intent);
+        mInstrumentation.waitForIdleSync();
+        // Set once the activity is shown, the policy covers the list and the Sale taps
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mOldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyListener(new Executor() {
+                            @Override
+                            public void execute(Runnable command) {
+                                command.run();
+                            }
+                        }, new StrictMode.OnThreadViolationListener() {
+                            @Override
+                            public void onThreadViolation(Violation violation) {
+                                synchronized (mViolations) {
+                                    mViolations.add(violation);
+                                }
+                            }
+                        })
+                        .build());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (mActivity == null) {
+            return;
+        }
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.setThreadPolicy(mOldPolicy);
+            }
+        });
+        mActivity.finish();
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void scrollAndSellWithoutDiskAccessOnMainThread() throws Exception {
+        final RecyclerView list = mActivity.findViewById(R.id.list_view);
+
+        // Far enough for chunks which were never read
+        for (final int position : new int[]{BOOKS / 2, BOOKS - 1, BOOKS / 4, 0}) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    list.scrollToPosition(position);
+                }
+            });
+            mInstrumentation.waitForIdleSync();
+        }
+
+        final long bookId = list.getAdapter().getItemId(0);
+        int lowest = QUANTITY;
+        for (int i = 0; i < SALES; i++) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    firstItem(list).findViewById(R.id.sale_btn).performClick();
+                }
+            });
+            lowest = checkShownQuantity(list, lowest);
+            // Some taps merged in one sale, some sent while others are in flight
+            Thread.sleep(i % 3 == 0 ? 400 : 50);
+            lowest = checkShownQuantity(list, lowest);
+        }
+        long settleEnd = System.currentTimeMillis() + SETTLE_MS;
+        while (System.currentTimeMillis() < settleEnd) {
+            lowest = checkShownQuantity(list, lowest);
+            Thread.sleep(50);
+        }
+
+        assertNoViolations();
+        assertEquals(QUANTITY - SALES, lowest);
+        assertEquals(QUANTITY - SALES, shownQuantity(list));
+        assertEquals(QUANTITY - SALES, storedQuantity(bookId));
+    }
+
+    @Test
+    public void editorSavesWithoutDiskAccessOnMainThread() throws Exception {
+        final long bookId = firstBookId();
+
+        // The quantity alone, written by the compiled statement of the provider
+        final BooksEditorActivity quantityEditor = startEditor(bookId);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                quantityEditor.findViewById(R.id.increment_btn).performClick();
+            }
+        });
+        mInstrumentation.invokeMenuActionSync(quantityEditor, R.id.save, 0);
+        awaitStoredQuantity(bookId, QUANTITY + 1);
+
+        // A full update, with the supplier looked up again
+        final BooksEditorActivity editor = startEditor(bookId);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ((EditText) editor.findViewById(R.id.book_name_et)).setText("Renamed book");
+                ((EditText) editor.findViewById(R.id.supplier_name_et)).setText("New supplier");
+            }
+        });
+        mInstrumentation.invokeMenuActionSync(editor, R.id.save, 0);
+        awaitStoredName(bookId, "Renamed book");
+
+        Thread.sleep(SETTLE_MS);
+        mInstrumentation.waitForIdleSync();
+        assertNoViolations();
+    }
+
+    @Test
+    public void editorDeletesWithoutDiskAccessOnMainThread() throws Exception {
+        long bookId = firstBookId();
+        BooksEditorActivity editor = startEditor(bookId);
+        mInstrumentation.invokeMenuActionSync(editor, R.id.delete_single_record, 0);
+        onView(withText(R.string.delete_single_record)).inRoot(isDialog()).perform(click());
+        awaitStoredCount(BOOKS - 1);
+
+        Thread.sleep(SETTLE_MS);
+        mInstrumentation.waitForIdleSync();
+        assertNoViolations();
+    }
+
+    @Test
+    public void deleteAllWithoutDiskAccessOnMainThread() throws Exception {
+        mInstrumentation.invokeMenuActionSync(mActivity, R.id.delete_all_records, 0);
+        awaitStoredCount(0);
+
+        Thread.sleep(SETTLE_MS);
+        mInstrumentation.waitForIdleSync();
+        assertNoViolations();
+    }
+
+    private long firstBookId() {
+        RecyclerView list = mActivity.findViewById(R.id.list_view);
+        return list.getAdapter().getItemId(0);
+    }
+
+    /**
+     * Opens the editor on the book and waits for the book to be shown. Only the writes are
+     * judged, so the violations seen so far are dropped.
+     */
+    private BooksEditorActivity startEditor(long bookId) throws Exception {
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(),
+                BooksEditorActivity.class);
+        intent.setData(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId));
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        final BooksEditorActivity editor =
+                (BooksEditorActivity) mInstrumentation.startActivitySync(intent);
+        final boolean[] loaded = new boolean[1];
+        long end = System.currentTimeMillis() + WRITE_TIMEOUT_MS;
+        while (!loaded[0] && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    EditText name = editor.findViewById(R.id.book_name_et);
+                    loaded[0] = name.getText().length() > 0;
+                }
+            });
+        }
+        assertTrue("Book not shown by the editor", loaded[0]);
+        mInstrumentation.waitForIdleSync();
+        synchronized (mViolations) {
+            mViolations.clear();
+        }
+        return editor;
+    }
+
+    private void assertNoViolations() {
+        synchronized (mViolations) {
+            for (Violation violation : mViolations) {
+                Log.e(LOG_TAG, "Disk access on the main thread", violation);
+            }
+            assertTrue(mViolations.size() + " disk accesses on the main thread, see the log",
+                    mViolations.isEmpty());
+        }
+    }
+
+    /**
+     * @return the quantity shown for the first book, failing when it is above the lowest shown.
+     */
+    private int checkShownQuantity(RecyclerView list, int lowest) {
+        mInstrumentation.waitForIdleSync();
+        int shown = shownQuantity(list);
+        assertTrue("Shown quantity went back up from " + lowest + " to " + shown, shown <= lowest);
+        return shown;
+    }
+
+    private int shownQuantity(final RecyclerView list) {
+        final int[] quantity = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TextView view = firstItem(list).findViewById(R.id.book_quantity);
+                quantity[0] = Integer.parseInt(view.getText().toString());
+            }
+        });
+        return quantity[0];
+    }
+
+    private static View firstItem(RecyclerView list) {
+        return list.findViewHolderForAdapterPosition(0).itemView;
+    }
+
+    private int storedQuantity(long bookId) {
+        return Integer.parseInt(storedValue(bookId, BookEntry.COLUMN_BOOK_QUANTITY));
+    }
+
+    private String storedValue(long bookId, String column) {
+        Cursor cursor = mResolver.query(
+                ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                new String[]{column}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void awaitStoredQuantity(long bookId, int quantity) throws Exception {
+        long end = System.currentTimeMillis() + WRITE_TIMEOUT_MS;
+        while (storedQuantity(bookId) != quantity && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertEquals(quantity, storedQuantity(bookId));
+    }
+
+    private void awaitStoredName(long bookId, String name) throws Exception {
+        long end = System.currentTimeMillis() + WRITE_TIMEOUT_MS;
+        while (!name.equals(storedValue(bookId, BookEntry.COLUMN_BOOK_NAME))
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertEquals(name, storedValue(bookId, BookEntry.COLUMN_BOOK_NAME));
+    }
+
+    private void awaitStoredCount(int count) throws Exception {
+        long end = System.currentTimeMillis() + WRITE_TIMEOUT_MS;
+        while (storedCount() != count && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, storedCount());
+    }
+
+    private int storedCount() {
+        Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, new String[]{BookEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
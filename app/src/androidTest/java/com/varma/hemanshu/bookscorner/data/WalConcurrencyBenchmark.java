@@ -0,0 +1,290 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Latency of the reads of the list while other threads write, on the SQLite of the device.
+ * Robolectric runs all of SQLite on a single thread, so concurrency can only be measured here.
+ * The latencies are logged and reported as instrumentation status, idle and under writes.
+ * Runs on the books of the device, deleted first.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WalConcurrencyBenchmark {
+
+    private static final String LOG_TAG = WalConcurrencyBenchmark.class.getSimpleName();
+
+    private static final int BOOKS = 20000;
+    private static final int READERS = 2;
+    private static final int SCREEN_ROWS = 20;
+    private static final long DURATION_MS = 10000;
+
+    /**
+     * Books inserted, then deleted, by every write of the sustained load
+     */
+    private static final int WRITE_ROWS = 2000;
+    private static final String LOAD_PREFIX = "Load ";
+
+    /**
+     * Time a read may take while a write transaction is held open, far below the hold
+     */
+    private static final long HELD_READ_MS = 1000;
+    private static final long HOLD_MS = 5000;
+
+    private static final String[] LIST_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    private Context mContext;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+        for (int seeded = 0; seeded < BOOKS; seeded += WRITE_ROWS) {
+            mResolver.bulkInsert(BookEntry.CONTENT_URI, books("Book " + seeded + " ", WRITE_ROWS));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * A write transaction held open on another connection neither blocks the reads nor shows
+     * them its rows.
+     */
+    @Test
+    public void readsDoNotWaitForOpenWrite() throws Exception {
+        int quantity = firstQuantity();
+        BookDbHelper writer = new BookDbHelper(mContext);
+        SQLiteDatabase db = writer.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + " = " + BookEntry.COLUMN_BOOK_QUANTITY
+                    + " + 1");
+            ExecutorService reader = Executors.newSingleThreadExecutor();
+            try {
+                Future<Integer> read = reader.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        readScreen();
+                        return firstQuantity();
+                    }
+                });
+                // Held far longer than the read may take
+                assertEquals(quantity, (int) read.get(HELD_READ_MS, TimeUnit.MILLISECONDS));
+            } finally {
+                reader.shutdownNow();
+            }
+            SystemClock.sleep(HOLD_MS - HELD_READ_MS);
+        } finally {
+            // Rolled back
+            db.endTransaction();
+            writer.close();
+        }
+        assertEquals(quantity, firstQuantity());
+    }
+
+    /**
+     * Reads the first screen of the list and the summary from several threads, first idle,
+     * then while another thread inserts and deletes books without a pause.
+     */
+    @Test
+    public void readLatencyUnderWrites() throws Exception {
+        long[] idle = read(null);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final List<Long> writes = new ArrayList<>();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?> writing = writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; !stop.get(); i++) {
+                    long start = SystemClock.elapsedRealtime();
+                    mResolver.bulkInsert(BookEntry.CONTENT_URI, books(LOAD_PREFIX + i + " ",
+                            WRITE_ROWS));
+                    long inserted = SystemClock.elapsedRealtime();
+                    mResolver.delete(BookEntry.CONTENT_URI, BookEntry.COLUMN_BOOK_NAME
+                            + " LIKE ?", new String[]{LOAD_PREFIX + "%"});
+                    synchronized (writes) {
+                        writes.add(inserted - start);
+                        writes.add(SystemClock.elapsedRealtime() - inserted);
+                    }
+                }
+                return null;
+            }
+        });
+        long[] loaded;
+        try {
+            loaded = read(writing);
+        } finally {
+            stop.set(true);
+            writing.get();
+            writer.shutdown();
+        }
+        long[] writeMs = new long[writes.size()];
+        for (int i = 0; i < writeMs.length; i++) {
+            writeMs[i] = writes.get(i);
+        }
+        Arrays.sort(writeMs);
+
+        Bundle status = new Bundle();
+        report(status, "read_idle", idle);
+        report(status, "read_under_writes", loaded);
+        report(status, "write", writeMs);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+
+        assertTrue("No write ran while reading", writeMs.length > 0);
+        // A read waiting for the writes would wait for a whole one
+        assertTrue("Reads waited for the writes: p99 " + percentile(loaded, 99)
+                        + " ms, longest write " + writeMs[writeMs.length - 1] + " ms",
+                percentile(loaded, 99) < writeMs[writeMs.length - 1]);
+    }
+
+    /**
+     * Reads from {@link #READERS} threads for {@link #DURATION_MS}.
+     *
+     * @param writing the load, checked for failures while reading, or null
+     * @return the latency of every read in ms, sorted.
+     */
+    private long[] read(Future<?> writing) throws Exception {
+        final long end = SystemClock.elapsedRealtime() + DURATION_MS;
+        ExecutorService readers = Executors.newFixedThreadPool(READERS);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            results.add(readers.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() {
+                    List<Long> latencies = new ArrayList<>();
+                    while (SystemClock.elapsedRealtime() < end) {
+                        long start = SystemClock.elapsedRealtime();
+                        readScreen();
+                        readSummary();
+                        latencies.add(SystemClock.elapsedRealtime() - start);
+                    }
+                    return latencies;
+                }
+            }));
+        }
+        List<Long> latencies = new ArrayList<>();
+        try {
+            for (Future<List<Long>> result : results) {
+                latencies.addAll(result.get());
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+        if (writing != null && writing.isDone()) {
+            // Rethrows the failure of the load
+            writing.get();
+        }
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private void readScreen() {
+        Cursor cursor = mResolver.query(BookEntry.buildListUri(BookEntry.LIST_MODE_ADDED, null),
+                LIST_PROJECTION, null, null, null);
+        try {
+            for (int i = 0; i < SCREEN_ROWS && cursor.moveToNext(); i++) {
+                cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void readSummary() {
+        Cursor cursor = mResolver.query(SummaryEntry.CONTENT_URI, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the quantity of the first book of the list, read from the database.
+     */
+    private int firstQuantity() {
+        Cursor cursor = mResolver.query(BookEntry.buildListUri(BookEntry.LIST_MODE_ADDED, null),
+                LIST_PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(3);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] books(String prefix, int count) {
+        ContentValues[] books = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            books[i] = new ContentValues();
+            books[i].put(BookEntry.COLUMN_BOOK_NAME, prefix + i);
+            books[i].put(BookEntry.COLUMN_BOOK_PRICE, 100 + i % 900);
+            books[i].put(BookEntry.COLUMN_BOOK_QUANTITY, i % 50);
+            books[i].put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier " + i % 20);
+            books[i].put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, "98765" + i % 20);
+        }
+        return books;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static void report(Bundle status, String name, long[] sorted) {
+        long p50 = percentile(sorted, 50);
+        long p99 = percentile(sorted, 99);
+        long max = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        Log.i(LOG_TAG, name + ": " + sorted.length + " ops, p50 " + p50 + " ms, p99 " + p99
+                + " ms, max " + max + " ms");
+        status.putInt(name + "_count", sorted.length);
+        status.putLong(name + "_p50_ms", p50);
+        status.putLong(name + "_p99_ms", p99);
+        status.putLong(name + "_max_ms", max);
+    }
+}
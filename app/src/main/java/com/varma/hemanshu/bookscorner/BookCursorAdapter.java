@@ -1,16 +1,19 @@
 package com.varma.hemanshu.bookscorner;
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.net.Uri;
+import android.database.DataSetObserver;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -18,40 +21,275 @@ import com.varma.hemanshu.bookscorner.data.BookContract;
 import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
 
 /**
- * {@link BookCursorAdapter} is an adapter for a list view
+ * {@link BookCursorAdapter} is an adapter for a recycler view
  * that uses a {@link Cursor} of book data as its data source. This adapter knows
  * how to create list items for each row of book data in the {@link Cursor}.
+ * Items have stable ids, the {@link BookEntry#_ID} of their book.
+ * Binding never waits for a row to be read: a row not read yet is bound empty, and bound
+ * again once the cursor has read it.
  */
-public class BookCursorAdapter extends CursorAdapter {
+public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.BookViewHolder> {
 
     private static final String LOG_TAG = BookCursorAdapter.class.getSimpleName();
-    TextView bookName;
-    TextView bookPrice;
-    TextView bookQuantity;
-    Button saleButton;
+
+    /**
+     * Columns the adapter binds, the projection of the list queries.
+     */
+    public static final String[] PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    /**
+     * Listener for clicks on a list item.
+     */
+    public interface OnBookClickListener {
+        void onBookClick(long id);
+    }
+
+    /**
+     * Length of the longest int, "-2147483648"
+     */
+    private static final int MAX_INT_CHARS = 11;
+
+    /**
+     * Holds the views of a list item, along with the buffers its texts are copied into.
+     * Binding a holder again reuses them, so it does not allocate once the buffers are
+     * big enough for the texts.
+     */
+    static class BookViewHolder extends RecyclerView.ViewHolder {
+        final TextView bookName;
+        final TextView bookPrice;
+        final TextView bookQuantity;
+        final Button saleButton;
+
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(64);
+        final char[] priceChars = new char[MAX_INT_CHARS];
+        final char[] quantityChars = new char[MAX_INT_CHARS];
+
+        /**
+         * Book bound to this holder, read by the shared Sale click listener
+         */
+        long bookId;
+        int quantity;
+        // Whether the row was read, an empty row cannot be sold from
+        boolean read;
+
+        BookViewHolder(View view) {
+            super(view);
+            bookName = view.findViewById(R.id.title_book_name);
+            bookPrice = view.findViewById(R.id.book_price);
+            bookQuantity = view.findViewById(R.id.book_quantity);
+            saleButton = view.findViewById(R.id.sale_btn);
+            saleButton.setTag(this);
+        }
+    }
+
+    private final Context mContext;
+    private final OnBookClickListener mOnBookClickListener;
+    private Cursor mCursor;
+
+    // Column indices of the current cursor, looked up once per cursor instead of once per bind
+    private int mIdIndex;
+    private int mNameIndex;
+    private int mPriceIndex;
+    private int mQuantityIndex;
+
+    /**
+     * Snapshot of the rows of {@link #mCursor}, the base of the next diff
+     */
+    private BookListSnapshot mSnapshot = BookListSnapshot.EMPTY;
+
+    /**
+     * Range of the positions bound before their rows were read, empty when start > end
+     */
+    private int mUnreadStart = Integer.MAX_VALUE;
+    private int mUnreadEnd = -1;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mRebindUnread = new Runnable() {
+        @Override
+        public void run() {
+            int end = Math.min(mUnreadEnd, getItemCount() - 1);
+            if (mUnreadStart <= end) {
+                notifyItemRangeChanged(mUnreadStart, end - mUnreadStart + 1);
+            }
+            mUnreadStart = Integer.MAX_VALUE;
+            mUnreadEnd = -1;
+        }
+    };
+
+    /**
+     * Told by the cursor, from the thread reading them, that rows bound unread were read
+     */
+    private final DataSetObserver mCursorObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            mHandler.post(mRebindUnread);
+        }
+    };
+
+    /**
+     * Asks the list cursor not to wait for its rows on the main thread
+     */
+    private static final Bundle NON_BLOCKING = new Bundle();
+
+    static {
+        NON_BLOCKING.putBoolean(BookEntry.EXTRA_NON_BLOCKING, true);
+    }
+
+    /**
+     * Merges the Sale taps into atomic sell calls to the provider
+     */
+    private final SaleBatcher mSaleBatcher;
 
     /**
      * Constructs a new {@link BookCursorAdapter}.
      *
-     * @param context The context
-     * @param cursor  The cursor from which to get the data.
+     * @param context  The context
+     * @param listener Listener for clicks on the list items
+     */
+    public BookCursorAdapter(Context context, OnBookClickListener listener) {
+        mContext = context;
+        mOnBookClickListener = listener;
+        mSaleBatcher = new SaleBatcher(context, new SaleBatcher.OnSaleRefusedListener() {
+            @Override
+            public void onSaleRefused(long bookId) {
+                // Shows the quantity again without the refused units
+                int position = mSnapshot.indexOf(bookId);
+                if (position >= 0) {
+                    notifyItemChanged(position);
+                }
+            }
+        });
+        setHasStableIds(true);
+    }
+
+    /*
+     * Each list view item will have a "Sale" button
+     * This "Sale" button has OnClickListener which will decrease the product quantity by one at a time.
+     * Taps are queued in the SaleBatcher, which sells them with one atomic call per book,
+     * so only taps leaving the displayed quantity at or above MIN_LIMIT are accepted.
+     * A single listener is shared by all the buttons, the tag of the button is its holder.
+     */
+    private final View.OnClickListener mSaleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            BookViewHolder holder = (BookViewHolder) v.getTag();
+            if (!holder.read) {
+                return;
+            }
+            int quantity = holder.quantity - mSaleBatcher.getPending(holder.bookId) - BookContract.ONE;
+            if (quantity >= BookContract.MIN_LIMIT) {
+                mSaleBatcher.sell(holder.bookId);
+                setInt(holder.bookQuantity, holder.quantityChars, quantity);
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.sell_btn_toast), Toast.LENGTH_SHORT).show();
+                Log.e(LOG_TAG, mContext.getString(R.string.item_update_fail));
+            }
+        }
+    };
+
+    /**
+     * Replaces the cursor without notifying the observers of the adapter, the caller
+     * dispatches the changes. The old cursor is not closed, the loader owning it closes it.
+     *
+     * @param cursor   The new cursor, or null
+     * @param snapshot Snapshot of the rows of the new cursor
+     */
+    public void swapCursor(Cursor cursor, BookListSnapshot snapshot) {
+        if (mCursor != null) {
+            mCursor.unregisterDataSetObserver(mCursorObserver);
+        }
+        mCursor = cursor;
+        mSnapshot = snapshot;
+        mSaleBatcher.onRequeried(cursor instanceof BookListLoader.DiffCursor
+                ? ((BookListLoader.DiffCursor) cursor).getQueriedAt() : 0);
+        if (cursor != null) {
+            cursor.respond(NON_BLOCKING);
+            cursor.registerDataSetObserver(mCursorObserver);
+            mIdIndex = cursor.getColumnIndexOrThrow(BookEntry._ID);
+            mNameIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_NAME);
+            mPriceIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_PRICE);
+            mQuantityIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_QUANTITY);
+        }
+    }
+
+    /**
+     * @return the current cursor, or null.
+     */
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * @return snapshot of the rows of the current cursor.
      */
-    public BookCursorAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0);
+    public BookListSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCursor == null ? 0 : mCursor.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // The cursor does not wait for the row, a row not read yet has no id
+        if (mCursor == null || !mCursor.moveToPosition(position) || mCursor.isNull(mIdIndex)) {
+            return RecyclerView.NO_ID;
+        }
+        return mCursor.getLong(mIdIndex);
+    }
+
+    @NonNull
+    @Override
+    public BookViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        BookTrace.beginSection(BookTrace.ADAPTER_CREATE);
+        final BookViewHolder holder;
+        try {
+            holder = new BookViewHolder(newView(mContext, parent));
+        } finally {
+            BookTrace.endSection();
+        }
+        holder.saleButton.setOnClickListener(mSaleClickListener);
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (holder.getItemId() != RecyclerView.NO_ID) {
+                    mOnBookClickListener.onBookClick(holder.getItemId());
+                }
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull BookViewHolder holder, int position) {
+        BookTrace.beginSection(BookTrace.ADAPTER_BIND);
+        try {
+            if (mCursor.moveToPosition(position)) {
+                bindView(holder, mCursor);
+                if (!holder.read) {
+                    mUnreadStart = Math.min(mUnreadStart, position);
+                    mUnreadEnd = Math.max(mUnreadEnd, position);
+                }
+            }
+        } finally {
+            BookTrace.endSection();
+        }
     }
 
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
      * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
      * @param parent  The parent to which the new view is attached to
      * @return the newly created list item view.
      */
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        Log.i(LOG_TAG,context.getString(R.string.inside_newView));
+    private View newView(Context context, ViewGroup parent) {
         return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
     }
 
@@ -59,64 +297,49 @@ public class BookCursorAdapter extends CursorAdapter {
      * This method binds the book data (in the current row pointed to by cursor) to the given
      * list item layout. For example, the name for the current book can be set on the name TextView
      * in the list item layout.
+     * Texts are copied into the buffers of the holder, so binding does not allocate.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param holder Holder of the list item views
+     * @param cursor The cursor from which to get the data. The cursor is already moved to the
+     *               correct row.
      */
-    @Override
-    public void bindView(final View view, final Context context, final Cursor cursor) {
-
-        // Find individual views that to modify in the list item layout
-        bookName = view.findViewById(R.id.title_book_name);
-        bookPrice = view.findViewById(R.id.book_price);
-        bookQuantity = view.findViewById(R.id.book_quantity);
-        saleButton = view.findViewById(R.id.sale_btn);
-
-        // Read the book attributes from the Cursor for the current book
-        final String name = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME));
-        final int price = cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE));
-        // Converting the price obtained from db to String.
-        // This conversion will let Text displayed on TextView
-        String priceString = String.valueOf(price);
-        final int quantityInt = cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY));
-        String quantityString = String.valueOf(quantityInt);
-
-        // column number of "_ID"
-        int idColIndex = cursor.getColumnIndex(BookEntry._ID);
-
-        // Read the book attributes from the Cursor for the current book for "Sale" button
-        final long idVal = Integer.parseInt(cursor.getString(idColIndex));
+    private void bindView(BookViewHolder holder, Cursor cursor) {
+        // Read the book attributes from the Cursor for the current book, a row which is not
+        // read yet is null in every column
+        holder.read = !cursor.isNull(mNameIndex);
+        holder.bookId = cursor.getLong(mIdIndex);
+        if (!holder.read) {
+            holder.bookName.setText(null);
+            holder.bookPrice.setText(null);
+            holder.bookQuantity.setText(null);
+            return;
+        }
+        holder.quantity = cursor.getInt(mQuantityIndex);
+        cursor.copyStringToBuffer(mNameIndex, holder.nameBuffer);
 
         // Update the TextViews with the attributes for the current book
-        bookName.setText(name);
-        bookPrice.setText(priceString);
-        bookQuantity.setText(quantityString);
-
-        /*
-         * Each list view item will have a "Sale" button
-         * This "Sale" button has OnClickListener which will decrease the product quantity by one at a time.
-         * Update is only carried out if quantity is greater than MIN_LIMIT.
-         */
-        saleButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                Uri newUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, idVal);
-
-                int quantity = quantityInt - BookContract.ONE;
-                if (quantity >= BookContract.MIN_LIMIT) {
-                    ContentValues values = new ContentValues();
-                    values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
-                    context.getContentResolver().update(newUri, values, null, null);
-                    Log.i(LOG_TAG, context.getString(R.string.item_update_success));
-                } else {
-                    Toast.makeText(context, context.getString(R.string.sell_btn_toast), Toast.LENGTH_SHORT).show();
-                    Log.e(LOG_TAG, context.getString(R.string.item_update_fail));
-                }
-            }
-        });
+        holder.bookName.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
+        setInt(holder.bookPrice, holder.priceChars, cursor.getInt(mPriceIndex));
+        // Sales not sent to the provider yet are already taken off the displayed quantity
+        setInt(holder.bookQuantity, holder.quantityChars,
+                holder.quantity - mSaleBatcher.getPending(holder.bookId));
+        mSaleBatcher.onBound(holder.bookId);
+    }
 
-        Log.i(LOG_TAG,context.getString(R.string.inside_bindView));
+    /**
+     * Shows the number in the TextView, formatting it into the given buffer
+     * instead of a new String.
+     */
+    private static void setInt(TextView view, char[] buffer, int value) {
+        int start = buffer.length;
+        long remaining = Math.abs((long) value);
+        do {
+            buffer[--start] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        if (value < 0) {
+            buffer[--start] = '-';
+        }
+        view.setText(buffer, start, buffer.length - start);
     }
 }
@@ -0,0 +1,183 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+
+import com.varma.hemanshu.bookscorner.data.BookCatalogImporter;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.UUID;
+
+/**
+ * Service importing a supplier catalog file in the background.
+ * The import checkpoint is saved after every committed chunk and the intent is redelivered if
+ * the process dies, so an interrupted import continues from the last committed chunk.
+ * Rows of a chunk committed right before the process died but after its checkpoint was
+ * saved would be imported again.
+ */
+public class BookImportService extends IntentService {
+
+    /**
+     * Tag for Logging
+     **/
+    private static final String LOG_TAG = BookImportService.class.getSimpleName();
+
+    /**
+     * Local broadcast sent after every committed chunk and once the import is over
+     */
+    public static final String ACTION_IMPORT_PROGRESS =
+            "com.varma.hemanshu.bookscorner.action.IMPORT_PROGRESS";
+    public static final String EXTRA_ROWS_READ = "rows_read";
+    public static final String EXTRA_ROWS_IMPORTED = "rows_imported";
+    public static final String EXTRA_ROWS_REJECTED = "rows_rejected";
+    public static final String EXTRA_FINISHED = "finished";
+    public static final String EXTRA_FAILED = "failed";
+
+    private static final String TSV_MIME_TYPE = "text/tab-separated-values";
+    private static final String TSV_EXTENSION = ".tsv";
+
+    // Checkpoint of the running import
+    private static final String PREFS_NAME = "book_import";
+    private static final String KEY_URI = "uri";
+    private static final String KEY_IMPORT_ID = "import_id";
+    private static final String KEY_POSITION = "position";
+    private static final String KEY_ROWS_READ = "rows_read";
+    private static final String KEY_ROWS_IMPORTED = "rows_imported";
+    private static final String KEY_ROWS_REJECTED = "rows_rejected";
+
+    public BookImportService() {
+        super(LOG_TAG);
+        // Restart the import after the process was killed
+        setIntentRedelivery(true);
+    }
+
+    /**
+     * Starts importing the catalog file at the given uri.
+     */
+    public static void start(Context context, Uri catalogUri) {
+        Intent intent = new Intent(context, BookImportService.class);
+        intent.setData(catalogUri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null || intent.getData() == null) {
+            return;
+        }
+        Uri catalogUri = intent.getData();
+        final SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        BookCatalogImporter.Progress progress = restoreCheckpoint(prefs, catalogUri);
+        if (progress.position > 0) {
+            Log.i(LOG_TAG, "Resuming import of " + catalogUri + " at row " + progress.rowsRead);
+        }
+
+        BookCatalogImporter importer = new BookCatalogImporter(getContentResolver(),
+                BookCatalogImporter.DEFAULT_CHUNK_SIZE);
+        Reader reader = null;
+        boolean failed = false;
+        try {
+            InputStream in = getContentResolver().openInputStream(catalogUri);
+            if (in == null) {
+                throw new IOException("Cannot open " + catalogUri);
+            }
+            reader = new InputStreamReader(in, "UTF-8");
+            importer.importCatalog(reader, delimiterFor(catalogUri), progress,
+                    new BookCatalogImporter.Listener() {
+                        @Override
+                        public void onChunkCommitted(BookCatalogImporter.Progress progress) {
+                            saveCheckpoint(prefs, progress);
+                            broadcast(progress, false, false);
+                        }
+
+                        @Override
+                        public void onRowRejected(long rowNumber, String reason) {
+                            Log.w(LOG_TAG, "Rejected row " + rowNumber + ": " + reason);
+                        }
+                    });
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to import " + catalogUri, e);
+            failed = true;
+        } catch (SecurityException e) {
+            // Read permission on the file was not kept, e.g. when redelivered after a reboot
+            Log.e(LOG_TAG, "No access to " + catalogUri, e);
+            failed = true;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to close " + catalogUri, e);
+                }
+            }
+        }
+        // A failed import is not resumable, the same error would come up again
+        prefs.edit().clear().commit();
+        // Fold the log grown by the import back into the database while the app is idle
+        getContentResolver().call(BookEntry.CONTENT_URI, BookEntry.METHOD_CHECKPOINT,
+                BookEntry.CHECKPOINT_RESTART, null);
+        broadcast(progress, true, failed);
+    }
+
+    private char delimiterFor(Uri catalogUri) {
+        String type = getContentResolver().getType(catalogUri);
+        String path = catalogUri.getPath();
+        if (TSV_MIME_TYPE.equals(type) || (path != null && path.endsWith(TSV_EXTENSION))) {
+            return '\t';
+        }
+        return ',';
+    }
+
+    private static BookCatalogImporter.Progress restoreCheckpoint(SharedPreferences prefs,
+                                                                  Uri catalogUri) {
+        BookCatalogImporter.Progress progress = new BookCatalogImporter.Progress();
+        if (catalogUri.toString().equals(prefs.getString(KEY_URI, null))) {
+            progress.importId = prefs.getString(KEY_IMPORT_ID, null);
+            progress.position = prefs.getLong(KEY_POSITION, 0);
+            progress.rowsRead = prefs.getLong(KEY_ROWS_READ, 0);
+            progress.rowsImported = prefs.getLong(KEY_ROWS_IMPORTED, 0);
+            progress.rowsRejected = prefs.getLong(KEY_ROWS_REJECTED, 0);
+        } else {
+            // Stored before any row is sent, the rows of a chunk committed before the first
+            // checkpoint are then recognized on resume
+            progress.importId = UUID.randomUUID().toString();
+            prefs.edit().clear()
+                    .putString(KEY_URI, catalogUri.toString())
+                    .putString(KEY_IMPORT_ID, progress.importId)
+                    .commit();
+        }
+        return progress;
+    }
+
+    private static void saveCheckpoint(SharedPreferences prefs,
+                                       BookCatalogImporter.Progress progress) {
+        // commit() rather than apply(), the checkpoint has to be on disk before the next chunk
+        prefs.edit()
+                .putLong(KEY_POSITION, progress.position)
+                .putLong(KEY_ROWS_READ, progress.rowsRead)
+                .putLong(KEY_ROWS_IMPORTED, progress.rowsImported)
+                .putLong(KEY_ROWS_REJECTED, progress.rowsRejected)
+                .commit();
+    }
+
+    private void broadcast(BookCatalogImporter.Progress progress, boolean finished,
+                           boolean failed) {
+        Intent intent = new Intent(ACTION_IMPORT_PROGRESS);
+        intent.putExtra(EXTRA_ROWS_READ, progress.rowsRead);
+        intent.putExtra(EXTRA_ROWS_IMPORTED, progress.rowsImported);
+        intent.putExtra(EXTRA_ROWS_REJECTED, progress.rowsRejected);
+        intent.putExtra(EXTRA_FINISHED, finished);
+        intent.putExtra(EXTRA_FAILED, failed);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+}
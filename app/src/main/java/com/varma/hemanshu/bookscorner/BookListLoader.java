@@ -0,0 +1,208 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.content.CursorLoader;
+import android.util.LongSparseArray;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+/**
+ * {@link CursorLoader} for the book list which also diffs every new result against the
+ * previous one on its background thread. The main thread only has to swap the cursor and
+ * dispatch the already computed changes, so a change to one book rebinds one row.
+ * The diff looks at the books named by the change notifications received since the previous
+ * result, in the rows around the position of the list, which are read before the result is
+ * delivered. The rest of a long list is never read by the loader.
+ */
+public class BookListLoader extends CursorLoader {
+
+    /**
+     * Result of the loader, the book cursor along with the diff from the previous result.
+     */
+    public static class DiffCursor extends CursorWrapper {
+
+        private final BookListSnapshot mBaseSnapshot;
+        private final BookListSnapshot mSnapshot;
+        private final BookListSnapshot.Diff mDiff;
+        private final long mQueriedAt;
+
+        DiffCursor(Cursor cursor, BookListSnapshot baseSnapshot, BookListSnapshot snapshot,
+                   BookListSnapshot.Diff diff, long queriedAt) {
+            super(cursor);
+            mBaseSnapshot = baseSnapshot;
+            mSnapshot = snapshot;
+            mDiff = diff;
+            mQueriedAt = queriedAt;
+        }
+
+        /**
+         * @return the uptime at which the query started, the result shows the writes
+         * committed before it.
+         */
+        public long getQueriedAt() {
+            return mQueriedAt;
+        }
+
+        /**
+         * @return the snapshot the diff starts from.
+         */
+        public BookListSnapshot getBaseSnapshot() {
+            return mBaseSnapshot;
+        }
+
+        /**
+         * @return the snapshot of the rows.
+         */
+        public BookListSnapshot getSnapshot() {
+            return mSnapshot;
+        }
+
+        /**
+         * @return the changes from the base snapshot.
+         */
+        public BookListSnapshot.Diff getDiff() {
+            return mDiff;
+        }
+    }
+
+    /**
+     * Rows after the position of the list read before the result is delivered, a screen
+     */
+    private static final int PRELOADED_ROWS = 20;
+
+    /**
+     * Rows on each side of the screen kept in the snapshot, the ones the list may hold bound
+     * off screen
+     */
+    private static final int SNAPSHOT_MARGIN = PRELOADED_ROWS;
+
+    /**
+     * Snapshot of the last loaded result, written by the loading thread
+     */
+    private volatile BookListSnapshot mLastSnapshot = BookListSnapshot.EMPTY;
+
+    /**
+     * First position shown by the list, written by the main thread
+     */
+    private volatile int mPosition;
+
+    // Guarded by mChangeLock
+    private final Object mChangeLock = new Object();
+    /**
+     * Ids of the books changed since the last load, as keys
+     */
+    private LongSparseArray<Boolean> mChangedIds = new LongSparseArray<>();
+    /**
+     * Whether a change notification did not tell which books changed
+     */
+    private boolean mAllChanged;
+
+    /**
+     * Collects the books named by the change notifications. The notifications also have the
+     * cursor observer of the loader load again.
+     */
+    private final ContentObserver mChangeObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long[] ids = BookEntry.getChangedIds(uri);
+            synchronized (mChangeLock) {
+                if (ids == null) {
+                    mAllChanged = true;
+                    return;
+                }
+                for (long id : ids) {
+                    mChangedIds.put(id, Boolean.TRUE);
+                }
+            }
+        }
+    };
+
+    private boolean mObserving;
+
+    public BookListLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Sets the first position shown by the list, whose rows the next results read up front.
+     */
+    public void setPosition(int position) {
+        mPosition = Math.max(0, position);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(BookEntry.CONTENT_URI,
+                    true, mChangeObserver);
+            mObserving = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mChangeObserver);
+            mObserving = false;
+        }
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        BookTrace.beginSection(BookTrace.LOADER_LOAD);
+        try {
+            // Taken before the query, a change notified after it is rebound by the next result
+            LongSparseArray<Boolean> changedIds;
+            synchronized (mChangeLock) {
+                changedIds = mAllChanged ? null : mChangedIds;
+                mChangedIds = new LongSparseArray<>();
+                mAllChanged = false;
+            }
+            long queriedAt = SystemClock.uptimeMillis();
+            Cursor cursor = super.loadInBackground();
+            if (cursor == null) {
+                return null;
+            }
+            preload(cursor);
+            BookListSnapshot baseSnapshot = mLastSnapshot;
+            BookTrace.beginSection(BookTrace.LOADER_DIFF);
+            try {
+                int position = mPosition;
+                BookListSnapshot snapshot = BookListSnapshot.of(cursor,
+                        position - SNAPSHOT_MARGIN, position + PRELOADED_ROWS + SNAPSHOT_MARGIN);
+                BookListSnapshot.Diff diff = baseSnapshot.diff(snapshot, changedIds);
+                mLastSnapshot = snapshot;
+                return new DiffCursor(cursor, baseSnapshot, snapshot, diff, queriedAt);
+            } finally {
+                BookTrace.endSection();
+            }
+        } finally {
+            BookTrace.endSection();
+        }
+    }
+
+    /**
+     * Moves the cursor over the first rows and the rows at the position of the list, so a
+     * cursor reading its rows as it moves to them has read them, leaving it before its first row.
+     */
+    private void preload(Cursor cursor) {
+        int last = cursor.getCount() - 1;
+        cursor.moveToPosition(0);
+        cursor.moveToPosition(Math.min(mPosition, last));
+        cursor.moveToPosition(Math.min(mPosition + PRELOADED_ROWS, last));
+        cursor.moveToPosition(-1);
+    }
+}
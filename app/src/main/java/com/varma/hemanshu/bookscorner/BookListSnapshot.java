@@ -0,0 +1,128 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.database.Cursor;
+import android.support.v7.widget.RecyclerView;
+import android.util.LongSparseArray;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+/**
+ * Count of the rows of a book list cursor, with the ids of the rows in a window of positions,
+ * the ones around the position of the list. Only the window is read, so taking a snapshot
+ * costs the same whatever the number of books.
+ * Two snapshots can be diffed without touching their cursors, so the diff can run on a
+ * background thread while the main thread keeps binding from the displayed cursor.
+ * The diff looks at the books named by the change notifications alone, whether the content
+ * of a book changed is never read from the rows.
+ */
+public class BookListSnapshot {
+
+    public static final BookListSnapshot EMPTY = new BookListSnapshot(0, 0, new long[0]);
+
+    private final int mCount;
+    /**
+     * Position of the first id of the window
+     */
+    private final int mStart;
+    private final long[] mIds;
+
+    private BookListSnapshot(int count, int start, long[] ids) {
+        mCount = count;
+        mStart = start;
+        mIds = ids;
+    }
+
+    /**
+     * Changes between two snapshots, the positions of the books to rebind in place or every
+     * row when the books may have moved.
+     */
+    public static class Diff {
+
+        static final Diff ALL = new Diff(null);
+
+        private final int[] mPositions;
+
+        Diff(int[] positions) {
+            mPositions = positions;
+        }
+
+        public void dispatchUpdatesTo(RecyclerView.Adapter<?> adapter) {
+            if (mPositions == null) {
+                adapter.notifyDataSetChanged();
+                return;
+            }
+            for (int position : mPositions) {
+                adapter.notifyItemChanged(position);
+            }
+        }
+    }
+
+    /**
+     * Takes the snapshot of every row of the cursor, leaving it before its first row.
+     */
+    public static BookListSnapshot of(Cursor cursor) {
+        return of(cursor, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Takes the snapshot of the cursor with the ids of the rows from start to end, excluded,
+     * leaving it before its first row. A row the cursor has not read has no id.
+     */
+    public static BookListSnapshot of(Cursor cursor, int start, int end) {
+        if (cursor == null) {
+            return EMPTY;
+        }
+        int count = cursor.getCount();
+        start = Math.max(0, Math.min(start, count));
+        end = Math.max(start, Math.min(end, count));
+        long[] ids = new long[end - start];
+        int idIndex = cursor.getColumnIndexOrThrow(BookEntry._ID);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = cursor.moveToPosition(start + i) && !cursor.isNull(idIndex)
+                    ? cursor.getLong(idIndex) : RecyclerView.NO_ID;
+        }
+        cursor.moveToPosition(-1);
+        return new BookListSnapshot(count, start, ids);
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the position of the book, -1 when it is not in the window.
+     */
+    public int indexOf(long id) {
+        for (int i = 0; i < mIds.length; i++) {
+            if (mIds[i] == id) {
+                return mStart + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the changes turning this snapshot into the given one. When the count is the
+     * same and every changed book is at the same position in both windows, no book moved and
+     * only their rows are rebound. Otherwise every row is.
+     *
+     * @param changedIds books changed since this snapshot was taken, as keys, or null when
+     *                   any of them may have changed
+     */
+    public Diff diff(BookListSnapshot newSnapshot, LongSparseArray<?> changedIds) {
+        if (changedIds == null || mCount != newSnapshot.mCount) {
+            return Diff.ALL;
+        }
+        int[] positions = new int[changedIds.size()];
+        for (int i = 0; i < positions.length; i++) {
+            long id = changedIds.keyAt(i);
+            int position = newSnapshot.indexOf(id);
+            if (position < 0 || position != indexOf(id)) {
+                // Out of the windows it may have moved, shifting the rows in between
+                return Diff.ALL;
+            }
+            positions[i] = position;
+        }
+        return new Diff(positions);
+    }
+}
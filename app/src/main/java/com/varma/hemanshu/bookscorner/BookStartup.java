@@ -0,0 +1,273 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SummaryEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Startup pipeline of the app, started by {@link BooksApplication} with the process.
+ * On a background thread it first reads the first screen of the list saved by the last run,
+ * then opens the database, compiles the statements of the writes and runs the first queries
+ * of the list once, so the loaders find the pages cached. The saved screen is shown until the
+ * loader delivers the real list.
+ */
+class BookStartup {
+
+    private static final String LOG_TAG = BookStartup.class.getSimpleName();
+
+    /**
+     * Rows saved for the next start, a screen of them
+     */
+    static final int FIRST_SCREEN_ROWS = 20;
+
+    private static final String FIRST_SCREEN_FILE = "first_screen";
+    // 2: the newest books first
+    private static final int FIRST_SCREEN_VERSION = 2;
+
+    /**
+     * Rows of the list in {@link BookEntry#LIST_MODE_ADDED}, the mode the app opens in.
+     */
+    static class FirstScreen {
+        final long[] ids;
+        final String[] names;
+        final int[] prices;
+        final int[] quantities;
+
+        FirstScreen(int count) {
+            ids = new long[count];
+            names = new String[count];
+            prices = new int[count];
+            quantities = new int[count];
+        }
+
+        /**
+         * Copies the first rows of the cursor, leaving it before its first row.
+         */
+        static FirstScreen of(Cursor cursor) {
+            FirstScreen screen = new FirstScreen(Math.min(cursor.getCount(), FIRST_SCREEN_ROWS));
+            int idIndex = cursor.getColumnIndexOrThrow(BookEntry._ID);
+            int nameIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_NAME);
+            int priceIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_PRICE);
+            int quantityIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_QUANTITY);
+            cursor.moveToPosition(-1);
+            for (int i = 0; i < screen.ids.length && cursor.moveToNext(); i++) {
+                screen.ids[i] = cursor.getLong(idIndex);
+                screen.names[i] = cursor.getString(nameIndex);
+                screen.prices[i] = cursor.getInt(priceIndex);
+                screen.quantities[i] = cursor.getInt(quantityIndex);
+            }
+            cursor.moveToPosition(-1);
+            return screen;
+        }
+
+        /**
+         * @return a cursor over the rows, with the columns of {@link BookCursorAdapter#PROJECTION}.
+         */
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(BookCursorAdapter.PROJECTION, ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                cursor.addRow(new Object[]{ids[i], names[i], prices[i], quantities[i]});
+            }
+            return cursor;
+        }
+    }
+
+    private static BookStartup sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this, the saved screen once read and the callback waiting for it
+    private boolean mFirstScreenRead;
+    private FirstScreen mFirstScreen;
+    private BookWriteExecutor.Callback<Cursor> mFirstScreenCallback;
+
+    static synchronized BookStartup getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookStartup(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    BookStartup(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Reads the saved screen, then warms the database up, on the background thread.
+     */
+    void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                FirstScreen screen = readFirstScreen();
+                BookWriteExecutor.Callback<Cursor> callback;
+                synchronized (BookStartup.this) {
+                    mFirstScreenRead = true;
+                    mFirstScreen = screen;
+                    callback = mFirstScreenCallback;
+                    mFirstScreenCallback = null;
+                }
+                if (callback != null) {
+                    deliver(callback, screen);
+                }
+                warmUp();
+            }
+        });
+    }
+
+    /**
+     * Hands the saved first screen to the callback on the main thread, as soon as it is read.
+     * The cursor is null when there is none. Replaces the callback of an earlier call.
+     */
+    synchronized void getFirstScreen(BookWriteExecutor.Callback<Cursor> callback) {
+        if (mFirstScreenRead) {
+            deliver(callback, mFirstScreen);
+        } else {
+            mFirstScreenCallback = callback;
+        }
+    }
+
+    /**
+     * Forgets the callback given to {@link #getFirstScreen}, when its activity is gone.
+     */
+    synchronized void cancelFirstScreen(BookWriteExecutor.Callback<Cursor> callback) {
+        if (mFirstScreenCallback == callback) {
+            mFirstScreenCallback = null;
+        }
+    }
+
+    /**
+     * Saves the first rows of the list for the next start, copied here and written on the
+     * background thread.
+     */
+    void saveFirstScreen(Cursor cursor) {
+        final FirstScreen screen = FirstScreen.of(cursor);
+        synchronized (this) {
+            mFirstScreen = screen;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFirstScreen(screen);
+            }
+        });
+    }
+
+    private void deliver(final BookWriteExecutor.Callback<Cursor> callback, final FirstScreen screen) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(screen == null ? null : screen.toCursor());
+            }
+        });
+    }
+
+    /**
+     * Opens the database and runs the queries the list runs when the app opens.
+     */
+    void warmUp() {
+        BookTrace.beginSection(BookTrace.STARTUP_WARM_UP);
+        try {
+            ContentResolver resolver = mContext.getContentResolver();
+            resolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_WARM_UP, null, null);
+            readFirstRow(resolver.query(BookEntry.buildListUri(BookEntry.LIST_MODE_ADDED, null),
+                    BookCursorAdapter.PROJECTION, null, null, null));
+            readFirstRow(resolver.query(SummaryEntry.CONTENT_URI, null, null, null, null));
+        } catch (RuntimeException e) {
+            // The loaders open the database again and report what is wrong with it
+            Log.e(LOG_TAG, "Warm up failed", e);
+        } finally {
+            BookTrace.endSection();
+        }
+    }
+
+    private static void readFirstRow(Cursor cursor) {
+        if (cursor != null) {
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @return the saved screen, null when there is none or it cannot be read.
+     */
+    FirstScreen readFirstScreen() {
+        File file = new File(mContext.getCacheDir(), FIRST_SCREEN_FILE);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FIRST_SCREEN_VERSION) {
+                    return null;
+                }
+                FirstScreen screen = new FirstScreen(Math.min(in.readInt(), FIRST_SCREEN_ROWS));
+                for (int i = 0; i < screen.ids.length; i++) {
+                    screen.ids[i] = in.readLong();
+                    screen.names[i] = in.readUTF();
+                    screen.prices[i] = in.readInt();
+                    screen.quantities[i] = in.readInt();
+                }
+                return screen;
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the saved screen, through a temporary file so a reader never sees half of it.
+     */
+    void writeFirstScreen(FirstScreen screen) {
+        File file = new File(mContext.getCacheDir(), FIRST_SCREEN_FILE);
+        File temporary = new File(mContext.getCacheDir(), FIRST_SCREEN_FILE + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temporary)));
+            try {
+                out.writeInt(FIRST_SCREEN_VERSION);
+                out.writeInt(screen.ids.length);
+                for (int i = 0; i < screen.ids.length; i++) {
+                    out.writeLong(screen.ids[i]);
+                    out.writeUTF(screen.names[i] == null ? "" : screen.names[i]);
+                    out.writeInt(screen.prices[i]);
+                    out.writeInt(screen.quantities[i]);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot write " + file, e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.support.v4.content.LocalBroadcastManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.sync.Backoff;
+import com.varma.hemanshu.bookscorner.sync.HttpSyncTransport;
+import com.varma.hemanshu.bookscorner.sync.SyncEngine;
+
+import java.io.IOException;
+
+/**
+ * Service syncing the books with the head office server in the background.
+ * The server is set by the SYNC_BASE_URL build config field, sync is off while it is empty.
+ */
+public class BookSyncService extends IntentService {
+
+    /**
+     * Tag for Logging
+     **/
+    private static final String LOG_TAG = BookSyncService.class.getSimpleName();
+
+    /**
+     * Local broadcast sent once a sync is over
+     */
+    public static final String ACTION_SYNC_FINISHED =
+            "com.varma.hemanshu.bookscorner.action.SYNC_FINISHED";
+    public static final String EXTRA_UPLOADED = "uploaded";
+    public static final String EXTRA_DOWNLOADED = "downloaded";
+    public static final String EXTRA_CONFLICTS = "conflicts";
+    public static final String EXTRA_FAILED = "failed";
+
+    // Download cursor of the server
+    private static final String PREFS_NAME = "book_sync";
+
+    public BookSyncService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts a sync, queued after the one running if any.
+     */
+    public static void start(Context context) {
+        context.startService(new Intent(context, BookSyncService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Intent finished = new Intent(ACTION_SYNC_FINISHED);
+        if (TextUtils.isEmpty(BuildConfig.SYNC_BASE_URL)) {
+            Log.w(LOG_TAG, "No sync server configured");
+            finished.putExtra(EXTRA_FAILED, true);
+            LocalBroadcastManager.getInstance(this).sendBroadcast(finished);
+            return;
+        }
+        SyncEngine engine = new SyncEngine(getContentResolver(),
+                new HttpSyncTransport(BuildConfig.SYNC_BASE_URL),
+                getSharedPreferences(PREFS_NAME, MODE_PRIVATE), Backoff.DEFAULT);
+        try {
+            SyncEngine.Result result = engine.sync();
+            Log.i(LOG_TAG, "Synced in " + result.elapsedMs + " ms: " + result.uploaded
+                    + " uploaded, " + result.downloaded + " downloaded, "
+                    + result.conflicts + " conflicts");
+            finished.putExtra(EXTRA_UPLOADED, result.uploaded);
+            finished.putExtra(EXTRA_DOWNLOADED, result.downloaded);
+            finished.putExtra(EXTRA_CONFLICTS, result.conflicts);
+        } catch (IOException | RemoteException | OperationApplicationException
+                | IllegalArgumentException e) {
+            // Everything committed so far is kept, the next sync continues from there.
+            // IllegalArgumentException is a book of the server the provider rejected.
+            Log.e(LOG_TAG, "Sync failed", e);
+            finished.putExtra(EXTRA_FAILED, true);
+        }
+        // Fold the log grown by a large sync back into the database while the app is idle
+        getContentResolver().call(BookEntry.CONTENT_URI, BookEntry.METHOD_CHECKPOINT,
+                null, null);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(finished);
+    }
+}
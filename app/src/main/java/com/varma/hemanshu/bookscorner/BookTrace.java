@@ -0,0 +1,154 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trace sections of the app, shown by systrace and Perfetto under the app tag.
+ * Sections are only emitted when {@link BuildConfig#TRACE_SECTIONS} is set, which it is not
+ * in release builds, so the calls compile down to nothing there. Names must be constants,
+ * building them would allocate on every call.
+ * Async sections may begin and end on different threads, they link a Sale tap to the write,
+ * requery and rebind it causes.
+ */
+public final class BookTrace {
+
+    private static final String LOG_TAG = BookTrace.class.getSimpleName();
+
+    /**
+     * Whether the sections are emitted, set by the build type
+     */
+    public static final boolean ENABLED = BuildConfig.TRACE_SECTIONS;
+
+    /**
+     * Trace.TRACE_TAG_APP, hidden
+     */
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    public static final String PROVIDER_QUERY = "BookProvider.query";
+    public static final String PROVIDER_INSERT = "BookProvider.insert";
+    public static final String PROVIDER_UPDATE = "BookProvider.update";
+    public static final String PROVIDER_DELETE = "BookProvider.delete";
+    public static final String PROVIDER_BULK_INSERT = "BookProvider.bulkInsert";
+    public static final String PROVIDER_SELL = "BookProvider.sell";
+    public static final String LOADER_CREATE = "onCreateLoader";
+    public static final String LOADER_LOAD = "BookListLoader.load";
+    public static final String LOADER_DIFF = "BookListLoader.diff";
+    public static final String LOADER_FINISHED = "onLoadFinished";
+    public static final String ADAPTER_CREATE = "BookCursorAdapter.create";
+    public static final String ADAPTER_BIND = "BookCursorAdapter.bind";
+    public static final String STARTUP_WARM_UP = "BookStartup.warmUp";
+
+    /**
+     * Async section from a Sale tap to the rebind of the book showing it sold
+     */
+    public static final String SALE = "Sale";
+
+    private static final AtomicInteger sNextCookie = new AtomicInteger();
+
+    /**
+     * Methods of Trace for the async sections and the enabled check, looked up once.
+     * They are hidden before API 29, where public ones replace them.
+     */
+    private static Method sIsEnabled;
+    private static Method sAsyncBegin;
+    private static Method sAsyncEnd;
+    private static boolean sLookedUp;
+
+    private BookTrace() {
+    }
+
+    /**
+     * Begins a section on the current thread, ended by the next {@link #endSection()} on it.
+     */
+    public static void beginSection(String name) {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    public static void endSection() {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * @return whether the app is being traced, so that the work of async sections is worth it.
+     */
+    public static boolean isTracing() {
+        if (!ENABLED || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2 || !lookUp()) {
+            return false;
+        }
+        Object enabled = invoke(sIsEnabled, Build.VERSION.SDK_INT >= 29
+                ? new Object[0] : new Object[]{TRACE_TAG_APP});
+        return Boolean.TRUE.equals(enabled);
+    }
+
+    /**
+     * Begins an async section, which any thread may end.
+     *
+     * @return the cookie ending the section, 0 when the app is not being traced.
+     */
+    public static int beginAsyncSection(String name) {
+        if (!isTracing()) {
+            return 0;
+        }
+        int cookie;
+        do {
+            cookie = sNextCookie.incrementAndGet();
+        } while (cookie == 0);
+        invoke(sAsyncBegin, Build.VERSION.SDK_INT >= 29
+                ? new Object[]{name, cookie} : new Object[]{TRACE_TAG_APP, name, cookie});
+        return cookie;
+    }
+
+    /**
+     * Ends the async section begun with the cookie, nothing for the cookie 0.
+     */
+    public static void endAsyncSection(String name, int cookie) {
+        if (!ENABLED || cookie == 0) {
+            return;
+        }
+        invoke(sAsyncEnd, Build.VERSION.SDK_INT >= 29
+                ? new Object[]{name, cookie} : new Object[]{TRACE_TAG_APP, name, cookie});
+    }
+
+    /**
+     * @return whether the methods of the async sections were found.
+     */
+    private static synchronized boolean lookUp() {
+        if (!sLookedUp) {
+            sLookedUp = true;
+            try {
+                if (Build.VERSION.SDK_INT >= 29) {
+                    sIsEnabled = Trace.class.getMethod("isEnabled");
+                    sAsyncBegin = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+                    sAsyncEnd = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+                } else {
+                    sIsEnabled = Trace.class.getMethod("isTagEnabled", long.class);
+                    sAsyncBegin = Trace.class.getMethod("asyncTraceBegin",
+                            long.class, String.class, int.class);
+                    sAsyncEnd = Trace.class.getMethod("asyncTraceEnd",
+                            long.class, String.class, int.class);
+                }
+            } catch (NoSuchMethodException | RuntimeException e) {
+                Log.w(LOG_TAG, "No async trace sections", e);
+                sIsEnabled = null;
+            }
+        }
+        return sIsEnabled != null;
+    }
+
+    private static Object invoke(Method method, Object[] args) {
+        try {
+            return method.invoke(null, args);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
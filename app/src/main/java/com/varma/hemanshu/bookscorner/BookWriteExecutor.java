@@ -0,0 +1,235 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the {@link ContentResolver} writes of the app off the main thread.
+ * Writes are spread over a few single threaded lanes by book id, so writes to the same book
+ * run in the order they were submitted while writes to other books run in parallel.
+ * Writes touching any number of books, like deleting all of them, wait for every lane to be
+ * idle and block all of them while they run. Results are handed back on the main thread.
+ */
+public class BookWriteExecutor {
+
+    private static final String LOG_TAG = BookWriteExecutor.class.getSimpleName();
+
+    private static final int LANE_COUNT = 3;
+
+    /**
+     * Receives the result of a write on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Receives the result of a write on the main thread, along with the uptime at which it
+     * was committed. The time is taken on the lane once the provider returned, before the
+     * result is posted.
+     */
+    public interface CommitCallback<T> {
+        void onResult(T result, long committedAt);
+    }
+
+    private static BookWriteExecutor sInstance;
+
+    private final ContentResolver mResolver;
+    private final ExecutorService[] mLanes = new ExecutorService[LANE_COUNT];
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Lane of the next insert, new books have no id to pick a lane with yet
+     */
+    private final AtomicInteger mNextInsertLane = new AtomicInteger();
+
+    public static synchronized BookWriteExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookWriteExecutor(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private BookWriteExecutor(ContentResolver resolver) {
+        mResolver = resolver;
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mLanes[i] = Executors.newSingleThreadExecutor();
+        }
+    }
+
+    /**
+     * Inserts a book, the callback receives the uri of the new book or null on failure.
+     */
+    public void insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        int lane = (mNextInsertLane.getAndIncrement() & Integer.MAX_VALUE) % LANE_COUNT;
+        submit(mLanes[lane], new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return mResolver.insert(uri, values);
+            }
+        }, null, withoutCommitTime(callback));
+    }
+
+    /**
+     * Updates books, the callback receives the number of rows updated.
+     */
+    public void update(final Uri uri, final ContentValues values, Callback<Integer> callback) {
+        submit(bookIdOf(uri), new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mResolver.update(uri, values, null, null);
+            }
+        }, 0, withoutCommitTime(callback));
+    }
+
+    /**
+     * Deletes books, the callback receives the number of rows deleted.
+     */
+    public void delete(final Uri uri, Callback<Integer> callback) {
+        submit(bookIdOf(uri), new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mResolver.delete(uri, null, null);
+            }
+        }, 0, withoutCommitTime(callback));
+    }
+
+    /**
+     * Calls a provider method writing the given book, the callback receives its result bundle.
+     */
+    public void call(final String method, long bookId, final Bundle extras,
+                     CommitCallback<Bundle> callback) {
+        submit(bookId, new Callable<Bundle>() {
+            @Override
+            public Bundle call() {
+                return mResolver.call(BookEntry.CONTENT_URI, method, null, extras);
+            }
+        }, null, callback);
+    }
+
+    /**
+     * Runs the write on the lane of the given book, or on all lanes when the id is -1.
+     * Synchronized so that writes spanning all lanes are queued in the same order on every
+     * lane, otherwise two of them could each wait for the other one.
+     */
+    private synchronized <T> void submit(long bookId, final Callable<T> write,
+                                         final T failedResult,
+                                         final CommitCallback<T> callback) {
+        if (bookId >= 0) {
+            submit(mLanes[(int) (bookId % LANE_COUNT)], write, failedResult, callback);
+            return;
+        }
+        final CountDownLatch lanesIdle = new CountDownLatch(LANE_COUNT - 1);
+        final CountDownLatch writeDone = new CountDownLatch(1);
+        for (int i = 1; i < LANE_COUNT; i++) {
+            mLanes[i].execute(new Runnable() {
+                @Override
+                public void run() {
+                    lanesIdle.countDown();
+                    awaitQuietly(writeDone);
+                }
+            });
+        }
+        mLanes[0].execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitQuietly(lanesIdle);
+                try {
+                    runWrite(write, failedResult, callback);
+                } finally {
+                    writeDone.countDown();
+                }
+            }
+        });
+    }
+
+    private <T> void submit(ExecutorService lane, final Callable<T> write, final T failedResult,
+                            final CommitCallback<T> callback) {
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                runWrite(write, failedResult, callback);
+            }
+        });
+    }
+
+    private <T> void runWrite(Callable<T> write, T failedResult,
+                              final CommitCallback<T> callback) {
+        T result;
+        try {
+            result = write.call();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Write failed", e);
+            result = failedResult;
+        }
+        if (callback == null) {
+            return;
+        }
+        final long committedAt = SystemClock.uptimeMillis();
+        final T delivered = result;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(delivered, committedAt);
+            }
+        });
+    }
+
+    private static <T> CommitCallback<T> withoutCommitTime(final Callback<T> callback) {
+        if (callback == null) {
+            return null;
+        }
+        return new CommitCallback<T>() {
+            @Override
+            public void onResult(T result, long committedAt) {
+                callback.onResult(result);
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return id of the single book the uri points to, or -1 for the uri of the whole table.
+     */
+    private static long bookIdOf(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+/**
+ * Application class of Books Corner.
+ */
+public class BooksApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (BuildConfig.DEBUG) {
+            // Database writes run on the BookWriteExecutor, so any disk access reaching the
+            // main thread is a regression and gets logged with its stack trace.
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+        // Opens the database and reads the saved first screen while the activity inflates
+        BookStartup.getInstance(this).start();
+    }
+}
@@ -3,6 +3,7 @@ package com.varma.hemanshu.bookscorner;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -76,6 +77,11 @@ public class BooksEditorActivity extends AppCompatActivity implements LoaderMana
      **/
     private String supplierPhone;
 
+    /**
+     * Values of the existing book as loaded, so that only the edited ones are saved
+     */
+    private ContentValues mLoadedValues;
+
     /**
      * Boolean flag that keeps track of whether the book has been edited (true) or not (false)
      */
@@ -250,8 +256,12 @@ public class BooksEditorActivity extends AppCompatActivity implements LoaderMana
                 BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
                 BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
 
-        Log.i(LOG_TAG, getString(R.string.inside_onCreateLoader));
-        return new CursorLoader(this, mBookUri, projection, null, null, null);
+        BookTrace.beginSection(BookTrace.LOADER_CREATE);
+        try {
+            return new CursorLoader(this, mBookUri, projection, null, null, null);
+        } finally {
+            BookTrace.endSection();
+        }
     }
 
     @Override
@@ -261,34 +271,43 @@ public class BooksEditorActivity extends AppCompatActivity implements LoaderMana
             return;
         }
 
-        // Proceed with moving to the first row of the cursor and reading data from it
-        // (This should be the only row in the cursor)
-        if (cursor.moveToFirst()) {
-            String name = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME));
-            int priceInt = cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE));
-            String priceString = String.valueOf(priceInt);
-            int quantityInt = cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY));
-            String quantityString = String.valueOf(quantityInt);
-
-            // Setting quantity when item is retrieved from list
-            quantity = Integer.parseInt(quantityString);
-
-            String supplierName = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NAME));
-            supplierPhone = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO));
-            // Setting Text onto Views
-            mBookName.setText(name);
-            mBookPrice.setText(priceString);
-            mBookQuantity.setText(quantityString);
-            mSupplierName.setText(supplierName);
-            mSupplierPhone.setText(supplierPhone);
-
-            Log.i(LOG_TAG, getString(R.string.inside_onLoadFinished));
+        BookTrace.beginSection(BookTrace.LOADER_FINISHED);
+        try {
+            // Proceed with moving to the first row of the cursor and reading data from it
+            // (This should be the only row in the cursor)
+            if (cursor.moveToFirst()) {
+                String name = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME));
+                int priceInt = cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE));
+                String priceString = String.valueOf(priceInt);
+                int quantityInt = cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY));
+                String quantityString = String.valueOf(quantityInt);
+
+                // Setting quantity when item is retrieved from list
+                quantity = Integer.parseInt(quantityString);
+
+                String supplierName = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_NAME));
+                supplierPhone = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO));
+                // Setting Text onto Views
+                mBookName.setText(name);
+                mBookPrice.setText(priceString);
+                mBookQuantity.setText(quantityString);
+                mSupplierName.setText(supplierName);
+                mSupplierPhone.setText(supplierPhone);
+
+                mLoadedValues = new ContentValues();
+                mLoadedValues.put(BookEntry.COLUMN_BOOK_NAME, name);
+                mLoadedValues.put(BookEntry.COLUMN_BOOK_PRICE, priceInt);
+                mLoadedValues.put(BookEntry.COLUMN_BOOK_QUANTITY, quantityInt);
+                mLoadedValues.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, supplierName);
+                mLoadedValues.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, supplierPhone);
+            }
+        } finally {
+            BookTrace.endSection();
         }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        Log.i(LOG_TAG, getString(R.string.inside_onLoaderReset));
         mBookName.setText(getString(R.string.book_name_hint));
         mBookPrice.setText(getString(R.string.price_hint));
         mBookQuantity.setText(getString(R.string.quantity_int));
@@ -355,25 +374,51 @@ public class BooksEditorActivity extends AppCompatActivity implements LoaderMana
         values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, supplierPhoneString);
 
         Log.i(LOG_TAG, getString(R.string.inside_saveBook));
+        // The write runs off the main thread, the toast is shown once it is done.
+        // Application context is used, as this activity is finished by then.
+        final Context appContext = getApplicationContext();
+        BookWriteExecutor writeExecutor = BookWriteExecutor.getInstance(this);
         if (mBookUri == null) {
-            Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.insert_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.insert_book_success),
-                        Toast.LENGTH_SHORT).show();
-            }
+            writeExecutor.insert(BookEntry.CONTENT_URI, values, new BookWriteExecutor.Callback<Uri>() {
+                @Override
+                public void onResult(Uri newUri) {
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        Toast.makeText(appContext, appContext.getString(R.string.insert_book_failed),
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText(appContext, appContext.getString(R.string.insert_book_success),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
             finish();
         } else {
-            int rowsAffected = getContentResolver().update(mBookUri, values, null, null);
-            if (rowsAffected == 0) {
-                Toast.makeText(this, getString(R.string.editor_update_failed), Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.editor_update_successful), Toast.LENGTH_SHORT).show();
+            // Only the edited values are written, a change of the quantity alone taking the
+            // compiled statement of the provider
+            if (mLoadedValues != null) {
+                for (String key : mLoadedValues.keySet()) {
+                    Object loaded = mLoadedValues.get(key);
+                    if (loaded != null && loaded.equals(values.get(key))) {
+                        values.remove(key);
+                    }
+                }
+                if (values.size() == 0) {
+                    finish();
+                    return;
+                }
             }
+            writeExecutor.update(mBookUri, values, new BookWriteExecutor.Callback<Integer>() {
+                @Override
+                public void onResult(Integer rowsAffected) {
+                    if (rowsAffected == 0) {
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_update_failed), Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_update_successful), Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
             finish();
         }
     }
@@ -427,20 +472,25 @@ public class BooksEditorActivity extends AppCompatActivity implements LoaderMana
     private void deleteBook() {
         // Only perform the delete if this is an existing Book.
         if (mBookUri != null) {
-            // Call the ContentResolver to delete the Book at the given content URI.
+            // Ask the write executor to delete the Book at the given content URI.
             // Pass in null for the selection and selection args because the mCurrentBookUri
             // content URI already identifies the Book that we want.
-            int rowsDeleted = getContentResolver().delete(mBookUri, null, null);
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_book_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            BookWriteExecutor.getInstance(this).delete(mBookUri, new BookWriteExecutor.Callback<Integer>() {
+                @Override
+                public void onResult(Integer rowsDeleted) {
+                    // Show a toast message depending on whether or not the delete was successful.
+                    if (rowsDeleted == 0) {
+                        // If no rows were deleted, then there was an error with the delete.
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_delete_book_failed),
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the delete was successful and we can display a toast.
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_delete_book_successful),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
         Log.i(LOG_TAG, getString(R.string.inside_deleteBook));
         // Close the activity
@@ -1,37 +1,44 @@
 package com.varma.hemanshu.bookscorner;
 
+import android.content.BroadcastReceiver;
 import android.content.ContentUris;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
-
-import butterknife.BindView;
-import butterknife.ButterKnife;
+import com.varma.hemanshu.bookscorner.data.BookContract.SummaryEntry;
 
 public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    @BindView(R.id.list_view)
-    ListView listView;
-    @BindView(R.id.empty_view)
+    // Found by id rather than bound by ButterKnife, whose lookup of the binding class by
+    // reflection would run on the critical path of a cold start
+    RecyclerView listView;
     View emptyView;
-    @BindView(R.id.fab)
+    TextView summaryView;
     FloatingActionButton floatingActionButton;
 
     /**
@@ -40,20 +47,144 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     private static final int BOOK_LOADER = 0;
 
     /**
-     * Adapter for the ListView
+     * Identifier for the inventory summary loader
+     */
+    private static final int SUMMARY_LOADER = 1;
+
+    /**
+     * Request code for picking the catalog file to import
+     */
+    private static final int REQUEST_IMPORT_CATALOG = 1;
+
+    /**
+     * Loader argument holding the text typed in the search view
+     */
+    private static final String ARG_SEARCH_QUERY = "search_query";
+
+    /**
+     * Time the search text has to stay unchanged before the list is searched again
+     */
+    private static final long SEARCH_DELAY_MS = 150;
+
+    /**
+     * Key of the list mode in the saved instance state
+     */
+    private static final String STATE_LIST_MODE = "list_mode";
+
+    /**
+     * How the list is sorted and filtered, one of the LIST_MODE values of {@link BookEntry}
+     */
+    private String mListMode = BookEntry.LIST_MODE_ADDED;
+
+    /**
+     * Adapter for the RecyclerView
      */
     private BookCursorAdapter mBookCursorAdapter;
 
+    /**
+     * Whether the book loader delivered a list, which replaces the saved first screen
+     */
+    private boolean mListLoaded;
+
+    /**
+     * Whether the list shows the books matching a search
+     */
+    private boolean mSearching;
+
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Text to search once typing pauses
+     */
+    private String mPendingQuery;
+
+    /**
+     * Reloads the list with the books matching the last text typed.
+     */
+    private final Runnable mSearch = new Runnable() {
+        @Override
+        public void run() {
+            Bundle args = new Bundle();
+            args.putString(ARG_SEARCH_QUERY, mPendingQuery);
+            getSupportLoaderManager().restartLoader(BOOK_LOADER, args, MainActivity.this);
+        }
+    };
+
+    /**
+     * Shows the first screen saved by the last run until the loader delivers the list.
+     */
+    private final BookWriteExecutor.Callback<Cursor> mFirstScreenCallback =
+            new BookWriteExecutor.Callback<Cursor>() {
+                @Override
+                public void onResult(Cursor cursor) {
+                    if (cursor != null && !mListLoaded && !isFinishing()) {
+                        mBookCursorAdapter.swapCursor(cursor, BookListSnapshot.of(cursor));
+                        mBookCursorAdapter.notifyDataSetChanged();
+                    }
+                }
+            };
+
     /**
      * Tag for Logging
      **/
     private static final String LOG_TAG = MainActivity.class.getSimpleName();
 
+    /**
+     * Shows the progress of a running catalog import in the app bar.
+     */
+    private final BroadcastReceiver mImportReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (getSupportActionBar() == null) {
+                return;
+            }
+            if (!intent.getBooleanExtra(BookImportService.EXTRA_FINISHED, false)) {
+                getSupportActionBar().setSubtitle(getString(R.string.import_progress,
+                        intent.getLongExtra(BookImportService.EXTRA_ROWS_READ, 0)));
+                return;
+            }
+            getSupportActionBar().setSubtitle(null);
+            if (intent.getBooleanExtra(BookImportService.EXTRA_FAILED, false)) {
+                Toast.makeText(MainActivity.this, R.string.import_failed,
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(MainActivity.this, getString(R.string.import_finished,
+                        intent.getLongExtra(BookImportService.EXTRA_ROWS_IMPORTED, 0),
+                        intent.getLongExtra(BookImportService.EXTRA_ROWS_REJECTED, 0)),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
+    /**
+     * Tells the outcome of a sync.
+     */
+    private final BroadcastReceiver mSyncReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getBooleanExtra(BookSyncService.EXTRA_FAILED, false)) {
+                Toast.makeText(MainActivity.this, R.string.sync_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(MainActivity.this, getString(R.string.sync_finished,
+                        intent.getIntExtra(BookSyncService.EXTRA_UPLOADED, 0),
+                        intent.getIntExtra(BookSyncService.EXTRA_DOWNLOADED, 0),
+                        intent.getIntExtra(BookSyncService.EXTRA_CONFLICTS, 0)),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        ButterKnife.bind(this);
+        if (savedInstanceState != null) {
+            mListMode = savedInstanceState.getString(STATE_LIST_MODE, BookEntry.LIST_MODE_ADDED);
+        }
+        listView = findViewById(R.id.list_view);
+        emptyView = findViewById(R.id.empty_view);
+        summaryView = findViewById(R.id.summary_view);
+        floatingActionButton = findViewById(R.id.fab);
 
         // FAB for Redirecting to Add Book Activity.
         floatingActionButton.setOnClickListener(new View.OnClickListener() {
@@ -64,18 +195,11 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             }
         });
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        listView.setEmptyView(emptyView);
-
         // Setup an Adapter to create a list item for each row of book data in the Cursor.
-        // There is no book data yet (until the loader finishes) so pass in null for the Cursor.
-        mBookCursorAdapter = new BookCursorAdapter(this, null);
-        listView.setAdapter(mBookCursorAdapter);
-
-        // Setup the item click listener
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // There is no book data yet (until the loader finishes), the list starts empty.
+        mBookCursorAdapter = new BookCursorAdapter(this, new BookCursorAdapter.OnBookClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onBookClick(long id) {
                 Intent i = new Intent(MainActivity.this, BooksEditorActivity.class);
 
                 // Form the content URI that represents the specific book that was clicked on,
@@ -88,18 +212,132 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 startActivity(i);
             }
         });
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        listView.setLayoutManager(layoutManager);
+        listView.setAdapter(mBookCursorAdapter);
+        // The next results of the book loader read the rows shown before they are delivered
+        listView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                Loader<Cursor> loader = getSupportLoaderManager().getLoader(BOOK_LOADER);
+                if (newState == RecyclerView.SCROLL_STATE_IDLE && loader instanceof BookListLoader) {
+                    ((BookListLoader) loader).setPosition(layoutManager.findFirstVisibleItemPosition());
+                }
+            }
+        });
+
+        // Show the empty view only when the list has 0 items.
+        mBookCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
         getSupportLoaderManager().initLoader(BOOK_LOADER, null, this);
+        getSupportLoaderManager().initLoader(SUMMARY_LOADER, null, this);
+        if (BookEntry.LIST_MODE_ADDED.equals(mListMode)) {
+            BookStartup.getInstance(this).getFirstScreen(mFirstScreenCallback);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mSearch);
+        BookStartup.getInstance(this).cancelFirstScreen(mFirstScreenCallback);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_LIST_MODE, mListMode);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        LocalBroadcastManager.getInstance(this).registerReceiver(mImportReceiver,
+                new IntentFilter(BookImportService.ACTION_IMPORT_PROGRESS));
+        LocalBroadcastManager.getInstance(this).registerReceiver(mSyncReceiver,
+                new IntentFilter(BookSyncService.ACTION_SYNC_FINISHED));
+    }
+
+    @Override
+    protected void onStop() {
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(mImportReceiver);
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(mSyncReceiver);
+        // Saved for the next start, in the mode the app opens in
+        if (mListLoaded && !mSearching && BookEntry.LIST_MODE_ADDED.equals(mListMode)
+                && mBookCursorAdapter.getCursor() != null) {
+            BookStartup.getInstance(this).saveFirstScreen(mBookCursorAdapter.getCursor());
+        }
+        super.onStop();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.activity_main_menu, menu);
+        menu.findItem(listModeItemId(mListMode)).setChecked(true);
+
+        // Search as you type, the list is reloaded with the matching books once typing pauses.
+        // A cleared search shows the whole list again right away.
+        SearchView searchView = (SearchView) menu.findItem(R.id.search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPendingQuery = newText;
+                mHandler.removeCallbacks(mSearch);
+                if (TextUtils.isEmpty(newText)) {
+                    mSearch.run();
+                } else {
+                    mHandler.postDelayed(mSearch, SEARCH_DELAY_MS);
+                }
+                return true;
+            }
+        });
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            case R.id.list_mode_added:
+                setListMode(BookEntry.LIST_MODE_ADDED, item);
+                return true;
+            case R.id.list_mode_name:
+                setListMode(BookEntry.LIST_MODE_NAME, item);
+                return true;
+            case R.id.list_mode_price:
+                setListMode(BookEntry.LIST_MODE_PRICE, item);
+                return true;
+            case R.id.list_mode_quantity:
+                setListMode(BookEntry.LIST_MODE_QUANTITY, item);
+                return true;
+            case R.id.list_mode_low_stock:
+                setListMode(BookEntry.LIST_MODE_LOW_STOCK, item);
+                return true;
+            case R.id.import_catalog:
+                pickCatalog();
+                return true;
+            case R.id.sync_now:
+                BookSyncService.start(this);
+                return true;
             case R.id.delete_all_records:
                 deleteAllPets();
                 return true;
@@ -108,52 +346,166 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     }
 
     /**
-     * Helper method to delete all pets in the database.
+     * Reloads the list in the given mode, sorted and filtered by the provider.
      */
-    private void deleteAllPets() {
-        // Deletes the rows that match the selection criteria
-        int rowsDeleted = getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
+    private void setListMode(String listMode, MenuItem item) {
+        item.setChecked(true);
+        if (!listMode.equals(mListMode)) {
+            mListMode = listMode;
+            getSupportLoaderManager().restartLoader(BOOK_LOADER, null, this);
+        }
+    }
 
-        if (rowsDeleted == 0) {
-            // If the value of rowsDeleted is 0, then there was problem with deleting rows
-            // or no rows match the selection criteria.
-            Toast.makeText(this, R.string.error_while_deleting_books,
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the deletion was successful and we can display a toast.
-            Toast.makeText(this, R.string.all_books_deleted,
-                    Toast.LENGTH_SHORT).show();
+    private static int listModeItemId(String listMode) {
+        switch (listMode) {
+            case BookEntry.LIST_MODE_NAME:
+                return R.id.list_mode_name;
+            case BookEntry.LIST_MODE_PRICE:
+                return R.id.list_mode_price;
+            case BookEntry.LIST_MODE_QUANTITY:
+                return R.id.list_mode_quantity;
+            case BookEntry.LIST_MODE_LOW_STOCK:
+                return R.id.list_mode_low_stock;
+            default:
+                return R.id.list_mode_added;
         }
-        Log.v(LOG_TAG, getString(R.string.deleted_rows) + rowsDeleted);
+    }
+
+    private void updateEmptyView() {
+        emptyView.setVisibility(mBookCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Lets the user pick a CSV or TSV catalog file, imported in {@link #onActivityResult}.
+     */
+    private void pickCatalog() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("text/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        if (intent.resolveActivity(getPackageManager()) != null) {
+            startActivityForResult(intent, REQUEST_IMPORT_CATALOG);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT_CATALOG && resultCode == RESULT_OK
+                && data != null && data.getData() != null) {
+            BookImportService.start(this, data.getData());
+        }
+    }
+
+    /**
+     * Helper method to delete all pets in the database.
+     */
+    private void deleteAllPets() {
+        // Deletes the rows that match the selection criteria, off the main thread
+        BookWriteExecutor.getInstance(this).delete(BookEntry.CONTENT_URI,
+                new BookWriteExecutor.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer rowsDeleted) {
+                        if (rowsDeleted == 0) {
+                            // If the value of rowsDeleted is 0, then there was problem with deleting rows
+                            // or no rows match the selection criteria.
+                            Toast.makeText(MainActivity.this, R.string.error_while_deleting_books,
+                                    Toast.LENGTH_SHORT).show();
+                        } else {
+                            // Otherwise, the deletion was successful and we can display a toast.
+                            Toast.makeText(MainActivity.this, R.string.all_books_deleted,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                        Log.v(LOG_TAG, getString(R.string.deleted_rows) + rowsDeleted);
+                    }
+                });
     }
 
     @NonNull
     @Override
     public Loader<Cursor> onCreateLoader(int i, @Nullable Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {BookEntry._ID,
-                BookEntry.COLUMN_BOOK_NAME,
-                BookEntry.COLUMN_BOOK_PRICE,
-                BookEntry.COLUMN_BOOK_QUANTITY};
+        BookTrace.beginSection(BookTrace.LOADER_CREATE);
+        try {
+            return newLoader(i, bundle);
+        } finally {
+            BookTrace.endSection();
+        }
+    }
+
+    private Loader<Cursor> newLoader(int i, Bundle bundle) {
+        if (i == SUMMARY_LOADER) {
+            // A single row, kept up to date by the database whatever the number of books
+            return new CursorLoader(this, SummaryEntry.CONTENT_URI, null, null, null, null);
+        }
 
-        Log.i(LOG_TAG, getString(R.string.inside_onCreateLoader));
+        // Books matching the search query, or all of them in the list mode when nothing is searched
+        Uri uri = BookEntry.buildListUri(mListMode, null);
+        String searchQuery = bundle == null ? null : bundle.getString(ARG_SEARCH_QUERY);
+        mSearching = !TextUtils.isEmpty(searchQuery);
+        if (mSearching) {
+            uri = BookEntry.buildSearchUri(searchQuery);
+        }
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this, BookEntry.CONTENT_URI, projection,
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // and diff the new result against the previous one there too
+        return new BookListLoader(this, uri, BookCursorAdapter.PROJECTION,
                 null, null, null);
     }
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
-        Log.i(LOG_TAG, getString(R.string.inside_onLoadFinished));
-        // Update {@link BookCursorAdapter} with this new cursor containing updated pet data
-        mBookCursorAdapter.swapCursor(cursor);
+        if (loader.getId() == SUMMARY_LOADER) {
+            showSummary(cursor);
+            return;
+        }
+        BookTrace.beginSection(BookTrace.LOADER_FINISHED);
+        try {
+            if (!mListLoaded && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // End of the cold start measured by the benchmark, the real list is shown
+                reportFullyDrawn();
+            }
+            mListLoaded = true;
+            // Update {@link BookCursorAdapter} with this new cursor containing updated book data
+            BookListLoader.DiffCursor diffCursor = (BookListLoader.DiffCursor) cursor;
+            if (diffCursor == null) {
+                mBookCursorAdapter.swapCursor(null, BookListSnapshot.EMPTY);
+                mBookCursorAdapter.notifyDataSetChanged();
+            } else if (diffCursor.getBaseSnapshot() == mBookCursorAdapter.getSnapshot()) {
+                // Only the rows which changed since the displayed result get rebound
+                mBookCursorAdapter.swapCursor(diffCursor, diffCursor.getSnapshot());
+                diffCursor.getDiff().dispatchUpdatesTo(mBookCursorAdapter);
+            } else {
+                // Diffed from a result which was never displayed
+                mBookCursorAdapter.swapCursor(diffCursor, diffCursor.getSnapshot());
+                mBookCursorAdapter.notifyDataSetChanged();
+            }
+        } finally {
+            BookTrace.endSection();
+        }
     }
 
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        Log.i(LOG_TAG, getString(R.string.inside_onLoaderReset));
+        if (loader.getId() == SUMMARY_LOADER) {
+            summaryView.setText(null);
+            return;
+        }
         // Callback called when the data needs to be deleted
-        mBookCursorAdapter.swapCursor(null);
+        mBookCursorAdapter.swapCursor(null, BookListSnapshot.EMPTY);
+        mBookCursorAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Shows the inventory totals above the list.
+     */
+    private void showSummary(Cursor cursor) {
+        if (cursor == null || !cursor.moveToFirst()) {
+            summaryView.setText(null);
+            return;
+        }
+        summaryView.setText(getString(R.string.summary_text,
+                cursor.getLong(cursor.getColumnIndexOrThrow(SummaryEntry.COLUMN_TITLES)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(SummaryEntry.COLUMN_UNITS)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(SummaryEntry.COLUMN_STOCK_VALUE)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(SummaryEntry.COLUMN_LOW_STOCK))));
     }
 }
@@ -0,0 +1,233 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.widget.Toast;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the Sale taps of the list and sends them to {@link BookEntry#METHOD_SELL}.
+ * Taps on the same book within {@link #COALESCE_WINDOW_MS} are merged, so a burst of N taps
+ * becomes a single statement selling N units.
+ * Units stay pending from the tap until the list shows them: while queued, while their call
+ * runs, and once sold until a list queried after the sale is loaded. Units the provider
+ * refused stop being pending when their call returns.
+ * While the app is traced, each sale is an async {@link BookTrace#SALE} section lasting from
+ * the first tap on the book to the rebind of its row by the list loaded after the sale.
+ * Used on the main thread only.
+ */
+class SaleBatcher {
+
+    private static final String LOG_TAG = SaleBatcher.class.getSimpleName();
+
+    /**
+     * Time to wait for more taps before sending the pending sales
+     */
+    private static final long COALESCE_WINDOW_MS = 300;
+
+    /**
+     * Told of the books whose units the provider refused to sell, which the list shows sold.
+     */
+    interface OnSaleRefusedListener {
+        void onSaleRefused(long bookId);
+    }
+
+    private final Context mContext;
+    private final OnSaleRefusedListener mOnSaleRefusedListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Units waiting to be sent, by book id
+     */
+    private final LongSparseArray<Integer> mPending = new LongSparseArray<>();
+
+    /**
+     * Units sent in a single call, pending until a list showing them is loaded.
+     */
+    private static class SentSale {
+        final long bookId;
+        final int units;
+        // Uptime at which the sale was committed, taken on its lane, 0 while it runs
+        long soldAt;
+
+        SentSale(long bookId, int units) {
+            this.bookId = bookId;
+            this.units = units;
+        }
+    }
+
+    /**
+     * Sales sent and not shown yet, a few at most
+     */
+    private final List<SentSale> mSent = new ArrayList<>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Trace of a sale, ended once the book is rebound from a list loaded after the sale
+     */
+    private static class SaleTrace {
+        final int cookie;
+        // The sell call returned
+        boolean sold;
+        // A list was loaded since
+        boolean requeried;
+
+        SaleTrace(int cookie) {
+            this.cookie = cookie;
+        }
+    }
+
+    /**
+     * Open sale traces by book id, empty while the app is not traced
+     */
+    private final LongSparseArray<SaleTrace> mSaleTraces = new LongSparseArray<>();
+
+    /**
+     * Receives the result of the sale of a book.
+     */
+    private class SaleCallback implements BookWriteExecutor.CommitCallback<Bundle> {
+        private final long mBookId;
+        private final SentSale mSale;
+
+        SaleCallback(SentSale sale) {
+            mBookId = sale.bookId;
+            mSale = sale;
+        }
+
+        @Override
+        public void onResult(Bundle result, long committedAt) {
+            boolean sold = result != null && result.getBoolean(BookEntry.EXTRA_SOLD);
+            if (sold) {
+                // Not the time of this callback, a list queried in between shows the sale
+                mSale.soldAt = committedAt;
+            } else {
+                mSent.remove(mSale);
+                Toast.makeText(mContext, R.string.sell_btn_toast, Toast.LENGTH_SHORT).show();
+                Log.e(LOG_TAG, mContext.getString(R.string.item_update_fail));
+                mOnSaleRefusedListener.onSaleRefused(mBookId);
+            }
+            SaleTrace trace = mSaleTraces.get(mBookId);
+            if (trace == null) {
+                return;
+            }
+            if (sold) {
+                trace.sold = true;
+            } else {
+                // Nothing changed, so nothing gets requeried
+                endTrace(mBookId, trace);
+            }
+        }
+    }
+
+    SaleBatcher(Context context, OnSaleRefusedListener listener) {
+        mContext = context.getApplicationContext();
+        mOnSaleRefusedListener = listener;
+    }
+
+    /**
+     * Queues the sale of one unit of the given book.
+     */
+    void sell(long bookId) {
+        if (BookTrace.ENABLED) {
+            SaleTrace trace = mSaleTraces.get(bookId);
+            if (trace != null) {
+                // Merged with the sale in flight, the section lasts until the latest one shows
+                trace.sold = false;
+                trace.requeried = false;
+            } else {
+                int cookie = BookTrace.beginAsyncSection(BookTrace.SALE);
+                if (cookie != 0) {
+                    mSaleTraces.put(bookId, new SaleTrace(cookie));
+                }
+            }
+        }
+        mPending.put(bookId, getPending(bookId) + 1);
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush, COALESCE_WINDOW_MS);
+    }
+
+    /**
+     * @return units of the book tapped but not shown by the list yet.
+     */
+    int getPending(long bookId) {
+        Integer queued = mPending.get(bookId);
+        int pending = queued == null ? 0 : queued;
+        for (int i = 0; i < mSent.size(); i++) {
+            SentSale sale = mSent.get(i);
+            if (sale.bookId == bookId) {
+                pending += sale.units;
+            }
+        }
+        return pending;
+    }
+
+    private void flush() {
+        BookWriteExecutor writeExecutor = BookWriteExecutor.getInstance(mContext);
+        for (int i = 0; i < mPending.size(); i++) {
+            long bookId = mPending.keyAt(i);
+            Bundle extras = new Bundle();
+            extras.putLong(BookEntry.EXTRA_BOOK_ID, bookId);
+            extras.putInt(BookEntry.EXTRA_COUNT, mPending.valueAt(i));
+            SentSale sale = new SentSale(bookId, mPending.valueAt(i));
+            mSent.add(sale);
+            writeExecutor.call(BookEntry.METHOD_SELL, bookId, extras, new SaleCallback(sale));
+        }
+        mPending.clear();
+    }
+
+    /**
+     * Called when the list gets a new result, which shows the sales committed before its query
+     * started. Sales whose books were not rebound from the previous result are off screen and
+     * their traces ended.
+     *
+     * @param queriedAt uptime at which the query of the result started, 0 when unknown
+     */
+    void onRequeried(long queriedAt) {
+        for (int i = mSent.size() - 1; i >= 0; i--) {
+            long soldAt = mSent.get(i).soldAt;
+            if (soldAt != 0 && soldAt < queriedAt) {
+                mSent.remove(i);
+            }
+        }
+        for (int i = mSaleTraces.size() - 1; i >= 0; i--) {
+            SaleTrace trace = mSaleTraces.valueAt(i);
+            if (trace.requeried) {
+                endTrace(mSaleTraces.keyAt(i), trace);
+            } else if (trace.sold) {
+                trace.requeried = true;
+            }
+        }
+    }
+
+    /**
+     * Called when the row of the book is bound, which ends its sale once requeried.
+     */
+    void onBound(long bookId) {
+        if (mSaleTraces.size() == 0) {
+            return;
+        }
+        SaleTrace trace = mSaleTraces.get(bookId);
+        if (trace != null && trace.requeried) {
+            endTrace(bookId, trace);
+        }
+    }
+
+    private void endTrace(long bookId, SaleTrace trace) {
+        BookTrace.endAsyncSection(BookTrace.SALE, trace.cookie);
+        mSaleTraces.remove(bookId);
+    }
+}
@@ -0,0 +1,264 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Imports a supplier catalog file into the books table.
+ * The file is streamed record by record and committed in chunks through
+ * {@link BookEntry#METHOD_BULK_INSERT}, so only one chunk of rows is held in memory at a time.
+ * After every chunk the {@link Progress} is handed to the {@link Listener}, which can store it
+ * and pass it back later to resume an interrupted import.
+ * Every row is keyed by the import and its row number, so the rows of a chunk committed in
+ * part, or committed without its progress being stored, are not inserted twice on resume.
+ */
+public class BookCatalogImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Receives the progress of an import.
+     */
+    public interface Listener {
+
+        /**
+         * Called after each chunk has been committed. The progress points right after the
+         * committed rows and can be used as a checkpoint.
+         */
+        void onChunkCommitted(Progress progress);
+
+        /**
+         * Called for every record which could not be imported.
+         *
+         * @param rowNumber number of the record in the file, the header being row 0
+         */
+        void onRowRejected(long rowNumber, String reason);
+    }
+
+    /**
+     * Position and counters of an import.
+     */
+    public static class Progress {
+        /**
+         * Identifies the import across resumes, set when the import starts
+         */
+        public String importId;
+        /**
+         * Characters of the file consumed by committed rows, see {@link CsvReader#getPosition()}
+         */
+        public long position;
+        public long rowsRead;
+        public long rowsImported;
+        public long rowsRejected;
+    }
+
+    private final ContentResolver mResolver;
+    private final int mChunkSize;
+
+    // Index of each book column in the records of the file, -1 when the file does not have it
+    private int mNameIndex;
+    private int mPriceIndex;
+    private int mQuantityIndex;
+    private int mSupplierNameIndex;
+    private int mSupplierPhoneIndex;
+
+    public BookCatalogImporter(ContentResolver resolver, int chunkSize) {
+        if (chunkSize < BookContract.ONE) {
+            throw new IllegalArgumentException("Import requires a positive CHUNK SIZE");
+        }
+        mResolver = resolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Imports the records of the given catalog, starting after the rows already covered by
+     * the given progress. The first record must be a header naming the columns.
+     *
+     * @param progress progress of an earlier interrupted import, or a new one to start over
+     * @return the progress once the whole file has been read.
+     */
+    public Progress importCatalog(Reader reader, char delimiter, Progress progress,
+                                  Listener listener) throws IOException {
+        CsvReader csv = new CsvReader(reader, delimiter);
+        List<String> fields = new ArrayList<>();
+        if (!csv.readRecord(fields)) {
+            return progress;
+        }
+        mapColumns(fields);
+        if (progress.importId == null) {
+            progress.importId = UUID.randomUUID().toString();
+        }
+        if (progress.position > csv.getPosition()) {
+            csv.skipTo(progress.position);
+        }
+
+        ContentValues[] chunk = new ContentValues[mChunkSize];
+        // Row number in the file of each row of the chunk
+        long[] rowNumbers = new long[mChunkSize];
+        int chunkCount = 0;
+        long rowsRead = progress.rowsRead;
+        while (csv.readRecord(fields)) {
+            rowsRead++;
+            if (isBlank(fields)) {
+                continue;
+            }
+            try {
+                chunk[chunkCount] = toValues(fields);
+                rowNumbers[chunkCount++] = rowsRead;
+            } catch (IllegalArgumentException e) {
+                progress.rowsRejected++;
+                listener.onRowRejected(rowsRead, e.getMessage());
+            }
+            if (chunkCount == mChunkSize) {
+                commit(chunk, rowNumbers, chunkCount, csv.getPosition(), rowsRead, progress,
+                        listener);
+                chunkCount = 0;
+            }
+        }
+        commit(chunk, rowNumbers, chunkCount, csv.getPosition(), rowsRead, progress, listener);
+        return progress;
+    }
+
+    private void commit(ContentValues[] chunk, long[] rowNumbers, int chunkCount, long position,
+                        long rowsRead, Progress progress, Listener listener) {
+        if (chunkCount > 0) {
+            ContentValues[] rows = chunk;
+            if (chunkCount < chunk.length) {
+                rows = new ContentValues[chunkCount];
+                System.arraycopy(chunk, 0, rows, 0, chunkCount);
+            }
+            String[] keys = new String[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                keys[i] = progress.importId + ":" + rowNumbers[i];
+            }
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(BookEntry.EXTRA_VALUES, rows);
+            extras.putStringArray(BookEntry.EXTRA_ROW_KEYS, keys);
+            Bundle result = mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_BULK_INSERT,
+                    null, extras);
+            int[] rejectedRows = result.getIntArray(BookEntry.EXTRA_REJECTED_ROWS);
+            List<String> rejectedReasons =
+                    result.getStringArrayList(BookEntry.EXTRA_REJECTED_REASONS);
+            progress.rowsImported += result.getInt(BookEntry.EXTRA_ROWS_INSERTED);
+            progress.rowsRejected += rejectedRows.length;
+            for (int i = 0; i < rejectedRows.length; i++) {
+                listener.onRowRejected(rowNumbers[rejectedRows[i]], rejectedReasons.get(i));
+            }
+            // Drop the references so the committed rows can be collected
+            for (int i = 0; i < chunkCount; i++) {
+                chunk[i] = null;
+            }
+        }
+        progress.position = position;
+        progress.rowsRead = rowsRead;
+        listener.onChunkCommitted(progress);
+    }
+
+    /**
+     * Finds the book columns in the header. Both the column names of {@link BookEntry} and
+     * the usual names found in supplier catalogs are accepted, ignoring case.
+     */
+    private void mapColumns(List<String> header) throws IOException {
+        mNameIndex = -1;
+        mPriceIndex = -1;
+        mQuantityIndex = -1;
+        mSupplierNameIndex = -1;
+        mSupplierPhoneIndex = -1;
+        for (int i = 0; i < header.size(); i++) {
+            String column = header.get(i).trim().toLowerCase(Locale.US);
+            if (column.equals(BookEntry.COLUMN_BOOK_NAME) || column.equals("name")
+                    || column.equals("title") || column.equals("book")) {
+                mNameIndex = i;
+            } else if (column.equals(BookEntry.COLUMN_BOOK_PRICE)) {
+                mPriceIndex = i;
+            } else if (column.equals(BookEntry.COLUMN_BOOK_QUANTITY) || column.equals("qty")) {
+                mQuantityIndex = i;
+            } else if (column.equals(BookEntry.COLUMN_BOOK_SUPPLIER_NAME)
+                    || column.equals("supplier")) {
+                mSupplierNameIndex = i;
+            } else if (column.equals(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO)
+                    || column.equals("phone")) {
+                mSupplierPhoneIndex = i;
+            }
+        }
+        if (mNameIndex == -1 || mPriceIndex == -1
+                || mSupplierNameIndex == -1 || mSupplierPhoneIndex == -1) {
+            throw new IOException("Catalog header is missing a required column: " + header);
+        }
+    }
+
+    /**
+     * Converts a record into the values of a book, applying the same rules as the editor.
+     *
+     * @throws IllegalArgumentException with the reason when the record is not a valid book.
+     */
+    private ContentValues toValues(List<String> fields) {
+        String name = field(fields, mNameIndex);
+        if (TextUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("Book requires a NAME");
+        }
+        int price = parseInt(field(fields, mPriceIndex), "PRICE");
+        if (price < 0) {
+            throw new IllegalArgumentException("Book requires a PRICE");
+        }
+        int quantity = BookContract.MIN_LIMIT;
+        String quantityString = field(fields, mQuantityIndex);
+        if (!TextUtils.isEmpty(quantityString)) {
+            quantity = parseInt(quantityString, "QUANTITY");
+            if (quantity < BookContract.MIN_LIMIT) {
+                throw new IllegalArgumentException("Book requires a QUANTITY");
+            }
+        }
+        String supplierName = field(fields, mSupplierNameIndex);
+        if (TextUtils.isEmpty(supplierName)) {
+            throw new IllegalArgumentException("Book requires a SUPPLIER NAME");
+        }
+        String supplierPhone = field(fields, mSupplierPhoneIndex);
+        if (TextUtils.isEmpty(supplierPhone)) {
+            throw new IllegalArgumentException("Book requires a SUPPLIER PHONE NO");
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, name);
+        values.put(BookEntry.COLUMN_BOOK_PRICE, price);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, supplierName);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, supplierPhone);
+        return values;
+    }
+
+    private static String field(List<String> fields, int index) {
+        if (index == -1 || index >= fields.size()) {
+            return null;
+        }
+        return fields.get(index).trim();
+    }
+
+    private static int parseInt(String value, String column) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Book requires a numeric " + column);
+        }
+    }
+
+    private static boolean isBlank(List<String> fields) {
+        for (String field : fields) {
+            if (field.trim().length() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -4,6 +4,8 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.List;
+
 /**
  * Method for Book Contract.
  * Basically, It stores the Constants used in the Query of db
@@ -13,6 +15,23 @@ public final class BookContract {
     public static final String CONTENT_AUTHORITY = "com.varma.hemanshu.bookscorner";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" +CONTENT_AUTHORITY);
     public static final String PATH_BOOKS = "books";
+    public static final String PATH_EXPORT = "export";
+    public static final String PATH_BINARY = "binary";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_SUPPLIERS = "suppliers";
+    public static final String PATH_CHANGES = "changes";
+    public static final String PATH_TOMBSTONES = "tombstones";
+    public static final String PATH_METRICS = "metrics";
+    public static final String PATH_SALES = "sales";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_DAILY = "daily";
+
+    /**
+     * Query parameter marking a write made by the sync engine. Its writes of the books do not
+     * make them dirty or leave tombstones, and only it may write the sync columns.
+     */
+    public static final String CALLER_IS_SYNCADAPTER = "caller_is_syncadapter";
 
     public static final int MIN_LIMIT = 0;
     public static final int MAX_LIMIT = 500;
@@ -21,6 +40,13 @@ public final class BookContract {
     private BookContract() {
     }
 
+    /**
+     * @return the uri with {@link #CALLER_IS_SYNCADAPTER} set.
+     */
+    public static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(CALLER_IS_SYNCADAPTER, "true").build();
+    }
+
     public static final class BookEntry implements BaseColumns {
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
@@ -34,6 +60,13 @@ public final class BookContract {
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS;
 
         public static final String TABLE_NAME = "books";
+        public static final String SEARCH_TABLE_NAME = "books_fts";
+
+        /**
+         * Books joined with their supplier, with the columns the books table had before the
+         * suppliers moved to {@link SupplierEntry#TABLE_NAME}.
+         */
+        public static final String VIEW_NAME = "books_view";
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_BOOK_NAME = "product_name";
         public static final String COLUMN_BOOK_PRICE = "price";
@@ -41,7 +74,578 @@ public final class BookContract {
         public static final String COLUMN_BOOK_SUPPLIER_NAME = "supplier_name";
         public static final String COLUMN_BOOK_SUPPLIER_PHONE_NO = "supplier_phone";
 
+        /**
+         * {@link SupplierEntry#_ID} of the supplier of the book. The supplier name and phone
+         * columns are read through the join, and writing them points the book at the supplier
+         * with that name and phone.
+         */
+        public static final String COLUMN_BOOK_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Sync columns, written by the sync adapter only.
+         * The sync id is the id of the book on the server and in every store, the version the
+         * server version the book is based on, 0 until it was first uploaded. Dirty counts the
+         * local changes not uploaded yet, new books are dirty.
+         */
+        public static final String COLUMN_BOOK_SYNC_ID = "sync_id";
+        public static final String COLUMN_BOOK_VERSION = "version";
+        public static final String COLUMN_BOOK_DIRTY = "dirty";
+
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BOOKS);
 
+        /**
+         * Query parameters for keyset pagination of {@link #CONTENT_URI}.
+         * Passing {@link #QUERY_PARAM_PAGE_SIZE} turns the query into a paged one, ordered by
+         * {@link #QUERY_PARAM_SORT} (defaults to {@link #_ID}) with {@link #_ID} as tie breaker,
+         * both descending when {@link #QUERY_PARAM_DESCENDING} is true.
+         * The position of the next page is given by the sort key and id of the last row seen.
+         */
+        public static final String QUERY_PARAM_PAGE_SIZE = "page_size";
+        public static final String QUERY_PARAM_SORT = "sort";
+        public static final String QUERY_PARAM_DESCENDING = "descending";
+        public static final String QUERY_PARAM_AFTER_KEY = "after_key";
+        public static final String QUERY_PARAM_AFTER_ID = "after_id";
+
+        /**
+         * Key in {@link android.database.Cursor#getExtras()} of a paged query holding the
+         * uri of the next page. It is absent once the last page has been returned.
+         */
+        public static final String EXTRA_NEXT_PAGE_URI = "next_page_uri";
+
+        public static final int MAX_PAGE_SIZE = 500;
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} selecting how the books are listed, one of
+         * the LIST_MODE values. Each mode is served in order from its own index.
+         */
+        public static final String QUERY_PARAM_LIST_MODE = "mode";
+        /**
+         * Newest books first
+         */
+        public static final String LIST_MODE_ADDED = "added";
+        public static final String LIST_MODE_NAME = "name";
+        public static final String LIST_MODE_PRICE = "price";
+        public static final String LIST_MODE_QUANTITY = "quantity";
+
+        /**
+         * Books with at most {@link #LOW_STOCK_LIMIT} units, lowest quantity first.
+         */
+        public static final String LIST_MODE_LOW_STOCK = "low_stock";
+        public static final int LOW_STOCK_LIMIT = 5;
+
+        /**
+         * Key of a {@link android.database.Cursor#respond} request to a list cursor. Once it
+         * is true, moving to a row not read yet does not wait for it: the row has null in
+         * every column, {@link #_ID} included, and the cursor notifies its DataSetObservers
+         * once the row is read in the background.
+         */
+        public static final String EXTRA_NON_BLOCKING = "non_blocking";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} keeping only the books of the given supplier.
+         */
+        public static final String QUERY_PARAM_SUPPLIER = "supplier";
+
+        /**
+         * Builds the uri listing the books in the given mode.
+         *
+         * @param supplier name of the supplier to list the books of, or null for all books
+         */
+        public static Uri buildListUri(String listMode, String supplier) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LIST_MODE, listMode);
+            if (supplier != null) {
+                builder.appendQueryParameter(QUERY_PARAM_SUPPLIER, supplier);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Full-text search over the book and supplier names. The words of
+         * {@link #QUERY_PARAM_QUERY} are matched as prefixes. Books matching every word on their
+         * name come before the other matches, each newest first.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+        public static final String QUERY_PARAM_QUERY = "q";
+
+        /**
+         * Maximum number of books a search returns, unless a limit is given with
+         * {@link #QUERY_PARAM_PAGE_SIZE}.
+         */
+        public static final int SEARCH_LIMIT = 50;
+
+        /**
+         * Builds the search uri for the text typed by the user.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_QUERY, query)
+                    .build();
+        }
+
+        /**
+         * Stream of all the books as CSV, read through
+         * {@link ContentResolver#openInputStream(Uri)}.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * Stream of all the books in the binary format of {@link #EXPORT_BINARY_TYPE}.
+         */
+        public static final Uri CONTENT_EXPORT_BINARY_URI =
+                Uri.withAppendedPath(CONTENT_EXPORT_URI, PATH_BINARY);
+
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+
+        /**
+         * Binary export written with {@link java.io.DataOutputStream}: the int
+         * {@link #EXPORT_BINARY_MAGIC} and the int {@link #EXPORT_BINARY_VERSION}, then for each
+         * book the boolean true followed by its id (long), name (UTF), price (int),
+         * quantity (int), supplier name (UTF) and supplier phone (UTF). The boolean false ends
+         * the stream.
+         */
+        public static final String EXPORT_BINARY_TYPE =
+                "application/vnd." + CONTENT_AUTHORITY + "." + PATH_BOOKS;
+        public static final int EXPORT_BINARY_MAGIC = 0x424B4358;
+        public static final int EXPORT_BINARY_VERSION = 1;
+
+        /**
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} method selling
+         * {@link #EXTRA_COUNT} units of the book {@link #EXTRA_BOOK_ID} in a single statement.
+         * The returned bundle holds {@link #EXTRA_SOLD}, false when the stock was too low, and
+         * the {@link #EXTRA_QUANTITY} left after the call, -1 when the book does not exist.
+         * A sale is recorded in the {@link SaleEntry} ledger in the transaction of the decrement.
+         */
+        public static final String METHOD_SELL = "sell";
+        public static final String EXTRA_BOOK_ID = "book_id";
+        public static final String EXTRA_COUNT = "count";
+        public static final String EXTRA_SOLD = "sold";
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /**
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} method inserting
+         * the books of the {@link #EXTRA_VALUES} ContentValues array like bulkInsert() does.
+         * The returned bundle holds the number of {@link #EXTRA_ROWS_INSERTED}, and the indices
+         * in the array of the {@link #EXTRA_REJECTED_ROWS} which were not inserted along with
+         * the {@link #EXTRA_REJECTED_REASONS}.
+         * The optional {@link #EXTRA_ROW_KEYS} String array gives every row a key, a row whose
+         * key was already inserted counts as inserted without being inserted again, so the
+         * same rows can be sent again after an interruption.
+         */
+        public static final String METHOD_BULK_INSERT = "bulk_insert";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_ROW_KEYS = "row_keys";
+        public static final String EXTRA_ROWS_INSERTED = "rows_inserted";
+        public static final String EXTRA_REJECTED_ROWS = "rejected_rows";
+        public static final String EXTRA_REJECTED_REASONS = "rejected_reasons";
+
+        /**
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} method copying the
+         * write-ahead log back into the database, passive unless the arg is
+         * {@link #CHECKPOINT_RESTART}. The returned bundle holds the
+         * {@link #EXTRA_CHECKPOINTED_FRAMES}.
+         */
+        public static final String METHOD_CHECKPOINT = "checkpoint";
+        public static final String CHECKPOINT_RESTART = "restart";
+        public static final String EXTRA_CHECKPOINTED_FRAMES = "checkpointed_frames";
+
+        /**
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} method opening the
+         * database and compiling the statements of the writes, called off the main thread at
+         * process start so the first query and write do not pay for them.
+         */
+        public static final String METHOD_WARM_UP = "warm_up";
+
+        /**
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} method setting how
+         * long the provider collects changes before notifying them, in milliseconds given as
+         * arg, 0 notifying each write right away. The returned bundle holds the
+         * {@link #EXTRA_NOTIFY_WINDOW_MS} replaced. The window starts at
+         * {@link #DEFAULT_NOTIFY_WINDOW_MS} with every process.
+         */
+        public static final String METHOD_SET_NOTIFY_WINDOW = "set_notify_window";
+        public static final String EXTRA_NOTIFY_WINDOW_MS = "notify_window_ms";
+        public static final long DEFAULT_NOTIFY_WINDOW_MS = 50;
+
+        /**
+         * Query parameter of a change notification on {@link #CONTENT_URI} listing the comma
+         * separated ids of the changed books.
+         */
+        public static final String QUERY_PARAM_CHANGED_IDS = "changed_ids";
+
+        /**
+         * Reads the ids of the changed books from the uri of a change notification.
+         *
+         * @return the ids, or null when the notification does not tell which books changed.
+         */
+        public static long[] getChangedIds(Uri uri) {
+            if (uri == null) {
+                return null;
+            }
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() == 2 && PATH_BOOKS.equals(segments.get(0))) {
+                try {
+                    return new long[]{Long.parseLong(segments.get(1))};
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            String changedIds = uri.getQueryParameter(QUERY_PARAM_CHANGED_IDS);
+            if (changedIds == null) {
+                return null;
+            }
+            String[] parts = changedIds.split(",");
+            long[] ids = new long[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                ids[i] = Long.parseLong(parts[i]);
+            }
+            return ids;
+        }
+
+        /**
+         * Builds the uri of the first page of books.
+         *
+         * @param sortColumn column to order the pages by, or null to order by {@link #_ID}
+         * @param pageSize   number of rows per page, at most {@link #MAX_PAGE_SIZE}
+         */
+        public static Uri buildFirstPageUri(String sortColumn, int pageSize) {
+            return buildFirstPageUri(sortColumn, false, pageSize);
+        }
+
+        /**
+         * Builds the uri of the first page of books, in descending order when asked.
+         */
+        public static Uri buildFirstPageUri(String sortColumn, boolean descending, int pageSize) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_PAGE_SIZE, String.valueOf(pageSize));
+            if (sortColumn != null) {
+                builder.appendQueryParameter(QUERY_PARAM_SORT, sortColumn);
+            }
+            if (descending) {
+                builder.appendQueryParameter(QUERY_PARAM_DESCENDING, String.valueOf(true));
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Inventory totals of all the books, a single row kept up to date by triggers on every
+     * write, so reading it costs the same whatever the size of the catalog.
+     */
+    public static final class SummaryEntry implements BaseColumns {
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the summary row.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "." + PATH_SUMMARY;
+
+        public static final String TABLE_NAME = "book_summary";
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Number of books
+         */
+        public static final String COLUMN_TITLES = "titles";
+
+        /**
+         * Units in stock over all books
+         */
+        public static final String COLUMN_UNITS = "units";
+
+        /**
+         * Sum of price times quantity over all books
+         */
+        public static final String COLUMN_STOCK_VALUE = "stock_value";
+
+        /**
+         * Number of books with at most {@link BookEntry#LOW_STOCK_LIMIT} units
+         */
+        public static final String COLUMN_LOW_STOCK = "low_stock";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_SUMMARY);
+    }
+
+    /**
+     * Suppliers of the books, each name and phone pair stored once.
+     * Updating a supplier changes it for all of its books at once.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        public static final String TABLE_NAME = "suppliers";
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_SUPPLIER_NAME = "name";
+        public static final String COLUMN_SUPPLIER_PHONE_NO = "phone";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+    }
+
+    /**
+     * Journal of the writes to the books, one row per book inserted, updated or deleted,
+     * written by triggers in the transaction of the write. Its _id is the sequence number of
+     * the change, one more than the previous one, so a consumer pulls only the changes after
+     * the last sequence it read and then reads the changed books by id.
+     * <p>
+     * A consumer starts by taking the {@link #EXTRA_LAST_SEQUENCE} of any changes query and
+     * reading all the books, then queries {@link #buildChangesUri} with that sequence. Changes read twice only make it read
+     * a book again.
+     */
+    public static final class ChangeEntry implements BaseColumns {
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "." + PATH_CHANGES;
+
+        public static final String TABLE_NAME = "book_changes";
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * One of the OP values
+         */
+        public static final String COLUMN_OP = "op";
+        public static final String OP_INSERT = "insert";
+        public static final String OP_UPDATE = "update";
+        public static final String OP_DELETE = "delete";
+
+        /**
+         * {@link BookEntry#_ID} of the changed book
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+
+        /**
+         * Comma separated {@link BookEntry} columns changed by an update, null for inserts and
+         * deletes. A book moved to another supplier has {@link BookEntry#COLUMN_BOOK_SUPPLIER_ID}
+         * changed, a renamed supplier the supplier name or phone of all its books.
+         */
+        public static final String COLUMN_CHANGED_COLUMNS = "changed_columns";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * Query parameter of {@link #CONTENT_URI}, the changes after this sequence are returned
+         * in order, at most {@link #QUERY_PARAM_LIMIT} of them. When there may be more,
+         * {@link BookEntry#EXTRA_NEXT_PAGE_URI} holds the uri of the next ones.
+         */
+        public static final String QUERY_PARAM_SINCE = "since";
+        public static final String QUERY_PARAM_LIMIT = "limit";
+        public static final int MAX_LIMIT = 500;
+
+        /**
+         * Key in {@link android.database.Cursor#getExtras()} of a changes query set to true when
+         * changes after the requested sequence were compacted. The consumer has to read all the
+         * books again, as when it started.
+         */
+        public static final String EXTRA_RESYNC_REQUIRED = "resync_required";
+
+        /**
+         * Key in {@link android.database.Cursor#getExtras()} of a changes query holding the
+         * sequence of the last change in the journal, 0 when nothing was written yet.
+         */
+        public static final String EXTRA_LAST_SEQUENCE = "last_sequence";
+
+        /**
+         * Number of changes the journal keeps, older ones are dropped when the database is opened
+         * and by the writes once the journal is a tenth over it
+         */
+        public static final int MAX_ENTRIES = 10000;
+
+        /**
+         * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} method dropping
+         * the changes up to the sequence given as arg, once every consumer has read them. The
+         * last change is always kept. The returned bundle holds the number of
+         * {@link #EXTRA_COMPACTED} changes.
+         */
+        public static final String METHOD_COMPACT_CHANGES = "compact_changes";
+        public static final String EXTRA_COMPACTED = "compacted";
+
+        /**
+         * Builds the uri of the changes after the given sequence.
+         */
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SINCE, String.valueOf(since))
+                    .build();
+        }
+    }
+
+    /**
+     * Books deleted locally after they were uploaded, waiting for the sync adapter to upload
+     * their deletion. Deletes made by the sync adapter leave none.
+     */
+    public static final class TombstoneEntry {
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of tombstones.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "." + PATH_TOMBSTONES;
+
+        public static final String TABLE_NAME = "book_tombstones";
+
+        /**
+         * {@link BookEntry#COLUMN_BOOK_SYNC_ID} of the deleted book
+         */
+        public static final String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * {@link BookEntry#COLUMN_BOOK_VERSION} of the book when it was deleted
+         */
+        public static final String COLUMN_VERSION = "version";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_TOMBSTONES);
+    }
+
+    /**
+     * Ledger of the sales made through {@link BookEntry#METHOD_SELL}, one row per call,
+     * written in the transaction taking the units from the quantity. Rows are only ever
+     * appended, they stay after their book is deleted.
+     */
+    public static final class SaleEntry implements BaseColumns {
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sales.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "." + PATH_SALES;
+
+        public static final String TABLE_NAME = "book_sales";
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * {@link BookEntry#_ID} of the book sold
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+        public static final String COLUMN_UNITS = "units";
+
+        /**
+         * Price of a unit at the time of the sale
+         */
+        public static final String COLUMN_PRICE = "price";
+
+        /**
+         * Time of the sale, in milliseconds since the epoch
+         */
+        public static final String COLUMN_SOLD_AT = "sold_at";
+
+        /**
+         * Offset from UTC of the zone of the device at the time of the sale, in milliseconds
+         */
+        public static final String COLUMN_UTC_OFFSET = "utc_offset";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_SALES);
+    }
+
+    /**
+     * Sales of each book per hour and per day, updated by triggers with every sale appended to
+     * the {@link SaleEntry} ledger instead of being aggregated from it. Buckets start at the
+     * local hour or day of the sale, in the zone the device was in when it was made.
+     * <p>
+     * {@link #buildReportUri} selects the buckets of a book, or of all books, over a range of
+     * time, read in bucket order from the index of the table.
+     */
+    public static final class SalesRollupEntry {
+        /**
+         * The MIME type of the {@link #HOURLY_URI} and {@link #DAILY_URI} for a list of buckets.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS + "." + PATH_SALES + ".rollup";
+
+        public static final String HOURLY_TABLE_NAME = "book_sales_hourly";
+        public static final String DAILY_TABLE_NAME = "book_sales_daily";
+
+        public static final long HOUR_MILLIS = 60 * 60 * 1000L;
+        public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+        /**
+         * {@link BookEntry#_ID} of the book sold
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+
+        /**
+         * Start of the local hour or day, in milliseconds since the epoch on the local clock:
+         * the time of the sale plus its {@link SaleEntry#COLUMN_UTC_OFFSET}, cut to the hour or
+         * day. Read it as a UTC time to get the local date.
+         */
+        public static final String COLUMN_BUCKET = "bucket";
+        public static final String COLUMN_UNITS = "units";
+
+        /**
+         * Sum of the units times their price
+         */
+        public static final String COLUMN_REVENUE = "revenue";
+
+        /**
+         * Number of sales in the ledger
+         */
+        public static final String COLUMN_SALES = "sales";
+
+        public static final Uri HOURLY_URI = Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_HOURLY);
+        public static final Uri DAILY_URI = Uri.withAppendedPath(SaleEntry.CONTENT_URI, PATH_DAILY);
+
+        /**
+         * Query parameters of {@link #HOURLY_URI} and {@link #DAILY_URI} keeping the buckets of
+         * one book and the buckets starting from {@link #QUERY_PARAM_FROM} included to
+         * {@link #QUERY_PARAM_TO} excluded, in milliseconds since the epoch on the local clock.
+         */
+        public static final String QUERY_PARAM_BOOK_ID = "book_id";
+        public static final String QUERY_PARAM_FROM = "from";
+        public static final String QUERY_PARAM_TO = "to";
+
+        /**
+         * Builds the uri of the buckets of a rollup over a range of time.
+         *
+         * @param rollupUri {@link #HOURLY_URI} or {@link #DAILY_URI}
+         * @param bookId    id of the book, or -1 for the buckets of all books
+         */
+        public static Uri buildReportUri(Uri rollupUri, long bookId, long from, long to) {
+            Uri.Builder builder = rollupUri.buildUpon();
+            if (bookId != -1) {
+                builder.appendQueryParameter(QUERY_PARAM_BOOK_ID, String.valueOf(bookId));
+            }
+            return builder.appendQueryParameter(QUERY_PARAM_FROM, String.valueOf(from))
+                    .appendQueryParameter(QUERY_PARAM_TO, String.valueOf(to))
+                    .build();
+        }
+    }
+
+    /**
+     * Counters and latencies of the provider since its process started, one row per metric.
+     * They are also printed by "adb shell dumpsys activity provider BookProvider".
+     * Latencies are in microseconds, the percentiles being the upper bound of their bucket
+     * in a histogram of powers of two.
+     */
+    public static final class MetricsEntry {
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of metrics.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /**
+         * What is counted, like "query books/#", "call sell", "applyBatch", "transaction" or
+         * "row_cache hits"
+         */
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_COUNT = "count";
+
+        /**
+         * Rows returned by the queries or written by the other calls
+         */
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_TOTAL_US = "total_us";
+        public static final String COLUMN_MAX_US = "max_us";
+        public static final String COLUMN_P50_US = "p50_us";
+        public static final String COLUMN_P90_US = "p90_us";
+        public static final String COLUMN_P99_US = "p99_us";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
     }
-}
\ No newline at end of file
+}
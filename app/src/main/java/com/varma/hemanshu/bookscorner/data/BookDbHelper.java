@@ -1,10 +1,20 @@
 package com.varma.hemanshu.bookscorner.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.ChangeEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SaleEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SalesRollupEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SummaryEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SupplierEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.TombstoneEntry;
 
 /**
  * Method for SQL connection
@@ -13,7 +23,18 @@ public class BookDbHelper extends SQLiteOpenHelper {
 
     //Database name and Version Strings used for SQLite db
     private static final String DATABASE_NAME = "books.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
+
+    /**
+     * Suppliers, each name and phone pair stored once and referenced by the books.
+     */
+    private static final String SQL_CREATE_SUPPLIER_ENTRY =
+            "CREATE TABLE " + SupplierEntry.TABLE_NAME + "("
+                    + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + " TEXT NOT NULL, "
+                    + "UNIQUE (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + "));";
 
     private static final String SQL_CREATE_BOOK_ENTRY =
             "CREATE TABLE " + BookEntry.TABLE_NAME + "("
@@ -21,22 +42,769 @@ public class BookDbHelper extends SQLiteOpenHelper {
                     + BookEntry.COLUMN_BOOK_NAME + " TEXT NOT NULL, "
                     + BookEntry.COLUMN_BOOK_PRICE + " INTEGER NOT NULL, "
                     + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
-                    + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " TEXT NOT NULL, "
-                    + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO + " TEXT NOT NULL);";
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                    + SupplierEntry.TABLE_NAME + "(" + SupplierEntry._ID + "), "
+                    + BookEntry.COLUMN_BOOK_SYNC_ID + " TEXT, "
+                    + BookEntry.COLUMN_BOOK_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                    + BookEntry.COLUMN_BOOK_DIRTY + " INTEGER NOT NULL DEFAULT 1);";
+
+    /**
+     * The books with the supplier columns they had before the suppliers got their own table.
+     * The supplier of each book is looked up by its primary key.
+     */
+    private static final String SQL_CREATE_BOOK_VIEW =
+            "CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT "
+                    + bookColumn(BookEntry._ID) + ", "
+                    + bookColumn(BookEntry.COLUMN_BOOK_NAME) + ", "
+                    + bookColumn(BookEntry.COLUMN_BOOK_PRICE) + ", "
+                    + bookColumn(BookEntry.COLUMN_BOOK_QUANTITY) + ", "
+                    + bookColumn(BookEntry.COLUMN_BOOK_SUPPLIER_ID) + ", "
+                    + bookColumn(BookEntry.COLUMN_BOOK_SYNC_ID) + ", "
+                    + bookColumn(BookEntry.COLUMN_BOOK_VERSION) + ", "
+                    + bookColumn(BookEntry.COLUMN_BOOK_DIRTY) + ", "
+                    + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                    + " AS " + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", "
+                    + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO
+                    + " AS " + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO
+                    + " FROM " + BookEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                    + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = "
+                    + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ";";
+
+    // Triggers deleting a supplier once its last book is deleted or moved to another supplier
+    private static final String SQL_CREATE_SUPPLIER_CLEANUP_DELETE_TRIGGER =
+            "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_cleanup_delete AFTER DELETE ON "
+                    + BookEntry.TABLE_NAME + " BEGIN " + deleteOrphanSupplier() + " END;";
+    private static final String SQL_CREATE_SUPPLIER_CLEANUP_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_cleanup_update AFTER UPDATE OF "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " ON " + BookEntry.TABLE_NAME
+                    + " WHEN old." + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                    + " <> new." + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                    + " BEGIN " + deleteOrphanSupplier() + " END;";
+
+    /**
+     * Full-text index over the book and supplier names, its docid is the _id of the book.
+     * Prefix indexes make the prefix queries of search-as-you-type index lookups.
+     */
+    private static final String SQL_CREATE_BOOK_SEARCH =
+            "CREATE VIRTUAL TABLE " + BookEntry.SEARCH_TABLE_NAME + " USING fts4("
+                    + BookEntry.COLUMN_BOOK_NAME + ", "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", "
+                    + "prefix=\"2,3\");";
+
+    // Triggers keeping the full-text index in sync with the books and suppliers tables
+    private static final String SQL_CREATE_BOOK_SEARCH_INSERT_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.SEARCH_TABLE_NAME + "_insert AFTER INSERT ON "
+                    + BookEntry.TABLE_NAME + " BEGIN "
+                    + "INSERT INTO " + BookEntry.SEARCH_TABLE_NAME + "(docid, "
+                    + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ") "
+                    + "VALUES (new." + BookEntry._ID + ", new." + BookEntry.COLUMN_BOOK_NAME
+                    + ", " + supplierName("new.") + "); END;";
+    private static final String SQL_CREATE_BOOK_SEARCH_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.SEARCH_TABLE_NAME + "_update AFTER UPDATE OF "
+                    + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                    + " ON " + BookEntry.TABLE_NAME + " BEGIN "
+                    + "UPDATE " + BookEntry.SEARCH_TABLE_NAME + " SET "
+                    + BookEntry.COLUMN_BOOK_NAME + " = new." + BookEntry.COLUMN_BOOK_NAME + ", "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " = " + supplierName("new.")
+                    + " WHERE docid = old." + BookEntry._ID + "; END;";
+    private static final String SQL_CREATE_BOOK_SEARCH_DELETE_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.SEARCH_TABLE_NAME + "_delete AFTER DELETE ON "
+                    + BookEntry.TABLE_NAME + " BEGIN "
+                    + "DELETE FROM " + BookEntry.SEARCH_TABLE_NAME
+                    + " WHERE docid = old." + BookEntry._ID + "; END;";
+    private static final String SQL_CREATE_SUPPLIER_SEARCH_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_fts_update AFTER UPDATE OF "
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME
+                    + " BEGIN "
+                    + "UPDATE " + BookEntry.SEARCH_TABLE_NAME + " SET "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                    + " WHERE docid IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                    + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = new." + SupplierEntry._ID
+                    + "); END;";
+
+    /**
+     * Covering indexes of the list modes of {@link BookProvider}. Each one holds the columns
+     * of the list in the order of its mode, so the list is read from the index alone in order,
+     * without touching the table or sorting.
+     */
+    private static final String SQL_CREATE_BOOK_NAME_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_name_idx ON " + BookEntry.TABLE_NAME + "("
+                    + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_PRICE + ", "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + ");";
+    private static final String SQL_CREATE_BOOK_PRICE_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_price_idx ON " + BookEntry.TABLE_NAME + "("
+                    + BookEntry.COLUMN_BOOK_PRICE + ", " + BookEntry.COLUMN_BOOK_NAME + ", "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + ");";
+    private static final String SQL_CREATE_BOOK_QUANTITY_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_quantity_idx ON " + BookEntry.TABLE_NAME + "("
+                    + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_NAME + ", "
+                    + BookEntry.COLUMN_BOOK_PRICE + ");";
+
+    /**
+     * Also the index of the foreign key, used by the supplier cleanup and supplier renames.
+     */
+    private static final String SQL_CREATE_BOOK_SUPPLIER_INDEX =
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_supplier_idx ON " + BookEntry.TABLE_NAME + "("
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ", " + BookEntry.COLUMN_BOOK_NAME + ", "
+                    + BookEntry.COLUMN_BOOK_PRICE + ", " + BookEntry.COLUMN_BOOK_QUANTITY + ");";
+
+    /**
+     * Inventory totals, a single row with _id 1 updated by the triggers below.
+     */
+    private static final String SQL_CREATE_BOOK_SUMMARY =
+            "CREATE TABLE " + SummaryEntry.TABLE_NAME + "("
+                    + SummaryEntry._ID + " INTEGER PRIMARY KEY CHECK (" + SummaryEntry._ID + " = 1), "
+                    + SummaryEntry.COLUMN_TITLES + " INTEGER NOT NULL, "
+                    + SummaryEntry.COLUMN_UNITS + " INTEGER NOT NULL, "
+                    + SummaryEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL, "
+                    + SummaryEntry.COLUMN_LOW_STOCK + " INTEGER NOT NULL);";
+
+    /**
+     * Fills the summary row from the books, on creation and when migrating.
+     */
+    private static final String SQL_FILL_BOOK_SUMMARY =
+            "INSERT INTO " + SummaryEntry.TABLE_NAME + " SELECT 1, count(*), "
+                    + "ifnull(sum(" + BookEntry.COLUMN_BOOK_QUANTITY + "), 0), "
+                    + "ifnull(sum(" + BookEntry.COLUMN_BOOK_PRICE + " * "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + "), 0), "
+                    + "ifnull(sum(" + lowStock("") + "), 0) FROM " + BookEntry.TABLE_NAME + ";";
+
+    // Triggers applying the difference each written row makes to the totals.
+    // The low stock limit is part of them, changing it needs a migration recreating them.
+    private static final String SQL_CREATE_BOOK_SUMMARY_INSERT_TRIGGER =
+            "CREATE TRIGGER " + SummaryEntry.TABLE_NAME + "_insert AFTER INSERT ON "
+                    + BookEntry.TABLE_NAME + " BEGIN "
+                    + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                    + SummaryEntry.COLUMN_TITLES + " = " + SummaryEntry.COLUMN_TITLES + " + 1, "
+                    + SummaryEntry.COLUMN_UNITS + " = " + SummaryEntry.COLUMN_UNITS
+                    + " + new." + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                    + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE
+                    + " + " + stockValue("new.") + ", "
+                    + SummaryEntry.COLUMN_LOW_STOCK + " = " + SummaryEntry.COLUMN_LOW_STOCK
+                    + " + " + lowStock("new.") + "; END;";
+    private static final String SQL_CREATE_BOOK_SUMMARY_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + SummaryEntry.TABLE_NAME + "_update AFTER UPDATE OF "
+                    + BookEntry.COLUMN_BOOK_PRICE + ", " + BookEntry.COLUMN_BOOK_QUANTITY
+                    + " ON " + BookEntry.TABLE_NAME + " BEGIN "
+                    + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                    + SummaryEntry.COLUMN_UNITS + " = " + SummaryEntry.COLUMN_UNITS
+                    + " + new." + BookEntry.COLUMN_BOOK_QUANTITY
+                    + " - old." + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                    + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE
+                    + " + " + stockValue("new.") + " - " + stockValue("old.") + ", "
+                    + SummaryEntry.COLUMN_LOW_STOCK + " = " + SummaryEntry.COLUMN_LOW_STOCK
+                    + " + " + lowStock("new.") + " - " + lowStock("old.") + "; END;";
+    private static final String SQL_CREATE_BOOK_SUMMARY_DELETE_TRIGGER =
+            "CREATE TRIGGER " + SummaryEntry.TABLE_NAME + "_delete AFTER DELETE ON "
+                    + BookEntry.TABLE_NAME + " BEGIN "
+                    + "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                    + SummaryEntry.COLUMN_TITLES + " = " + SummaryEntry.COLUMN_TITLES + " - 1, "
+                    + SummaryEntry.COLUMN_UNITS + " = " + SummaryEntry.COLUMN_UNITS
+                    + " - old." + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                    + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE
+                    + " - " + stockValue("old.") + ", "
+                    + SummaryEntry.COLUMN_LOW_STOCK + " = " + SummaryEntry.COLUMN_LOW_STOCK
+                    + " - " + lowStock("old.") + "; END;";
+
+    /**
+     * Change journal, its AUTOINCREMENT _id is the sequence number and never goes back,
+     * even once the last changes are compacted.
+     */
+    private static final String SQL_CREATE_BOOK_CHANGES =
+            "CREATE TABLE " + ChangeEntry.TABLE_NAME + "("
+                    + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + ChangeEntry.COLUMN_OP + " TEXT NOT NULL, "
+                    + ChangeEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                    + ChangeEntry.COLUMN_CHANGED_COLUMNS + " TEXT);";
+
+    // Triggers journaling every write to the books. Updates leaving every column as it was
+    // are not journaled.
+    private static final String SQL_CREATE_BOOK_CHANGES_INSERT_TRIGGER =
+            "CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_insert AFTER INSERT ON "
+                    + BookEntry.TABLE_NAME + " BEGIN "
+                    + journal(ChangeEntry.OP_INSERT, "new." + BookEntry._ID, "NULL") + " END;";
+    private static final String SQL_CREATE_BOOK_CHANGES_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_update AFTER UPDATE ON "
+                    + BookEntry.TABLE_NAME + " WHEN "
+                    + changedColumnsCondition(BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_PRICE,
+                    BookEntry.COLUMN_BOOK_QUANTITY, BookEntry.COLUMN_BOOK_SUPPLIER_ID) + " BEGIN "
+                    + journal(ChangeEntry.OP_UPDATE, "new." + BookEntry._ID,
+                    changedColumns(BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_PRICE,
+                            BookEntry.COLUMN_BOOK_QUANTITY, BookEntry.COLUMN_BOOK_SUPPLIER_ID))
+                    + " END;";
+    private static final String SQL_CREATE_BOOK_CHANGES_DELETE_TRIGGER =
+            "CREATE TRIGGER " + ChangeEntry.TABLE_NAME + "_delete AFTER DELETE ON "
+                    + BookEntry.TABLE_NAME + " BEGIN "
+                    + journal(ChangeEntry.OP_DELETE, "old." + BookEntry._ID, "NULL") + " END;";
+
+    /**
+     * A renamed supplier changes the supplier columns of all its books, found by the supplier
+     * index. The supplier columns are named as the books see them.
+     */
+    private static final String SQL_CREATE_SUPPLIER_CHANGES_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_changes_update AFTER UPDATE ON "
+                    + SupplierEntry.TABLE_NAME + " WHEN "
+                    + changedColumnsCondition(SupplierEntry.COLUMN_SUPPLIER_NAME,
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NO) + " BEGIN "
+                    + "INSERT INTO " + ChangeEntry.TABLE_NAME + "(" + ChangeEntry.COLUMN_OP + ", "
+                    + ChangeEntry.COLUMN_BOOK_ID + ", " + ChangeEntry.COLUMN_CHANGED_COLUMNS + ") "
+                    + "SELECT '" + ChangeEntry.OP_UPDATE + "', " + BookEntry._ID + ", "
+                    + "rtrim(CASE WHEN old." + SupplierEntry.COLUMN_SUPPLIER_NAME + " IS NOT new."
+                    + SupplierEntry.COLUMN_SUPPLIER_NAME + " THEN '"
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ",' ELSE '' END || "
+                    + "CASE WHEN old." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + " IS NOT new."
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + " THEN '"
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO + ",' ELSE '' END, ',') FROM "
+                    + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                    + " = new." + SupplierEntry._ID + " ORDER BY " + BookEntry._ID + "; END;";
+
+    /**
+     * Drops the changes up to a sequence, always keeping the last one so the sequence of the
+     * journal can still be read.
+     */
+    private static final String SQL_COMPACT_BOOK_CHANGES =
+            "DELETE FROM " + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry._ID + " <= ? AND "
+                    + ChangeEntry._ID + " < (SELECT max(" + ChangeEntry._ID + ") FROM "
+                    + ChangeEntry.TABLE_NAME + ")";
+
+    // Last and first sequences of the journal
+    private static final String SQL_CHANGES_RANGE =
+            "SELECT (SELECT ifnull(max(" + ChangeEntry._ID + "), 0) FROM " + ChangeEntry.TABLE_NAME
+                    + "), (SELECT ifnull(min(" + ChangeEntry._ID + "), 0) FROM "
+                    + ChangeEntry.TABLE_NAME + ")";
+
+    /**
+     * Sync ids are looked up for every book the server sends. Dirty books have no index, each
+     * upload reads them in id order in a single pass over the table.
+     */
+    private static final String SQL_CREATE_BOOK_SYNC_ID_INDEX =
+            "CREATE UNIQUE INDEX " + BookEntry.TABLE_NAME + "_sync_id_idx ON " + BookEntry.TABLE_NAME
+                    + "(" + BookEntry.COLUMN_BOOK_SYNC_ID + ");";
+
+    private static final String SQL_CREATE_BOOK_TOMBSTONES =
+            "CREATE TABLE " + TombstoneEntry.TABLE_NAME + "("
+                    + TombstoneEntry.COLUMN_SYNC_ID + " TEXT PRIMARY KEY, "
+                    + TombstoneEntry.COLUMN_VERSION + " INTEGER NOT NULL);";
+
+    /**
+     * Counts a local change of a book. The sync adapter changes the version with the columns
+     * it writes, so its writes are not counted, and it clears the count without touching
+     * these columns once the book is uploaded.
+     */
+    private static final String SQL_CREATE_BOOK_DIRTY_TRIGGER =
+            "CREATE TRIGGER " + BookEntry.TABLE_NAME + "_dirty AFTER UPDATE OF "
+                    + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_PRICE + ", "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                    + " ON " + BookEntry.TABLE_NAME + " WHEN old." + BookEntry.COLUMN_BOOK_VERSION
+                    + " = new." + BookEntry.COLUMN_BOOK_VERSION + " BEGIN "
+                    + "UPDATE " + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_BOOK_DIRTY
+                    + " = " + BookEntry.COLUMN_BOOK_DIRTY + " + 1 WHERE " + BookEntry._ID
+                    + " = new." + BookEntry._ID + "; END;";
+
+    /**
+     * A renamed supplier changes all of its books, the sync adapter never renames suppliers.
+     */
+    private static final String SQL_CREATE_SUPPLIER_DIRTY_TRIGGER =
+            "CREATE TRIGGER " + SupplierEntry.TABLE_NAME + "_dirty AFTER UPDATE ON "
+                    + SupplierEntry.TABLE_NAME + " WHEN "
+                    + changedColumnsCondition(SupplierEntry.COLUMN_SUPPLIER_NAME,
+                    SupplierEntry.COLUMN_SUPPLIER_PHONE_NO) + " BEGIN "
+                    + "UPDATE " + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_BOOK_DIRTY
+                    + " = " + BookEntry.COLUMN_BOOK_DIRTY + " + 1 WHERE "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = new." + SupplierEntry._ID + "; END;";
+
+    /**
+     * Sales ledger, with no foreign key so the sales of a deleted book are kept. Each sale keeps
+     * the offset of the zone it was made in, which the rollups bucket its local time by.
+     * The index serves the sales of one book in time order.
+     */
+    private static final String SQL_CREATE_BOOK_SALES =
+            "CREATE TABLE " + SaleEntry.TABLE_NAME + "("
+                    + SaleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + SaleEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                    + SaleEntry.COLUMN_UNITS + " INTEGER NOT NULL, "
+                    + SaleEntry.COLUMN_PRICE + " INTEGER NOT NULL, "
+                    + SaleEntry.COLUMN_SOLD_AT + " INTEGER NOT NULL, "
+                    + SaleEntry.COLUMN_UTC_OFFSET + " INTEGER NOT NULL);";
+    private static final String SQL_CREATE_BOOK_SALES_BOOK_INDEX =
+            "CREATE INDEX " + SaleEntry.TABLE_NAME + "_book_idx ON " + SaleEntry.TABLE_NAME + "("
+                    + SaleEntry.COLUMN_BOOK_ID + ", " + SaleEntry.COLUMN_SOLD_AT + ");";
+
+    // Sales are only appended, a write changing or removing one fails
+    private static final String SQL_CREATE_BOOK_SALES_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + SaleEntry.TABLE_NAME + "_update BEFORE UPDATE ON "
+                    + SaleEntry.TABLE_NAME + " BEGIN "
+                    + "SELECT RAISE(ABORT, 'Sales cannot be updated'); END;";
+    private static final String SQL_CREATE_BOOK_SALES_DELETE_TRIGGER =
+            "CREATE TRIGGER " + SaleEntry.TABLE_NAME + "_delete BEFORE DELETE ON "
+                    + SaleEntry.TABLE_NAME + " BEGIN "
+                    + "SELECT RAISE(ABORT, 'Sales cannot be deleted'); END;";
+
+    // Triggers adding each sale to the bucket of its local hour and day
+    private static final String SQL_CREATE_BOOK_SALES_HOURLY_TRIGGER =
+            "CREATE TRIGGER " + SalesRollupEntry.HOURLY_TABLE_NAME + "_insert AFTER INSERT ON "
+                    + SaleEntry.TABLE_NAME + " BEGIN "
+                    + rollUp(SalesRollupEntry.HOURLY_TABLE_NAME, SalesRollupEntry.HOUR_MILLIS)
+                    + " END;";
+    private static final String SQL_CREATE_BOOK_SALES_DAILY_TRIGGER =
+            "CREATE TRIGGER " + SalesRollupEntry.DAILY_TABLE_NAME + "_insert AFTER INSERT ON "
+                    + SaleEntry.TABLE_NAME + " BEGIN "
+                    + rollUp(SalesRollupEntry.DAILY_TABLE_NAME, SalesRollupEntry.DAY_MILLIS)
+                    + " END;";
+
+    // Version 7 adds the sync columns. Books saved before it get a sync id and are dirty,
+    // so the first sync uploads them.
+    private static final String SQL_ADD_BOOK_SYNC_ID =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                    + BookEntry.COLUMN_BOOK_SYNC_ID + " TEXT;";
+    private static final String SQL_ADD_BOOK_VERSION =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                    + BookEntry.COLUMN_BOOK_VERSION + " INTEGER NOT NULL DEFAULT 0;";
+    private static final String SQL_ADD_BOOK_DIRTY =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                    + BookEntry.COLUMN_BOOK_DIRTY + " INTEGER NOT NULL DEFAULT 1;";
+    private static final String SQL_FILL_BOOK_SYNC_IDS =
+            "UPDATE " + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_BOOK_SYNC_ID + " = "
+                    + randomUuid() + " WHERE " + BookEntry.COLUMN_BOOK_SYNC_ID + " IS NULL;";
+    private static final String SQL_DROP_BOOK_VIEW = "DROP VIEW " + BookEntry.VIEW_NAME + ";";
+
+    /**
+     * Fills the full-text index with the books saved before it existed, from the books table
+     * as it was before version 5.
+     */
+    private static final String SQL_FILL_BOOK_SEARCH =
+            "INSERT INTO " + BookEntry.SEARCH_TABLE_NAME + "(docid, "
+                    + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ") "
+                    + "SELECT " + BookEntry._ID + ", " + BookEntry.COLUMN_BOOK_NAME + ", "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " FROM " + BookEntry.TABLE_NAME + ";";
+
+    // Version 5 moves the suppliers to their own table. The books table is renamed, copied
+    // into the new one with the id of each supplier, then dropped.
+    private static final String OLD_TABLE_NAME = BookEntry.TABLE_NAME + "_old";
+    private static final String SQL_FILL_SUPPLIERS =
+            "INSERT INTO " + SupplierEntry.TABLE_NAME + "(" + SupplierEntry.COLUMN_SUPPLIER_NAME
+                    + ", " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + ") SELECT DISTINCT "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO
+                    + " FROM " + BookEntry.TABLE_NAME + ";";
+    private static final String SQL_RENAME_BOOK_ENTRY =
+            "ALTER TABLE " + BookEntry.TABLE_NAME + " RENAME TO " + OLD_TABLE_NAME + ";";
+    private static final String SQL_COPY_BOOK_ENTRY =
+            "INSERT INTO " + BookEntry.TABLE_NAME + "(" + BookEntry._ID + ", "
+                    + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_PRICE + ", "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ") "
+                    + "SELECT b." + BookEntry._ID + ", b." + BookEntry.COLUMN_BOOK_NAME + ", b."
+                    + BookEntry.COLUMN_BOOK_PRICE + ", b." + BookEntry.COLUMN_BOOK_QUANTITY + ", s."
+                    + SupplierEntry._ID + " FROM " + OLD_TABLE_NAME + " b JOIN "
+                    + SupplierEntry.TABLE_NAME + " s ON s." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                    + " = b." + BookEntry.COLUMN_BOOK_SUPPLIER_NAME + " AND s."
+                    + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + " = b."
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO + ";";
+    // The AUTOINCREMENT counter of the old table is kept, ids of deleted books stay unused
+    private static final String SQL_DELETE_BOOK_SEQUENCE =
+            "DELETE FROM sqlite_sequence WHERE name = '" + BookEntry.TABLE_NAME + "';";
+    private static final String SQL_MOVE_BOOK_SEQUENCE =
+            "UPDATE sqlite_sequence SET name = '" + BookEntry.TABLE_NAME
+                    + "' WHERE name = '" + OLD_TABLE_NAME + "';";
+    private static final String SQL_DROP_OLD_BOOK_ENTRY = "DROP TABLE " + OLD_TABLE_NAME + ";";
+
+    /**
+     * Changes the journal may hold over {@link ChangeEntry#MAX_ENTRIES} before a write compacts
+     * it, so the old changes are dropped in chunks rather than one by one
+     */
+    private static final int COMPACT_SLACK = ChangeEntry.MAX_ENTRIES / 10;
+
+    /**
+     * Size the write-ahead log may reach before a commit checkpoints it into the database
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /**
+     * Time after which the idle reader connections of the pool are closed
+     */
+    private static final long IDLE_CONNECTION_TIMEOUT_MS = 30000;
 
     //Constructor of DbHelper Method
     public BookDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, null);
+    }
+
+    /**
+     * @param factory creates the cursors of the queries, null for the default ones
+     */
+    BookDbHelper(Context context, SQLiteDatabase.CursorFactory factory) {
+        super(context, DATABASE_NAME, factory, DATABASE_VERSION);
+        // Readers see the last commit while a write is running instead of waiting for it,
+        // and the pool opens a few read connections so loaders can query in parallel
+        setWriteAheadLoggingEnabled(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            setIdleConnectionTimeout(IDLE_CONNECTION_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Runs on every new connection, before it is created or migrated.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Books may only refer to existing suppliers
+        db.setForeignKeyConstraintsEnabled(true);
+        // With the log, NORMAL only syncs on checkpoints. A power loss may drop the last
+        // commits, it never corrupts the database.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // The pragma returns the new value, so it has to run as a query
+        Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copies the write-ahead log back into the database, to be called once a big write is over.
+     * A passive checkpoint copies what it can without waiting for anyone. A restart checkpoint
+     * waits for the readers to be done with the log so the next writes start it over from the
+     * beginning, which keeps it from growing across long imports.
+     *
+     * @return number of log frames checkpointed, or -1 when the database is not in WAL mode.
+     */
+    public int checkpoint(boolean restart) {
+        SQLiteDatabase db = getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(" + (restart ? "RESTART" : "PASSIVE")
+                + ")", null);
+        try {
+            // Rows are busy, frames in the log and frames checkpointed
+            return cursor.moveToFirst() ? cursor.getInt(2) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Keeps the change journal to its last {@link ChangeEntry#MAX_ENTRIES} changes.
+     * The deleted range is found from the primary key alone.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            compactChanges(db, maxSequence(db) - ChangeEntry.MAX_ENTRIES);
+        }
+    }
+
+    /**
+     * Keeps the change journal to its last {@link ChangeEntry#MAX_ENTRIES} changes once it
+     * passed them by {@link #COMPACT_SLACK}, to be called in the transaction of a write.
+     * Compacted changes leave no gap, so the journal size is the range of its sequences. Each
+     * end is read from the primary key by its own subquery, which SQLite does not scan for.
+     *
+     * @return number of changes dropped.
+     */
+    static int compactChangesIfFull(SQLiteDatabase db) {
+        long max;
+        long min;
+        Cursor cursor = db.rawQuery(SQL_CHANGES_RANGE, null);
+        try {
+            cursor.moveToFirst();
+            max = cursor.getLong(0);
+            min = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+        if (max - min < ChangeEntry.MAX_ENTRIES + COMPACT_SLACK) {
+            return 0;
+        }
+        return compactChanges(db, max - ChangeEntry.MAX_ENTRIES);
+    }
+
+    /**
+     * Drops the journaled changes up to the given sequence, keeping the last one.
+     *
+     * @return number of changes dropped.
+     */
+    public int compactChanges(long sequence) {
+        return compactChanges(getWritableDatabase(), sequence);
+    }
+
+    private static int compactChanges(SQLiteDatabase db, long sequence) {
+        if (sequence <= 0) {
+            return 0;
+        }
+        SQLiteStatement compact = db.compileStatement(SQL_COMPACT_BOOK_CHANGES);
+        try {
+            compact.bindLong(1, sequence);
+            return compact.executeUpdateDelete();
+        } finally {
+            compact.close();
+        }
+    }
+
+    /**
+     * @return sequence of the last journaled change, 0 when nothing was journaled yet.
+     */
+    static long maxSequence(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT ifnull(max(" + ChangeEntry._ID + "), 0) FROM "
+                + ChangeEntry.TABLE_NAME, null);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         //Creates an db if not present,
         // Else returns the reference of it.
+        db.execSQL(SQL_CREATE_SUPPLIER_ENTRY);
         db.execSQL(SQL_CREATE_BOOK_ENTRY);
+        db.execSQL(SQL_CREATE_BOOK_SEARCH);
+        db.execSQL(SQL_CREATE_BOOK_SUMMARY);
+        db.execSQL(SQL_FILL_BOOK_SUMMARY);
+        createBookDependents(db);
+        createChangeJournal(db);
+        createSyncTracking(db);
+        createSalesLedger(db);
     }
 
+    /**
+     * Migrates the database one version at a time, so any older version reaches the current one.
+     * The triggers and indexes added by versions 2 to 4 are on the books table that version 5
+     * rebuilds, so they are all created by that last step and the earlier ones only add tables.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // Version 2 adds the full-text index of the books
+            db.execSQL(SQL_CREATE_BOOK_SEARCH);
+            db.execSQL(SQL_FILL_BOOK_SEARCH);
+        }
+        // Version 3 only adds the indexes of the list modes
+        if (oldVersion < 4) {
+            // Version 4 adds the inventory summary
+            db.execSQL(SQL_CREATE_BOOK_SUMMARY);
+            db.execSQL(SQL_FILL_BOOK_SUMMARY);
+        }
+        if (oldVersion < 5) {
+            // Version 5 stores each supplier once. Book ids are kept, so the full-text index
+            // and the summary stay valid.
+            db.execSQL(SQL_CREATE_SUPPLIER_ENTRY);
+            db.execSQL(SQL_FILL_SUPPLIERS);
+            db.execSQL(SQL_RENAME_BOOK_ENTRY);
+            db.execSQL(SQL_CREATE_BOOK_ENTRY);
+            db.execSQL(SQL_COPY_BOOK_ENTRY);
+            db.execSQL(SQL_DELETE_BOOK_SEQUENCE);
+            db.execSQL(SQL_MOVE_BOOK_SEQUENCE);
+            // The triggers and indexes of the old table go along with it
+            db.execSQL(SQL_DROP_OLD_BOOK_ENTRY);
+            createBookDependents(db);
+        }
+        if (oldVersion < 6) {
+            // Version 6 adds the change journal, the books saved before it have no change
+            createChangeJournal(db);
+        }
+        if (oldVersion < 7) {
+            // Version 7 adds the sync columns, already part of the books table and view
+            // created by version 5
+            if (oldVersion >= 5) {
+                db.execSQL(SQL_ADD_BOOK_SYNC_ID);
+                db.execSQL(SQL_ADD_BOOK_VERSION);
+                db.execSQL(SQL_ADD_BOOK_DIRTY);
+                db.execSQL(SQL_DROP_BOOK_VIEW);
+                db.execSQL(SQL_CREATE_BOOK_VIEW);
+            }
+            db.execSQL(SQL_FILL_BOOK_SYNC_IDS);
+            createSyncTracking(db);
+        }
+        if (oldVersion < 8) {
+            // Version 8 adds the sales ledger, the sales made before it were not recorded
+            createSalesLedger(db);
+        }
+    }
+
+    /**
+     * Creates the view, indexes and triggers of the books table, once the table is filled.
+     */
+    private static void createBookDependents(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_BOOK_VIEW);
+        db.execSQL(SQL_CREATE_BOOK_NAME_INDEX);
+        db.execSQL(SQL_CREATE_BOOK_PRICE_INDEX);
+        db.execSQL(SQL_CREATE_BOOK_QUANTITY_INDEX);
+        db.execSQL(SQL_CREATE_BOOK_SUPPLIER_INDEX);
+        db.execSQL(SQL_CREATE_BOOK_SEARCH_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SEARCH_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SEARCH_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_SUPPLIER_SEARCH_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SUMMARY_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SUMMARY_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SUMMARY_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_SUPPLIER_CLEANUP_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_SUPPLIER_CLEANUP_UPDATE_TRIGGER);
+    }
+
+    /**
+     * Creates the change journal and its triggers, after the tables they are on.
+     */
+    private static void createChangeJournal(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_BOOK_CHANGES);
+        db.execSQL(SQL_CREATE_BOOK_CHANGES_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_CHANGES_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_CHANGES_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_SUPPLIER_CHANGES_UPDATE_TRIGGER);
+    }
+
+    /**
+     * Creates the indexes, tombstones and triggers tracking the changes to sync.
+     */
+    private static void createSyncTracking(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_BOOK_SYNC_ID_INDEX);
+        db.execSQL(SQL_CREATE_BOOK_TOMBSTONES);
+        db.execSQL(SQL_CREATE_BOOK_DIRTY_TRIGGER);
+        db.execSQL(SQL_CREATE_SUPPLIER_DIRTY_TRIGGER);
+    }
+
+    /**
+     * Creates the sales ledger, its rollups and their triggers.
+     */
+    private static void createSalesLedger(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_BOOK_SALES);
+        db.execSQL(SQL_CREATE_BOOK_SALES_BOOK_INDEX);
+        db.execSQL(createRollup(SalesRollupEntry.HOURLY_TABLE_NAME));
+        db.execSQL(createRollupBucketIndex(SalesRollupEntry.HOURLY_TABLE_NAME));
+        db.execSQL(createRollup(SalesRollupEntry.DAILY_TABLE_NAME));
+        db.execSQL(createRollupBucketIndex(SalesRollupEntry.DAILY_TABLE_NAME));
+        db.execSQL(SQL_CREATE_BOOK_SALES_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SALES_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SALES_HOURLY_TRIGGER);
+        db.execSQL(SQL_CREATE_BOOK_SALES_DAILY_TRIGGER);
+    }
+
+    /**
+     * @return the statement creating a rollup table. Its primary key serves the buckets of
+     * one book over a range of time.
+     */
+    private static String createRollup(String table) {
+        return "CREATE TABLE " + table + "("
+                + SalesRollupEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + SalesRollupEntry.COLUMN_BUCKET + " INTEGER NOT NULL, "
+                + SalesRollupEntry.COLUMN_UNITS + " INTEGER NOT NULL, "
+                + SalesRollupEntry.COLUMN_REVENUE + " INTEGER NOT NULL, "
+                + SalesRollupEntry.COLUMN_SALES + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + SalesRollupEntry.COLUMN_BOOK_ID + ", "
+                + SalesRollupEntry.COLUMN_BUCKET + "));";
+    }
+
+    /**
+     * @return the statement creating the index serving the buckets of all books over a range
+     * of time.
+     */
+    private static String createRollupBucketIndex(String table) {
+        return "CREATE INDEX " + table + "_bucket_idx ON " + table + "("
+                + SalesRollupEntry.COLUMN_BUCKET + ", " + SalesRollupEntry.COLUMN_BOOK_ID + ");";
+    }
+
+    /**
+     * @return the statements of a trigger adding the new sale to its bucket of the rollup
+     * table, created empty first. Upserts need a newer SQLite than the oldest devices have.
+     * The bucket is cut from the local time of the sale, so a day starts at local midnight.
+     */
+    private static String rollUp(String table, long bucketMillis) {
+        String localTime = "(new." + SaleEntry.COLUMN_SOLD_AT + " + new."
+                + SaleEntry.COLUMN_UTC_OFFSET + ")";
+        String bucket = "(" + localTime + " - " + localTime + " % " + bucketMillis + ")";
+        return "INSERT OR IGNORE INTO " + table + "(" + SalesRollupEntry.COLUMN_BOOK_ID + ", "
+                + SalesRollupEntry.COLUMN_BUCKET + ", " + SalesRollupEntry.COLUMN_UNITS + ", "
+                + SalesRollupEntry.COLUMN_REVENUE + ", " + SalesRollupEntry.COLUMN_SALES + ") "
+                + "VALUES (new." + SaleEntry.COLUMN_BOOK_ID + ", " + bucket + ", 0, 0, 0); "
+                + "UPDATE " + table + " SET "
+                + SalesRollupEntry.COLUMN_UNITS + " = " + SalesRollupEntry.COLUMN_UNITS
+                + " + new." + SaleEntry.COLUMN_UNITS + ", "
+                + SalesRollupEntry.COLUMN_REVENUE + " = " + SalesRollupEntry.COLUMN_REVENUE
+                + " + new." + SaleEntry.COLUMN_UNITS + " * new." + SaleEntry.COLUMN_PRICE + ", "
+                + SalesRollupEntry.COLUMN_SALES + " = " + SalesRollupEntry.COLUMN_SALES + " + 1"
+                + " WHERE " + SalesRollupEntry.COLUMN_BOOK_ID + " = new." + SaleEntry.COLUMN_BOOK_ID
+                + " AND " + SalesRollupEntry.COLUMN_BUCKET + " = " + bucket + ";";
+    }
+
+    /**
+     * @return expression of a random id formatted like {@link java.util.UUID#toString()}, as
+     * the provider gives to new books.
+     */
+    private static String randomUuid() {
+        return "lower(hex(randomblob(4)) || '-' || hex(randomblob(2)) || '-' || hex(randomblob(2))"
+                + " || '-' || hex(randomblob(2)) || '-' || hex(randomblob(6)))";
+    }
+
+    /**
+     * @return the statement journaling a change of the given book.
+     */
+    private static String journal(String op, String bookId, String changedColumns) {
+        return "INSERT INTO " + ChangeEntry.TABLE_NAME + "(" + ChangeEntry.COLUMN_OP + ", "
+                + ChangeEntry.COLUMN_BOOK_ID + ", " + ChangeEntry.COLUMN_CHANGED_COLUMNS + ") "
+                + "VALUES ('" + op + "', " + bookId + ", " + changedColumns + ");";
+    }
+
+    /**
+     * @return condition true when the update trigger changed any of the given columns.
+     */
+    private static String changedColumnsCondition(String... columns) {
+        StringBuilder condition = new StringBuilder();
+        for (String column : columns) {
+            if (condition.length() > 0) {
+                condition.append(" OR ");
+            }
+            condition.append("old.").append(column).append(" IS NOT new.").append(column);
+        }
+        return condition.toString();
+    }
+
+    /**
+     * @return comma separated list of the given columns the update trigger changed.
+     */
+    private static String changedColumns(String... columns) {
+        StringBuilder list = new StringBuilder("rtrim(");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                list.append(" || ");
+            }
+            list.append("CASE WHEN old.").append(columns[i]).append(" IS NOT new.").append(columns[i])
+                    .append(" THEN '").append(columns[i]).append(",' ELSE '' END");
+        }
+        return list.append(", ',')").toString();
+    }
+
+    /**
+     * @return the column of the books table, selected under its own name.
+     */
+    private static String bookColumn(String column) {
+        return BookEntry.TABLE_NAME + "." + column + " AS " + column;
+    }
+
+    /**
+     * @return the name of the supplier of the row with the given prefix, "new." in triggers.
+     */
+    private static String supplierName(String row) {
+        return "(SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = " + row + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ")";
+    }
+
+    /**
+     * @return the statement deleting the supplier of the old row when no book refers to it.
+     */
+    private static String deleteOrphanSupplier() {
+        return "DELETE FROM " + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID
+                + " = old." + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " AND NOT EXISTS (SELECT 1 FROM "
+                + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                + " = old." + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ");";
+    }
+
+    /**
+     * @return the stock value of the row with the given prefix, "new." or "old." in triggers.
+     */
+    private static String stockValue(String row) {
+        return "(" + row + BookEntry.COLUMN_BOOK_PRICE + " * " + row + BookEntry.COLUMN_BOOK_QUANTITY + ")";
+    }
+
+    /**
+     * @return 1 when the row with the given prefix is low on stock, 0 otherwise.
+     */
+    private static String lowStock(String row) {
+        return "(" + row + BookEntry.COLUMN_BOOK_QUANTITY + " <= " + BookEntry.LOW_STOCK_LIMIT + ")";
     }
 }
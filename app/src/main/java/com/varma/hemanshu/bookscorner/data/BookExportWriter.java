@@ -0,0 +1,102 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * Writes the books of a cursor into the pipe opened by {@link BookProvider#openFile}.
+ * Rows are written one at a time while walking the cursor, so the export never holds more
+ * than the current cursor window and the stream buffer in memory.
+ */
+class BookExportWriter implements ContentProvider.PipeDataWriter<Cursor> {
+
+    private static final String LOG_TAG = BookExportWriter.class.getSimpleName();
+
+    /**
+     * Columns of the export, in the order they are written.
+     */
+    static final String[] EXPORT_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final boolean mBinary;
+
+    /**
+     * @param binary true for the binary format described in {@link BookEntry#EXPORT_BINARY_TYPE},
+     *               false for CSV with a header row
+     */
+    BookExportWriter(boolean binary) {
+        mBinary = binary;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, Cursor cursor) {
+        // The pipe itself is closed by openPipeHelper() once this returns
+        OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(output.getFileDescriptor()), BUFFER_SIZE);
+        try {
+            if (mBinary) {
+                writeBinary(cursor, out);
+            } else {
+                writeCsv(cursor, out);
+            }
+        } catch (IOException e) {
+            // Happens when the reader closes its end before the end of the export
+            Log.e(LOG_TAG, "Export of " + uri + " stopped", e);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void writeCsv(Cursor cursor, OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        CsvWriter csv = new CsvWriter(writer, ',');
+        csv.writeRecord(EXPORT_PROJECTION);
+        String[] fields = new String[EXPORT_PROJECTION.length];
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = cursor.getString(i);
+            }
+            csv.writeRecord(fields);
+        }
+        writer.flush();
+    }
+
+    private static void writeBinary(Cursor cursor, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(BookEntry.EXPORT_BINARY_MAGIC);
+        data.writeInt(BookEntry.EXPORT_BINARY_VERSION);
+        while (cursor.moveToNext()) {
+            data.writeBoolean(true);
+            data.writeLong(cursor.getLong(0));
+            data.writeUTF(cursor.getString(1));
+            data.writeInt(cursor.getInt(2));
+            data.writeInt(cursor.getInt(3));
+            data.writeUTF(cursor.getString(4));
+            data.writeUTF(cursor.getString(5));
+        }
+        // Marks the end of the rows
+        data.writeBoolean(false);
+        data.flush();
+    }
+}
@@ -1,15 +1,47 @@
 package com.varma.hemanshu.bookscorner.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
+import com.varma.hemanshu.bookscorner.BookTrace;
 import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.ChangeEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.MetricsEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SaleEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SalesRollupEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SummaryEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SupplierEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.TombstoneEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
 
 public class BookProvider extends ContentProvider {
 
@@ -28,6 +60,50 @@ public class BookProvider extends ContentProvider {
      */
     private static final int BOOK_ID = 101;
 
+    /**
+     * URI matcher codes for the CSV and binary export streams of the books table
+     */
+    private static final int EXPORT_CSV = 102;
+    private static final int EXPORT_BINARY = 103;
+
+    /**
+     * URI matcher code for the full-text search of books
+     */
+    private static final int BOOK_SEARCH = 104;
+
+    /**
+     * URI matcher code for the inventory summary row
+     */
+    private static final int BOOK_SUMMARY = 105;
+
+    /**
+     * URI matcher codes for the suppliers and a single supplier
+     */
+    private static final int SUPPLIERS = 106;
+    private static final int SUPPLIER_ID = 107;
+
+    /**
+     * URI matcher code for the change journal of the books
+     */
+    private static final int BOOK_CHANGES = 108;
+
+    /**
+     * URI matcher code for the tombstones of the deleted books
+     */
+    private static final int BOOK_TOMBSTONES = 109;
+
+    /**
+     * URI matcher code for the metrics of the provider
+     */
+    private static final int METRICS = 110;
+
+    /**
+     * URI matcher codes for the sales ledger and its hourly and daily rollups
+     */
+    private static final int SALES = 111;
+    private static final int SALES_HOURLY = 112;
+    private static final int SALES_DAILY = 113;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -35,22 +111,149 @@ public class BookProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
-    // The calls to addURI() go here, for all of the content URI patterns that the provider
+    /**
+     * Paths of the URI patterns by their code, naming them in the metrics
+     */
+    private static final SparseArray<String> sUriPaths = new SparseArray<>();
+
+    // The calls to addUri() go here, for all of the content URI patterns that the provider
     // should recognize. All paths added to the UriMatcher have a corresponding code to return
     // when a match is found.
     static {
-        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS, BOOKS);
-        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS, BOOKS);
+        addUri(BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_EXPORT, EXPORT_CSV);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_EXPORT + "/"
+                + BookContract.PATH_BINARY, EXPORT_BINARY);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SEARCH, BOOK_SEARCH);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SUMMARY, BOOK_SUMMARY);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_CHANGES, BOOK_CHANGES);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_TOMBSTONES, BOOK_TOMBSTONES);
+        addUri(BookContract.PATH_SUPPLIERS, SUPPLIERS);
+        addUri(BookContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        addUri(BookContract.PATH_METRICS, METRICS);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SALES, SALES);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SALES + "/"
+                + BookContract.PATH_HOURLY, SALES_HOURLY);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SALES + "/"
+                + BookContract.PATH_DAILY, SALES_DAILY);
+    }
+
+    private static void addUri(String path, int code) {
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, path, code);
+        sUriPaths.put(code, path);
     }
 
+    /**
+     * Book columns of a search without a projection
+     */
+    private static final String[] SEARCH_COLUMNS = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
+
+    // Orders of the list modes, each one matching the columns of its covering index so the
+    // rows come straight out of the index. The rowid every index ends with breaks the ties.
+    // Newest first, the table read backwards.
+    static final String SORT_ADDED = BookEntry._ID + " DESC";
+    static final String SORT_NAME = BookEntry.COLUMN_BOOK_NAME + " ASC, "
+            + BookEntry.COLUMN_BOOK_PRICE + " ASC, " + BookEntry.COLUMN_BOOK_QUANTITY + " ASC, "
+            + BookEntry._ID + " ASC";
+    static final String SORT_PRICE = BookEntry.COLUMN_BOOK_PRICE + " ASC, "
+            + BookEntry.COLUMN_BOOK_NAME + " ASC, " + BookEntry.COLUMN_BOOK_QUANTITY + " ASC, "
+            + BookEntry._ID + " ASC";
+    static final String SORT_QUANTITY = BookEntry.COLUMN_BOOK_QUANTITY + " ASC, "
+            + BookEntry.COLUMN_BOOK_NAME + " ASC, " + BookEntry.COLUMN_BOOK_PRICE + " ASC, "
+            + BookEntry._ID + " ASC";
+    static final String SELECTION_LOW_STOCK =
+            BookEntry.COLUMN_BOOK_QUANTITY + " <= " + BookEntry.LOW_STOCK_LIMIT;
+    static final String SELECTION_SUPPLIER = BookEntry.COLUMN_BOOK_SUPPLIER_ID + " IN (SELECT "
+            + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?)";
+
+    /**
+     * Number of rows bulkInsert() writes before giving waiting readers a chance to run.
+     */
+    private static final int BULK_INSERT_CHUNK_SIZE = 500;
+
+    /**
+     * Methods of call(), each timed by the metrics
+     */
+    private static final String[] CALL_METHODS = {BookEntry.METHOD_SELL,
+            BookEntry.METHOD_BULK_INSERT,
+            BookEntry.METHOD_WARM_UP,
+            BookEntry.METHOD_CHECKPOINT,
+            BookEntry.METHOD_SET_NOTIFY_WINDOW,
+            ChangeEntry.METHOD_COMPACT_CHANGES};
+
     private BookDbHelper mDbHelper;
 
+    /**
+     * Compiled statements of the frequent writes
+     */
+    private BookStatements mStatements;
+
+    /**
+     * Books recently read by id, served without a query
+     */
+    private BookRowCache mRowCache;
+
+    /**
+     * Merges the change notifications sent within a short window
+     */
+    private ChangeNotifier mNotifier;
+
+    /**
+     * Counters and latencies of the calls, printed by dump()
+     */
+    private ProviderMetrics mMetrics;
+
+    /**
+     * Set while the calling thread runs a bulkInsert() or applyBatch(), so the single row
+     * write paths hold back their change notification until the whole batch is committed.
+     */
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<>();
+
+    /**
+     * Set when a write inside the running batch changed at least one row.
+     */
+    private final ThreadLocal<Boolean> mBatchHasChanges = new ThreadLocal<>();
+
+    /**
+     * Set when a write inside the running batch changed a supplier.
+     */
+    private final ThreadLocal<Boolean> mBatchSuppliersChanged = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new BookDbHelper(getContext());
+        mDbHelper = createDbHelper();
+        mStatements = new BookStatements(mDbHelper);
+        mRowCache = new BookRowCache(getContext());
+        mNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                BookEntry.DEFAULT_NOTIFY_WINDOW_MS);
+        mMetrics = new ProviderMetrics(sUriPaths, CALL_METHODS, mRowCache, mNotifier);
         return false;
     }
 
+    /**
+     * Closes the database and stops the thread of the notifier, for the tests creating several
+     * providers in one process.
+     */
+    @Override
+    public void shutdown() {
+        mNotifier.quit();
+        mDbHelper.close();
+    }
+
+    /**
+     * @return the helper of the database of the books, replaced by the query plan tests.
+     */
+    BookDbHelper createDbHelper() {
+        return new BookDbHelper(getContext());
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      *
@@ -58,20 +261,92 @@ public class BookProvider extends ContentProvider {
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        BookTrace.beginSection(BookTrace.PROVIDER_QUERY);
+        try {
+            long start = System.nanoTime();
+            int match = sUriMatcher.match(uri);
+            Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+            // Counting runs the query, which its caller does right away anyway
+            mMetrics.record(ProviderMetrics.QUERY, match, start, cursor.getCount());
+            return cursor;
+        } finally {
+            BookTrace.endSection();
+        }
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+        if (match == METRICS) {
+            return mMetrics.query(projection);
+        }
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
         Cursor cursor;
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
-                cursor = db.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null,
-                        sortOrder);
+                if (uri.getQueryParameter(BookEntry.QUERY_PARAM_PAGE_SIZE) != null) {
+                    // Keyset paged query, only the rows of the requested page are read
+                    cursor = queryPage(db, uri, projection, selection, selectionArgs);
+                    break;
+                }
+                if (uri.getQueryParameter(BookEntry.QUERY_PARAM_LIST_MODE) != null
+                        || uri.getQueryParameter(BookEntry.QUERY_PARAM_SUPPLIER) != null) {
+                    cursor = queryListMode(db, uri, projection, selection, selectionArgs);
+                    break;
+                }
+                cursor = db.query(bookSource(projection, selection, sortOrder), projection,
+                        selection, selectionArgs, null, null, sortOrder);
                 break;
             case BOOK_ID:
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                cursor = db.query(BookEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder);
+                cursor = queryBook(db, ContentUris.parseId(uri), projection, sortOrder);
+                break;
+            case BOOK_SEARCH:
+                cursor = searchBooks(db, uri, projection);
+                // A change of one book is notified on its own uri, which is not under the
+                // search uri, and any book may start or stop matching
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case BOOK_SUMMARY:
+                // A single row read by primary key, kept up to date by the triggers
+                cursor = db.query(SummaryEntry.TABLE_NAME, projection, null, null,
+                        null, null, null);
+                // Every change of a book changes the totals
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case BOOK_CHANGES:
+                if (selection != null) {
+                    throw new IllegalArgumentException("Cannot filter the changes " + uri);
+                }
+                cursor = queryChanges(db, uri, projection);
+                // Every change of a book adds to the journal
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case BOOK_TOMBSTONES:
+                cursor = db.query(TombstoneEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SALES:
+                cursor = db.query(SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                // Every sale changes a book
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case SALES_HOURLY:
+                cursor = queryRollup(db, SalesRollupEntry.HOURLY_TABLE_NAME, uri, projection,
+                        selection, selectionArgs, sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case SALES_DAILY:
+                cursor = queryRollup(db, SalesRollupEntry.DAILY_TABLE_NAME, uri, projection,
+                        selection, selectionArgs, sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case SUPPLIERS:
+                cursor = db.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_ID:
+                cursor = db.query(SupplierEntry.TABLE_NAME, projection, SupplierEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))}, null, null, sortOrder);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -80,6 +355,426 @@ public class BookProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Reads a single book, from the row cache when it holds the book.
+     *
+     * @return Cursor over the book, empty when it does not exist.
+     */
+    private Cursor queryBook(SQLiteDatabase db, long id, String[] projection, String sortOrder) {
+        String selection = BookEntry._ID + "=?";
+        String[] selectionArgs = new String[]{String.valueOf(id)};
+        if (!BookRowCache.canServe(projection)) {
+            return db.query(BookEntry.VIEW_NAME, projection, selection,
+                    selectionArgs, null, null, sortOrder);
+        }
+        Cursor cursor = mRowCache.get(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+        // Read before the query, a write committed in between makes the row too old to cache
+        long generation = mRowCache.getGeneration();
+        Cursor row = db.query(BookEntry.VIEW_NAME, BookRowCache.ROW_COLUMNS, selection,
+                selectionArgs, null, null, null);
+        try {
+            if (!row.moveToFirst()) {
+                return new MatrixCursor(projection == null ? BookRowCache.ROW_COLUMNS : projection, 0);
+            }
+            Object[] values = BookRowCache.readRow(row);
+            // Inside a transaction the row may not be committed yet
+            if (!db.inTransaction()) {
+                mRowCache.put(generation, values);
+            }
+            return BookRowCache.toCursor(values, projection);
+        } finally {
+            row.close();
+        }
+    }
+
+    /**
+     * Lists the books in the mode given by the uri, with the sort order and filter of the mode
+     * applied in SQL. The supplier filter lists the books of the supplier by name from its
+     * index, combined with another mode it sorts only the books of that supplier.
+     * Columns of the books table are read by a {@link ChunkedBookCursor}, only the chunks of
+     * rows the list moves to, each seeking the index of the mode past the previous one.
+     *
+     * @return Cursor of the books in the order of the mode.
+     */
+    private Cursor queryListMode(SQLiteDatabase db, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs) {
+        String listMode = uri.getQueryParameter(BookEntry.QUERY_PARAM_LIST_MODE);
+        String supplier = uri.getQueryParameter(BookEntry.QUERY_PARAM_SUPPLIER);
+        // Counted by the summary when the mode alone selects the books
+        String countColumn = selection == null && supplier == null
+                ? SummaryEntry.COLUMN_TITLES : null;
+        String orderBy;
+        if (listMode == null) {
+            orderBy = supplier != null ? SORT_NAME : SORT_ADDED;
+        } else if (BookEntry.LIST_MODE_ADDED.equals(listMode)) {
+            orderBy = SORT_ADDED;
+        } else if (BookEntry.LIST_MODE_NAME.equals(listMode)) {
+            orderBy = SORT_NAME;
+        } else if (BookEntry.LIST_MODE_PRICE.equals(listMode)) {
+            orderBy = SORT_PRICE;
+        } else if (BookEntry.LIST_MODE_QUANTITY.equals(listMode)) {
+            orderBy = SORT_QUANTITY;
+        } else if (BookEntry.LIST_MODE_LOW_STOCK.equals(listMode)) {
+            orderBy = SORT_QUANTITY;
+            selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LOW_STOCK);
+            if (countColumn != null) {
+                countColumn = SummaryEntry.COLUMN_LOW_STOCK;
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown list mode " + listMode);
+        }
+        if (supplier != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, SELECTION_SUPPLIER);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{supplier});
+        }
+        String source = bookSource(projection, selection, orderBy);
+        if (!BookEntry.TABLE_NAME.equals(source)) {
+            return db.query(source, projection, selection, selectionArgs, null, null, orderBy);
+        }
+        // Without a transaction the count and the chunks are read from different snapshots,
+        // which the cursor allows for
+        int count = countColumn != null
+                ? (int) DatabaseUtils.longForQuery(db, "SELECT " + countColumn + " FROM "
+                + SummaryEntry.TABLE_NAME + " WHERE " + SummaryEntry._ID + " = 1", null)
+                : (int) DatabaseUtils.queryNumEntries(db, BookEntry.TABLE_NAME, selection,
+                selectionArgs);
+        return new ChunkedBookCursor(db, BookEntry.TABLE_NAME, projection, selection,
+                selectionArgs, orderBy, count);
+    }
+
+    /**
+     * Reads the buckets of a sales rollup, of the book and range of time given by the uri.
+     * The buckets of a book are read from the primary key, the ones of all books from the
+     * bucket index, both in bucket order.
+     *
+     * @return Cursor of the buckets.
+     */
+    private Cursor queryRollup(SQLiteDatabase db, String table, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder) {
+        String bookId = uri.getQueryParameter(SalesRollupEntry.QUERY_PARAM_BOOK_ID);
+        String from = uri.getQueryParameter(SalesRollupEntry.QUERY_PARAM_FROM);
+        String to = uri.getQueryParameter(SalesRollupEntry.QUERY_PARAM_TO);
+        try {
+            if (bookId != null) {
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        SalesRollupEntry.COLUMN_BOOK_ID + " = " + Long.parseLong(bookId));
+            }
+            if (from != null) {
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        SalesRollupEntry.COLUMN_BUCKET + " >= " + Long.parseLong(from));
+            }
+            if (to != null) {
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        SalesRollupEntry.COLUMN_BUCKET + " < " + Long.parseLong(to));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Sales require a numeric BOOK ID, FROM and TO " + uri);
+        }
+        if (sortOrder == null) {
+            sortOrder = bookId != null ? SalesRollupEntry.COLUMN_BUCKET + " ASC"
+                    : SalesRollupEntry.COLUMN_BUCKET + " ASC, " + SalesRollupEntry.COLUMN_BOOK_ID + " ASC";
+        }
+        return db.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Searches the books through the full-text index, every word of the query has to match
+     * the start of a word in the book or supplier name. Books matching every word on their
+     * name come first, then the other matches, each newest first.
+     * Both are read in docid order from the index and stop at the limit, so nothing is ranked
+     * or sorted however many books a short prefix matches.
+     *
+     * @return Cursor of the best ranked books.
+     */
+    private Cursor searchBooks(SQLiteDatabase db, Uri uri, String[] projection) {
+        String query = uri.getQueryParameter(BookEntry.QUERY_PARAM_QUERY);
+        String matchQuery = toMatchQuery(query, null);
+        if (projection == null) {
+            projection = SEARCH_COLUMNS;
+        }
+        if (matchQuery.length() == 0) {
+            // Nothing to search for, so nothing matches
+            return new MatrixCursor(projection);
+        }
+        int limit = BookEntry.SEARCH_LIMIT;
+        if (uri.getQueryParameter(BookEntry.QUERY_PARAM_PAGE_SIZE) != null) {
+            limit = parsePageSize(uri);
+        }
+        // The ids of the name matches are needed to leave them out of the other matches
+        projection = withKeyColumns(projection, BookEntry._ID);
+        Cursor names = searchMatches(db, projection,
+                toMatchQuery(query, BookEntry.COLUMN_BOOK_NAME), null, limit);
+        if (names.getCount() >= limit) {
+            return names;
+        }
+        // All the name matches were read, the other matches leave them out
+        StringBuilder nameIds = new StringBuilder();
+        int idIndex = names.getColumnIndexOrThrow(BookEntry._ID);
+        while (names.moveToNext()) {
+            if (nameIds.length() > 0) {
+                nameIds.append(',');
+            }
+            nameIds.append(names.getLong(idIndex));
+        }
+        names.moveToPosition(-1);
+        Cursor others = searchMatches(db, projection, matchQuery,
+                nameIds.length() == 0 ? null : "docid NOT IN (" + nameIds + ")",
+                limit - names.getCount());
+        return new MergeCursor(new Cursor[]{names, others});
+    }
+
+    /**
+     * @return the newest books matching the full-text query, at most limit of them.
+     */
+    private static Cursor searchMatches(SQLiteDatabase db, String[] projection, String matchQuery,
+                                        String exclusion, int limit) {
+        String matches = "SELECT docid FROM " + BookEntry.SEARCH_TABLE_NAME + " WHERE "
+                + BookEntry.SEARCH_TABLE_NAME + " MATCH ?"
+                + (exclusion == null ? "" : " AND " + exclusion)
+                + " ORDER BY docid DESC LIMIT " + limit;
+        return db.query(BookEntry.VIEW_NAME, projection,
+                BookEntry._ID + " IN (" + matches + ")", new String[]{matchQuery},
+                null, null, BookEntry._ID + " DESC");
+    }
+
+    /**
+     * Turns the text typed by the user into a full-text query matching every word as a prefix,
+     * of the given column or of any column when it is null.
+     * Anything but letters and digits is dropped, so the text cannot inject query operators.
+     */
+    private static String toMatchQuery(String query, String column) {
+        StringBuilder matchQuery = new StringBuilder();
+        if (query == null) {
+            return "";
+        }
+        for (String word : query.toLowerCase(Locale.US).split("\\s+")) {
+            String token = word.replaceAll("[^\\p{L}\\p{N}]", "");
+            if (token.length() == 0) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            if (column != null) {
+                matchQuery.append(column).append(':');
+            }
+            matchQuery.append(token).append('*');
+        }
+        return matchQuery.toString();
+    }
+
+    /**
+     * Queries a single page of books. Rows are ordered by the sort column and then by id, and the
+     * page starts right after the (sort key, id) pair given in the uri, so every page is an
+     * index seek instead of an OFFSET walk over all the previous rows. A descending page seeks
+     * below the pair and reads the index backwards.
+     *
+     * @return Cursor holding at most page size rows, with the next page uri in its extras.
+     */
+    private Cursor queryPage(SQLiteDatabase db, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs) {
+        int pageSize = parsePageSize(uri);
+        String sortColumn = uri.getQueryParameter(BookEntry.QUERY_PARAM_SORT);
+        if (sortColumn == null) {
+            sortColumn = BookEntry._ID;
+        } else if (!isSortColumn(sortColumn)) {
+            throw new IllegalArgumentException("Cannot sort pages by " + sortColumn);
+        }
+        boolean sortById = BookEntry._ID.equals(sortColumn);
+        boolean descending = uri.getBooleanQueryParameter(BookEntry.QUERY_PARAM_DESCENDING, false);
+        String after = descending ? " < ?" : " > ?";
+
+        StringBuilder where = new StringBuilder();
+        List<String> whereArgs = new ArrayList<>();
+        if (selection != null) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                for (String arg : selectionArgs) {
+                    whereArgs.add(arg);
+                }
+            }
+        }
+
+        String afterId = uri.getQueryParameter(BookEntry.QUERY_PARAM_AFTER_ID);
+        if (afterId != null) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            if (sortById) {
+                where.append(BookEntry._ID).append(after);
+            } else {
+                String afterKey = uri.getQueryParameter(BookEntry.QUERY_PARAM_AFTER_KEY);
+                if (afterKey == null) {
+                    throw new IllegalArgumentException("Paged query requires an AFTER KEY " + uri);
+                }
+                // Written with the >= bound alone on the sort column, so the planner seeks
+                // the index to it instead of scanning the whole index for the OR
+                where.append(sortColumn).append(descending ? " <= ? AND (" : " >= ? AND (")
+                        .append(sortColumn).append(after).append(" OR ")
+                        .append(BookEntry._ID).append(after).append(')');
+                whereArgs.add(afterKey);
+                whereArgs.add(afterKey);
+            }
+            whereArgs.add(afterId);
+        }
+
+        String direction = descending ? " DESC" : " ASC";
+        String orderBy = sortById
+                ? BookEntry._ID + direction
+                : sortColumn + direction + ", " + BookEntry._ID + direction;
+
+        Cursor cursor = db.query(bookSource(projection, where.toString(), sortColumn),
+                withKeyColumns(projection, sortColumn),
+                where.length() == 0 ? null : where.toString(),
+                whereArgs.toArray(new String[whereArgs.size()]),
+                null, null, orderBy, String.valueOf(pageSize));
+        return new PageCursor(cursor, buildNextPageUri(uri, cursor, sortColumn, pageSize));
+    }
+
+    /**
+     * Reads the journaled changes after the since sequence, a range of the primary key.
+     * The sequences have no gaps, so a first change past the next sequence tells that the
+     * changes in between were compacted.
+     *
+     * @return Cursor over the changes in order, with the next page uri and the last sequence
+     * in its extras.
+     */
+    private Cursor queryChanges(SQLiteDatabase db, Uri uri, String[] projection) {
+        long since;
+        int limit = ChangeEntry.MAX_LIMIT;
+        try {
+            since = Long.parseLong(uri.getQueryParameter(ChangeEntry.QUERY_PARAM_SINCE));
+            String limitParam = uri.getQueryParameter(ChangeEntry.QUERY_PARAM_LIMIT);
+            if (limitParam != null) {
+                limit = Integer.parseInt(limitParam);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Changes require a SINCE sequence " + uri);
+        }
+        if (limit < BookContract.ONE || limit > ChangeEntry.MAX_LIMIT) {
+            throw new IllegalArgumentException("LIMIT out of range for " + uri);
+        }
+
+        Cursor cursor = db.query(ChangeEntry.TABLE_NAME, withKeyColumns(projection, ChangeEntry._ID),
+                ChangeEntry._ID + " > ?", new String[]{String.valueOf(since)},
+                null, null, ChangeEntry._ID + " ASC", String.valueOf(limit));
+        Bundle extras = new Bundle();
+        long first = -1;
+        long last = -1;
+        if (cursor.moveToFirst()) {
+            int idIndex = cursor.getColumnIndexOrThrow(ChangeEntry._ID);
+            first = cursor.getLong(idIndex);
+            cursor.moveToLast();
+            last = cursor.getLong(idIndex);
+            cursor.moveToPosition(-1);
+        }
+        extras.putBoolean(ChangeEntry.EXTRA_RESYNC_REQUIRED, first > since + 1);
+        // Read after the changes, it is never before the last one returned
+        extras.putLong(ChangeEntry.EXTRA_LAST_SEQUENCE, BookDbHelper.maxSequence(db));
+        if (cursor.getCount() == limit) {
+            extras.putString(BookEntry.EXTRA_NEXT_PAGE_URI, uri.buildUpon().clearQuery()
+                    .appendQueryParameter(ChangeEntry.QUERY_PARAM_SINCE, String.valueOf(last))
+                    .appendQueryParameter(ChangeEntry.QUERY_PARAM_LIMIT, String.valueOf(limit))
+                    .build().toString());
+        }
+        return new PageCursor(cursor, extras);
+    }
+
+    private static int parsePageSize(Uri uri) {
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(BookEntry.QUERY_PARAM_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid PAGE SIZE for " + uri);
+        }
+        if (pageSize < BookContract.ONE || pageSize > BookEntry.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("PAGE SIZE out of range for " + uri);
+        }
+        return pageSize;
+    }
+
+    private static boolean isSortColumn(String column) {
+        return BookEntry._ID.equals(column)
+                || BookEntry.COLUMN_BOOK_NAME.equals(column)
+                || BookEntry.COLUMN_BOOK_PRICE.equals(column)
+                || BookEntry.COLUMN_BOOK_QUANTITY.equals(column)
+                || BookEntry.COLUMN_BOOK_SUPPLIER_NAME.equals(column);
+    }
+
+    /**
+     * The next page token is read from the last row, so the id and sort column must be part of
+     * the projection. A null projection already returns every column.
+     */
+    private static String[] withKeyColumns(String[] projection, String sortColumn) {
+        if (projection == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : projection) {
+            columns.add(column);
+        }
+        if (!columns.contains(BookEntry._ID)) {
+            columns.add(BookEntry._ID);
+        }
+        if (!columns.contains(sortColumn)) {
+            columns.add(sortColumn);
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * @return uri of the page following the given one, or null if this was the last page.
+     */
+    private static Uri buildNextPageUri(Uri uri, Cursor cursor, String sortColumn, int pageSize) {
+        if (cursor.getCount() < pageSize || !cursor.moveToLast()) {
+            return null;
+        }
+        String lastId = cursor.getString(cursor.getColumnIndexOrThrow(BookEntry._ID));
+        String lastKey = cursor.getString(cursor.getColumnIndexOrThrow(sortColumn));
+        cursor.moveToPosition(-1);
+
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!BookEntry.QUERY_PARAM_AFTER_ID.equals(name)
+                    && !BookEntry.QUERY_PARAM_AFTER_KEY.equals(name)) {
+                builder.appendQueryParameter(name, uri.getQueryParameter(name));
+            }
+        }
+        if (!BookEntry._ID.equals(sortColumn)) {
+            builder.appendQueryParameter(BookEntry.QUERY_PARAM_AFTER_KEY, lastKey);
+        }
+        builder.appendQueryParameter(BookEntry.QUERY_PARAM_AFTER_ID, lastId);
+        return builder.build();
+    }
+
+    /**
+     * Cursor of a single page, exposing the next page uri through {@link Cursor#getExtras()}.
+     */
+    private static class PageCursor extends CursorWrapper {
+
+        private final Bundle mExtras;
+
+        PageCursor(Cursor cursor, Uri nextPageUri) {
+            this(cursor, new Bundle());
+            if (nextPageUri != null) {
+                mExtras.putString(BookEntry.EXTRA_NEXT_PAGE_URI, nextPageUri.toString());
+            }
+        }
+
+        PageCursor(Cursor cursor, Bundle extras) {
+            super(cursor);
+            mExtras = extras;
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -91,11 +786,71 @@ public class BookProvider extends ContentProvider {
                 return BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case EXPORT_CSV:
+                return BookEntry.EXPORT_CSV_TYPE;
+            case EXPORT_BINARY:
+                return BookEntry.EXPORT_BINARY_TYPE;
+            case BOOK_SEARCH:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case BOOK_SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case BOOK_CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
+            case BOOK_TOMBSTONES:
+                return TombstoneEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case SALES:
+                return SaleEntry.CONTENT_LIST_TYPE;
+            case SALES_HOURLY:
+            case SALES_DAILY:
+                return SalesRollupEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Returns the stream types of the export uris, so they can be opened with
+     * {@link android.content.ContentResolver#openTypedAssetFileDescriptor}.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        final int match = sUriMatcher.match(uri);
+        if (match != EXPORT_CSV && match != EXPORT_BINARY) {
+            return null;
+        }
+        String type = getType(uri);
+        if (mimeTypeFilter == null || ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+            return new String[]{type};
+        }
+        return null;
+    }
+
+    /**
+     * Opens the export stream of the books table. The rows are written into a pipe on a
+     * background thread while the caller reads the other end.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        if (match != EXPORT_CSV && match != EXPORT_BINARY) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export is read only " + uri);
+        }
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(BookEntry.VIEW_NAME, BookExportWriter.EXPORT_PROJECTION,
+                null, null, null, null, BookEntry._ID + " ASC");
+        return openPipeHelper(uri, getType(uri), null, cursor,
+                new BookExportWriter(match == EXPORT_BINARY));
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      *
@@ -103,12 +858,22 @@ public class BookProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case BOOKS:
-                return insertBook(uri, values);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        BookTrace.beginSection(BookTrace.PROVIDER_INSERT);
+        try {
+            long start = System.nanoTime();
+            final int match = sUriMatcher.match(uri);
+            Uri bookUri;
+            switch (match) {
+                case BOOKS:
+                    bookUri = insertBook(uri, values, null);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+            mMetrics.record(ProviderMetrics.INSERT, match, start, bookUri != null ? 1 : 0);
+            return bookUri;
+        } finally {
+            BookTrace.endSection();
         }
     }
 
@@ -119,27 +884,72 @@ public class BookProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        BookTrace.beginSection(BookTrace.PROVIDER_DELETE);
+        try {
+            long start = System.nanoTime();
+            final int match = sUriMatcher.match(uri);
+            int rowsDeleted = delete(match, uri, selection, selectionArgs);
+            mMetrics.record(ProviderMetrics.DELETE, match, start, rowsDeleted);
+            return rowsDeleted;
+        } finally {
+            BookTrace.endSection();
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         int rowsDeleted;
-        final int match = sUriMatcher.match(uri);
+        long transaction;
+        boolean syncAdapter = isSyncAdapter(uri);
         switch (match) {
             case BOOKS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                selection = onBooksTable(selection);
+                transaction = beginTransaction(database);
+                try {
+                    if (!syncAdapter) {
+                        keepTombstones(database, selection, selectionArgs);
+                    }
+                    rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                    setTransactionSuccessful(database);
+                } finally {
+                    endTransaction(database, transaction);
+                }
                 break;
             case BOOK_ID:
-                // Delete a single row given by the ID in the URI
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                // Delete a single row given by the ID in the URI, through the compiled statement
+                long id = ContentUris.parseId(uri);
+                if (syncAdapter) {
+                    rowsDeleted = mStatements.delete(id);
+                    break;
+                }
+                transaction = beginTransaction(database);
+                try {
+                    keepTombstones(database, BookEntry._ID + "=?",
+                            new String[]{String.valueOf(id)});
+                    rowsDeleted = mStatements.delete(id);
+                    setTransactionSuccessful(database);
+                } finally {
+                    endTransaction(database, transaction);
+                }
                 break;
+            case BOOK_TOMBSTONES:
+                if (!syncAdapter) {
+                    throw new IllegalArgumentException("Only the sync adapter deletes " + uri);
+                }
+                // Uploaded deletions, nothing to notify
+                return database.delete(TombstoneEntry.TABLE_NAME, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == BOOK_ID) {
+                notifyRowChanged(ContentUris.parseId(uri));
+            } else {
+                notifyTableChanged();
+            }
         }
         return rowsDeleted;
     }
@@ -151,7 +961,20 @@ public class BookProvider extends ContentProvider {
      */
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
+        BookTrace.beginSection(BookTrace.PROVIDER_UPDATE);
+        try {
+            long start = System.nanoTime();
+            final int match = sUriMatcher.match(uri);
+            int rowsUpdated = update(match, uri, values, selection, selectionArgs);
+            mMetrics.record(ProviderMetrics.UPDATE, match, start, rowsUpdated);
+            return rowsUpdated;
+        } finally {
+            BookTrace.endSection();
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues values, String selection,
+                       String[] selectionArgs) {
         switch (match) {
             case BOOKS:
                 return updatePet(uri, values, selection, selectionArgs);
@@ -162,12 +985,593 @@ public class BookProvider extends ContentProvider {
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 return updatePet(uri, values, selection, selectionArgs);
+            case SUPPLIER_ID:
+                // Suppliers are created and deleted along with their books, only updated here
+                return updateSupplier(ContentUris.parseId(uri), values);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
-    private Uri insertBook(Uri uri, ContentValues values) {
+    /**
+     * Inserts all the rows inside one transaction and sends a single change notification.
+     * Rows failing validation are skipped and logged with their index, the rest still get saved.
+     * {@link BookEntry#METHOD_BULK_INSERT} also tells which rows were skipped and why.
+     *
+     * @return number of rows inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        BookTrace.beginSection(BookTrace.PROVIDER_BULK_INSERT);
+        try {
+            return insertBooks(uri, values, null, null, null);
+        } finally {
+            BookTrace.endSection();
+        }
+    }
+
+    /**
+     * Inserts the books, adding the index and reason of every row skipped to the given lists
+     * when they are not null.
+     * A row with a key takes the sync id derived from it, and is skipped as already inserted
+     * when a book has that sync id.
+     * Yielding to waiting readers commits the rows written so far, so a failure after that
+     * still notifies the change of the committed rows.
+     */
+    private int insertBooks(Uri uri, ContentValues[] values, String[] rowKeys,
+                            List<Integer> rejectedRows, List<String> rejectedReasons) {
+        long start = System.nanoTime();
+        if (sUriMatcher.match(uri) != BOOKS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        if (rowKeys != null && rowKeys.length != values.length) {
+            throw new IllegalArgumentException("Bulk insert requires a ROW KEY for every row");
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        boolean successful = false;
+        boolean committed = false;
+        beginBatch();
+        long transaction = beginTransaction(database);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                String syncId = rowKeys == null ? null : syncIdForKey(rowKeys[i]);
+                String reason;
+                try {
+                    if (syncId != null && hasSyncId(database, syncId)) {
+                        reason = null;
+                    } else {
+                        reason = insertBook(uri, values[i], syncId) != null
+                                ? null : "Book could not be inserted";
+                    }
+                } catch (IllegalArgumentException e) {
+                    reason = e.getMessage();
+                }
+                if (reason == null) {
+                    rowsInserted++;
+                } else {
+                    Log.e(LOG_TAG, "Rejected row " + i + " for " + uri + ": " + reason);
+                    if (rejectedRows != null) {
+                        rejectedRows.add(i);
+                        rejectedReasons.add(reason);
+                    }
+                }
+                // Commits the rows written so far if a reader is waiting on the database
+                if ((i + 1) % BULK_INSERT_CHUNK_SIZE == 0 && database.yieldIfContendedSafely()) {
+                    committed = true;
+                }
+            }
+            // Once for the whole batch, committed with it
+            BookDbHelper.compactChangesIfFull(database);
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(database, transaction);
+            endBatch(successful || committed);
+        }
+        mMetrics.record(ProviderMetrics.BULK_INSERT, BOOKS, start, rowsInserted);
+        return rowsInserted;
+    }
+
+    /**
+     * Applies all the operations inside one transaction and sends a single change notification.
+     * An operation failing validation rolls back the whole batch.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean successful = false;
+        beginBatch();
+        long transaction = beginTransaction(database);
+        try {
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    results[i] = operations.get(i).apply(this, results, i);
+                } catch (IllegalArgumentException e) {
+                    throw new OperationApplicationException(
+                            "Rejected operation " + i + ": " + e.getMessage(), i);
+                }
+            }
+            // Once for the whole batch, committed with it
+            BookDbHelper.compactChangesIfFull(database);
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(database, transaction);
+            endBatch(successful);
+        }
+        mMetrics.recordBatch(start, results.length);
+        return results;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        Bundle result;
+        long rows;
+        if (BookEntry.METHOD_SELL.equals(method)) {
+            BookTrace.beginSection(BookTrace.PROVIDER_SELL);
+            try {
+                result = sellBook(extras);
+            } finally {
+                BookTrace.endSection();
+            }
+            rows = result.getBoolean(BookEntry.EXTRA_SOLD) ? 1 : 0;
+        } else if (BookEntry.METHOD_BULK_INSERT.equals(method)) {
+            BookTrace.beginSection(BookTrace.PROVIDER_BULK_INSERT);
+            try {
+                result = insertBooks(extras);
+            } finally {
+                BookTrace.endSection();
+            }
+            rows = result.getInt(BookEntry.EXTRA_ROWS_INSERTED);
+        } else if (BookEntry.METHOD_WARM_UP.equals(method)) {
+            // Opening runs the schema check and the migrations, then compacts the journal
+            mDbHelper.getWritableDatabase();
+            mStatements.compileAll();
+            result = null;
+            rows = 0;
+        } else if (BookEntry.METHOD_CHECKPOINT.equals(method)) {
+            result = new Bundle();
+            result.putInt(BookEntry.EXTRA_CHECKPOINTED_FRAMES,
+                    mDbHelper.checkpoint(BookEntry.CHECKPOINT_RESTART.equals(arg)));
+            rows = 0;
+        } else if (BookEntry.METHOD_SET_NOTIFY_WINDOW.equals(method)) {
+            long windowMs;
+            try {
+                windowMs = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Notify window requires a WINDOW");
+            }
+            result = new Bundle();
+            result.putLong(BookEntry.EXTRA_NOTIFY_WINDOW_MS, mNotifier.setWindowMs(windowMs));
+            rows = 0;
+        } else if (ChangeEntry.METHOD_COMPACT_CHANGES.equals(method)) {
+            long sequence;
+            try {
+                sequence = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Compaction requires a SEQUENCE");
+            }
+            result = new Bundle();
+            result.putInt(ChangeEntry.EXTRA_COMPACTED, mDbHelper.compactChanges(sequence));
+            rows = result.getInt(ChangeEntry.EXTRA_COMPACTED);
+        } else {
+            return super.call(method, arg, extras);
+        }
+        mMetrics.recordCall(method, start, rows);
+        return result;
+    }
+
+    /**
+     * Prints the metrics of the provider, for "adb shell dumpsys activity provider BookProvider".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("BookProvider metrics:");
+        mMetrics.dump(writer);
+    }
+
+    /**
+     * Sells units of a book with a single conditional UPDATE, so concurrent sales can neither
+     * lose a decrement nor take the quantity below zero. The sale is appended to the ledger in
+     * the same transaction, its triggers adding it to the rollups.
+     *
+     * @return Bundle telling whether the units were sold and the quantity left.
+     */
+    private Bundle sellBook(Bundle extras) {
+        long id = extras == null ? -1 : extras.getLong(BookEntry.EXTRA_BOOK_ID, -1);
+        int count = extras == null ? 0 : extras.getInt(BookEntry.EXTRA_COUNT, BookContract.ONE);
+        if (id < 0) {
+            throw new IllegalArgumentException("Sale requires a BOOK ID");
+        }
+        if (count < BookContract.ONE) {
+            throw new IllegalArgumentException("Sale requires a positive COUNT");
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        int quantity = -1;
+        long transaction = beginTransaction(database);
+        try {
+            rowsUpdated = mStatements.sell(id, count);
+            if (rowsUpdated != 0) {
+                long now = System.currentTimeMillis();
+                mStatements.recordSale(id, count, now, TimeZone.getDefault().getOffset(now));
+            }
+            // Read back in the same transaction, so the quantity is the one this sale left
+            Cursor cursor = database.query(BookEntry.TABLE_NAME,
+                    new String[]{BookEntry.COLUMN_BOOK_QUANTITY}, BookEntry._ID + "=?",
+                    new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    quantity = cursor.getInt(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            setTransactionSuccessful(database);
+        } finally {
+            endTransaction(database, transaction);
+        }
+        if (rowsUpdated != 0) {
+            notifyRowChanged(id);
+        }
+        Bundle result = new Bundle();
+        result.putBoolean(BookEntry.EXTRA_SOLD, rowsUpdated != 0);
+        result.putInt(BookEntry.EXTRA_QUANTITY, quantity);
+        return result;
+    }
+
+    /**
+     * Inserts the books of {@link BookEntry#EXTRA_VALUES}.
+     *
+     * @return Bundle of the rows inserted and of the ones rejected with their reasons.
+     */
+    private Bundle insertBooks(Bundle extras) {
+        Parcelable[] parcelables = extras == null ? null
+                : extras.getParcelableArray(BookEntry.EXTRA_VALUES);
+        if (parcelables == null) {
+            throw new IllegalArgumentException("Bulk insert requires VALUES");
+        }
+        // Copied, the array of a bundle read from a parcel is not a ContentValues[]
+        ContentValues[] values = new ContentValues[parcelables.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (ContentValues) parcelables[i];
+        }
+        List<Integer> rejectedRows = new ArrayList<>();
+        ArrayList<String> rejectedReasons = new ArrayList<>();
+        int rowsInserted = insertBooks(BookEntry.CONTENT_URI, values,
+                extras.getStringArray(BookEntry.EXTRA_ROW_KEYS), rejectedRows, rejectedReasons);
+        int[] rows = new int[rejectedRows.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rejectedRows.get(i);
+        }
+        Bundle result = new Bundle();
+        result.putInt(BookEntry.EXTRA_ROWS_INSERTED, rowsInserted);
+        result.putIntArray(BookEntry.EXTRA_REJECTED_ROWS, rows);
+        result.putStringArrayList(BookEntry.EXTRA_REJECTED_REASONS, rejectedReasons);
+        return result;
+    }
+
+    private void beginBatch() {
+        mApplyingBatch.set(true);
+        mBatchHasChanges.set(false);
+        mBatchSuppliersChanged.set(false);
+    }
+
+    /**
+     * Ends the batch of the calling thread, notifying observers once if anything changed.
+     * Nothing is sent when nothing was committed.
+     *
+     * @param committed whether the batch committed any of its writes
+     */
+    private void endBatch(boolean committed) {
+        boolean hasChanges = Boolean.TRUE.equals(mBatchHasChanges.get());
+        boolean suppliersChanged = Boolean.TRUE.equals(mBatchSuppliersChanged.get());
+        mApplyingBatch.set(false);
+        mBatchHasChanges.set(false);
+        mBatchSuppliersChanged.set(false);
+        if (committed && suppliersChanged) {
+            mNotifier.notifySuppliersChanged();
+        }
+        if (committed && hasChanges) {
+            mRowCache.invalidateAll();
+            mNotifier.notifyTableChanged();
+        }
+    }
+
+    /**
+     * Begins a transaction of the provider, timed when it is the outermost one.
+     *
+     * @return the start of the transaction, to pass to {@link #endTransaction}.
+     */
+    private static long beginTransaction(SQLiteDatabase database) {
+        database.beginTransactionNonExclusive();
+        return System.nanoTime();
+    }
+
+    private void endTransaction(SQLiteDatabase database, long start) {
+        database.endTransaction();
+        if (!database.inTransaction()) {
+            mMetrics.recordTransaction(start);
+        }
+    }
+
+    /**
+     * Marks a single row write successful. Outside of a batch, the changes the journal holds
+     * over its limit are first dropped in the same transaction, so they commit with the write.
+     */
+    private void setTransactionSuccessful(SQLiteDatabase database) {
+        if (!Boolean.TRUE.equals(mApplyingBatch.get())) {
+            BookDbHelper.compactChangesIfFull(database);
+        }
+        database.setTransactionSuccessful();
+    }
+
+    /**
+     * Updates the books table, pointing the books at the supplier with the name and phone
+     * given in the values. When only one of them is given, each book keeps the other one of
+     * its current supplier.
+     *
+     * @return number of books updated.
+     */
+    private int updateBooks(SQLiteDatabase database, ContentValues values,
+                            String selection, String[] selectionArgs) {
+        String supplierName = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+        String supplierNo = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO);
+        if (supplierName == null && supplierNo == null) {
+            return database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+        }
+        ContentValues bookValues = new ContentValues(values);
+        bookValues.remove(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+        bookValues.remove(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO);
+        long transaction = beginTransaction(database);
+        try {
+            int rowsUpdated;
+            if (supplierName != null && supplierNo != null) {
+                bookValues.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID,
+                        mStatements.supplierId(supplierName, supplierNo));
+                rowsUpdated = database.update(BookEntry.TABLE_NAME, bookValues, selection,
+                        selectionArgs);
+            } else {
+                rowsUpdated = updateBooksOneByOne(database, bookValues, supplierName, supplierNo,
+                        selection, selectionArgs);
+            }
+            setTransactionSuccessful(database);
+            return rowsUpdated;
+        } finally {
+            endTransaction(database, transaction);
+        }
+    }
+
+    /**
+     * Updates the selected books one at a time, each one with the supplier made of its current
+     * supplier and the given name or phone.
+     */
+    private int updateBooksOneByOne(SQLiteDatabase database, ContentValues bookValues,
+                                    String supplierName, String supplierNo,
+                                    String selection, String[] selectionArgs) {
+        Cursor cursor = database.query(BookEntry.VIEW_NAME, new String[]{BookEntry._ID,
+                        BookEntry.COLUMN_BOOK_SUPPLIER_NAME, BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO},
+                selection, selectionArgs, null, null, null);
+        int rowsUpdated = 0;
+        try {
+            String[] idArgs = new String[1];
+            while (cursor.moveToNext()) {
+                bookValues.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, mStatements.supplierId(
+                        supplierName != null ? supplierName : cursor.getString(1),
+                        supplierNo != null ? supplierNo : cursor.getString(2)));
+                idArgs[0] = cursor.getString(0);
+                rowsUpdated += database.update(BookEntry.TABLE_NAME, bookValues,
+                        BookEntry._ID + "=?", idArgs);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Renames a supplier or changes its phone, for all of its books at once. When another
+     * supplier already has the new name and phone, the books of both end up with that one.
+     *
+     * @return number of suppliers updated.
+     */
+    private int updateSupplier(long id, ContentValues values) {
+        for (String column : values.keySet()) {
+            if (!SupplierEntry.COLUMN_SUPPLIER_NAME.equals(column)
+                    && !SupplierEntry.COLUMN_SUPPLIER_PHONE_NO.equals(column)) {
+                throw new IllegalArgumentException("Supplier has no column " + column);
+            }
+            if (values.getAsString(column) == null) {
+                throw new IllegalArgumentException("Supplier requires a " + column.toUpperCase(Locale.US));
+            }
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] idArgs = new String[]{String.valueOf(id)};
+        int rowsUpdated;
+        long transaction = beginTransaction(database);
+        try {
+            Cursor cursor = database.query(SupplierEntry.TABLE_NAME,
+                    new String[]{SupplierEntry.COLUMN_SUPPLIER_NAME, SupplierEntry.COLUMN_SUPPLIER_PHONE_NO},
+                    SupplierEntry._ID + "=?", idArgs, null, null, null);
+            String name;
+            String phone;
+            try {
+                if (!cursor.moveToFirst()) {
+                    // Nothing to update, which must not fail a batch around this call
+                    database.setTransactionSuccessful();
+                    return 0;
+                }
+                name = values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                        ? values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) : cursor.getString(0);
+                phone = values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE_NO)
+                        ? values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NO) : cursor.getString(1);
+            } finally {
+                cursor.close();
+            }
+            long existingId = mStatements.findSupplierId(name, phone);
+            if (existingId == -1 || existingId == id) {
+                rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values,
+                        SupplierEntry._ID + "=?", idArgs);
+            } else {
+                // Merge into the existing supplier, the cleanup trigger deletes this one
+                ContentValues moved = new ContentValues();
+                moved.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, existingId);
+                database.update(BookEntry.TABLE_NAME, moved,
+                        BookEntry.COLUMN_BOOK_SUPPLIER_ID + "=?", idArgs);
+                rowsUpdated = 1;
+            }
+            setTransactionSuccessful(database);
+        } finally {
+            endTransaction(database, transaction);
+        }
+        if (rowsUpdated != 0) {
+            notifySuppliersChanged();
+            // Every book of the supplier changed
+            notifyTableChanged();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Keeps a tombstone for each of the selected books known to the server, so the sync
+     * adapter uploads their deletion. To be called in the transaction deleting them.
+     */
+    private static void keepTombstones(SQLiteDatabase database, String selection,
+                                       String[] selectionArgs) {
+        String sql = "INSERT OR REPLACE INTO " + TombstoneEntry.TABLE_NAME + " ("
+                + TombstoneEntry.COLUMN_SYNC_ID + ", " + TombstoneEntry.COLUMN_VERSION + ") SELECT "
+                + BookEntry.COLUMN_BOOK_SYNC_ID + ", " + BookEntry.COLUMN_BOOK_VERSION + " FROM "
+                + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_BOOK_VERSION + " > 0";
+        if (TextUtils.isEmpty(selection)) {
+            database.execSQL(sql);
+        } else if (selectionArgs == null) {
+            database.execSQL(sql + " AND (" + selection + ")");
+        } else {
+            database.execSQL(sql + " AND (" + selection + ")", selectionArgs);
+        }
+    }
+
+    private static boolean isSyncAdapter(Uri uri) {
+        return uri.getBooleanQueryParameter(BookContract.CALLER_IS_SYNCADAPTER, false);
+    }
+
+    /**
+     * Rejects the sync columns in values written by anyone but the sync adapter.
+     */
+    private static void checkSyncColumns(Uri uri, ContentValues values) {
+        if (isSyncAdapter(uri)) {
+            return;
+        }
+        for (String column : new String[]{BookEntry.COLUMN_BOOK_SYNC_ID,
+                BookEntry.COLUMN_BOOK_VERSION, BookEntry.COLUMN_BOOK_DIRTY}) {
+            if (values.containsKey(column)) {
+                throw new IllegalArgumentException("Only the sync adapter writes the "
+                        + column.toUpperCase(Locale.US));
+            }
+        }
+    }
+
+    /**
+     * @return the table or view to read books from, the view only when the supplier name or
+     * phone is used by the query.
+     */
+    private static String bookSource(String[] projection, String... clauses) {
+        if (projection == null) {
+            return BookEntry.VIEW_NAME;
+        }
+        for (String column : projection) {
+            if (mentionsSupplier(column)) {
+                return BookEntry.VIEW_NAME;
+            }
+        }
+        for (String clause : clauses) {
+            if (mentionsSupplier(clause)) {
+                return BookEntry.VIEW_NAME;
+            }
+        }
+        return BookEntry.TABLE_NAME;
+    }
+
+    /**
+     * @return the selection for a write to the books table. Selections on the supplier name
+     * or phone select the ids of the books through the view.
+     */
+    private static String onBooksTable(String selection) {
+        if (!mentionsSupplier(selection)) {
+            return selection;
+        }
+        return BookEntry._ID + " IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    private static boolean mentionsSupplier(String sql) {
+        return sql != null && (sql.contains(BookEntry.COLUMN_BOOK_SUPPLIER_NAME)
+                || sql.contains(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO));
+    }
+
+    /**
+     * Notifies observers of a change to the given book, or defers it to the end of the batch.
+     */
+    private void notifyRowChanged(long id) {
+        if (Boolean.TRUE.equals(mApplyingBatch.get())) {
+            mBatchHasChanges.set(true);
+            return;
+        }
+        mRowCache.invalidate(id);
+        mNotifier.notifyRowChanged(id);
+    }
+
+    /**
+     * Notifies observers of a change to any number of books, or defers it to the end of the batch.
+     */
+    private void notifyTableChanged() {
+        if (Boolean.TRUE.equals(mApplyingBatch.get())) {
+            mBatchHasChanges.set(true);
+            return;
+        }
+        mRowCache.invalidateAll();
+        mNotifier.notifyTableChanged();
+    }
+
+    /**
+     * Notifies observers of a change to the suppliers, or defers it to the end of the batch.
+     */
+    private void notifySuppliersChanged() {
+        if (Boolean.TRUE.equals(mApplyingBatch.get())) {
+            mBatchSuppliersChanged.set(true);
+            return;
+        }
+        mNotifier.notifySuppliersChanged();
+    }
+
+    /**
+     * @return the sync id of the book inserted for the row key of a bulk insert.
+     */
+    private static String syncIdForKey(String rowKey) {
+        if (rowKey == null) {
+            throw new IllegalArgumentException("Bulk insert requires a ROW KEY for every row");
+        }
+        return UUID.nameUUIDFromBytes(rowKey.getBytes(Charset.forName("UTF-8"))).toString();
+    }
+
+    private static boolean hasSyncId(SQLiteDatabase database, String syncId) {
+        return DatabaseUtils.queryNumEntries(database, BookEntry.TABLE_NAME,
+                BookEntry.COLUMN_BOOK_SYNC_ID + " = ?", new String[]{syncId}) > 0;
+    }
+
+    /**
+     * @param syncId sync id of the new book, null for a random one
+     */
+    private Uri insertBook(Uri uri, ContentValues values, String syncId) {
+        checkSyncColumns(uri, values);
         String name = values.getAsString(BookEntry.COLUMN_BOOK_NAME);
         if (name == null) {
             throw new IllegalArgumentException("Book requires a NAME");
@@ -180,21 +1584,57 @@ public class BookProvider extends ContentProvider {
         if (supplierNo == null) {
             throw new IllegalArgumentException("Book requires a SUPPLIER PHONE NO");
         }
+        String supplierName = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+        if (supplierName == null) {
+            throw new IllegalArgumentException("Book requires a SUPPLIER NAME");
+        }
         // Get Writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        // Insert the new pet with the given values
-        long id = database.insert(BookEntry.TABLE_NAME, null, values);
+        long id;
+        // In one transaction with the insert, so the supplier cannot be cleaned up in between.
+        // Always successful, a failed insert must not roll back the bulkInsert() around it,
+        // and the supplier it may leave behind is reused by the next book of that supplier.
+        long transaction = beginTransaction(database);
+        try {
+            long supplierId = mStatements.supplierId(supplierName, supplierNo);
+            if (BookStatements.isFullInsert(values)) {
+                // Insert through the compiled statement, failing like SQLiteDatabase.insert() does
+                try {
+                    id = mStatements.insert(values, supplierId,
+                            syncId != null ? syncId : UUID.randomUUID().toString());
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Error inserting " + values, e);
+                    id = -1;
+                }
+            } else {
+                // Insert the new pet with the given values
+                ContentValues bookValues = new ContentValues(values);
+                bookValues.remove(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+                bookValues.remove(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO);
+                bookValues.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+                if (syncId != null) {
+                    bookValues.put(BookEntry.COLUMN_BOOK_SYNC_ID, syncId);
+                } else if (!bookValues.containsKey(BookEntry.COLUMN_BOOK_SYNC_ID)) {
+                    bookValues.put(BookEntry.COLUMN_BOOK_SYNC_ID, UUID.randomUUID().toString());
+                }
+                id = database.insert(BookEntry.TABLE_NAME, null, bookValues);
+            }
+            setTransactionSuccessful(database);
+        } finally {
+            endTransaction(database, transaction);
+        }
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyRowChanged(id);
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
     private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        checkSyncColumns(uri, values);
 
         if (values.containsKey(BookEntry.COLUMN_BOOK_NAME)) {
             String name = values.getAsString(BookEntry.COLUMN_BOOK_NAME);
@@ -221,16 +1661,34 @@ public class BookProvider extends ContentProvider {
                 throw new IllegalArgumentException("Book requires a PHONE NO.");
             }
         }
+        if (values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_NAME)) {
+            String name = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Book requires a SUPPLIER NAME");
+            }
+        }
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
         }
-        // Otherwise, get Writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        // Returns the number of database rows affected by the update statement
-        int rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        boolean singleBook = sUriMatcher.match(uri) == BOOK_ID;
+        if (singleBook && BookStatements.isQuantityUpdate(values)) {
+            // An edit of the quantity alone, through the compiled statement
+            rowsUpdated = mStatements.updateQuantity(ContentUris.parseId(uri),
+                    values.get(BookEntry.COLUMN_BOOK_QUANTITY));
+        } else {
+            // Otherwise, get Writable database to update the data
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            // Returns the number of database rows affected by the update statement
+            rowsUpdated = updateBooks(database, values, onBooksTable(selection), selectionArgs);
+        }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (singleBook) {
+                notifyRowChanged(ContentUris.parseId(uri));
+            } else {
+                notifyTableChanged();
+            }
         }
         return rowsUpdated;
     }
@@ -0,0 +1,212 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+/**
+ * Least recently used cache of single books, keyed by their {@link BookEntry#_ID}.
+ * Serves the books/# queries of {@link BookProvider} as cursors without going to SQLite.
+ * <p>
+ * Every write invalidates the books it changed once it is committed. Each invalidation moves
+ * the cache to a new generation, and a row read before that is not cached, so a query racing
+ * with a write never puts back the row the write replaced.
+ */
+class BookRowCache {
+
+    /**
+     * Columns of a cached row, in the order they are stored.
+     */
+    static final String[] ROW_COLUMNS = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
+
+    /**
+     * Share of the heap of the app, as given by its memory class, the cache may hold
+     */
+    private static final int HEAP_FRACTION = 64;
+
+    // Rough cost in bytes of a row and of each of its values, on top of the chars of the texts
+    private static final int ROW_OVERHEAD_BYTES = 64;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+
+    private final LruCache<Long, Object[]> mRows;
+
+    /**
+     * Incremented by every invalidation, guarded by this
+     */
+    private long mGeneration;
+
+    /**
+     * Rows dropped by {@link #invalidateAll}, which LruCache counts as evictions too
+     */
+    private int mClearedCount;
+
+    BookRowCache(Context context) {
+        this(maxSizeFor(context));
+    }
+
+    BookRowCache(int maxSizeBytes) {
+        mRows = new LruCache<Long, Object[]>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(Long id, Object[] row) {
+                int size = ROW_OVERHEAD_BYTES;
+                for (Object value : row) {
+                    size += VALUE_OVERHEAD_BYTES;
+                    if (value instanceof String) {
+                        size += 2 * ((String) value).length();
+                    } else if (value instanceof byte[]) {
+                        size += ((byte[]) value).length;
+                    }
+                }
+                return size;
+            }
+        };
+    }
+
+    private static int maxSizeFor(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        // The memory class is the heap size in megabytes, lower on low memory devices
+        return activityManager.getMemoryClass() * 1024 * 1024 / HEAP_FRACTION;
+    }
+
+    /**
+     * @return true when every column of the projection is a column of the cached rows.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put}, read before querying the row.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return a cursor over the cached book with the given columns, or null on a miss.
+     */
+    Cursor get(long id, String[] projection) {
+        Object[] row = mRows.get(id);
+        return row == null ? null : toCursor(row, projection);
+    }
+
+    /**
+     * Caches the row unless the cache was invalidated since the given generation.
+     */
+    synchronized void put(long generation, Object[] row) {
+        if (generation == mGeneration) {
+            mRows.put((Long) row[0], row);
+        }
+    }
+
+    /**
+     * @return the values of the book the cursor is on, read with {@link #ROW_COLUMNS}.
+     */
+    static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[ROW_COLUMNS.length];
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+                    break;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Drops the given book, to be called once the write changing it is committed.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Drops all books, to be called once a write changing an unknown set of books is committed.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        int evicted = mRows.evictionCount();
+        mRows.evictAll();
+        mClearedCount += mRows.evictionCount() - evicted;
+    }
+
+    int hitCount() {
+        return mRows.hitCount();
+    }
+
+    int missCount() {
+        return mRows.missCount();
+    }
+
+    /**
+     * @return number of rows dropped to make room for others.
+     */
+    synchronized int evictionCount() {
+        return mRows.evictionCount() - mClearedCount;
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    int maxSize() {
+        return mRows.maxSize();
+    }
+
+    /**
+     * @return a cursor over the row with the given columns, all of them when null.
+     */
+    static MatrixCursor toCursor(Object[] row, String[] projection) {
+        if (projection == null) {
+            projection = ROW_COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            values[i] = row[indexOf(projection[i])];
+        }
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < ROW_COLUMNS.length; i++) {
+            if (ROW_COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,350 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SaleEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SupplierEntry;
+
+/**
+ * Compiled statements of the most frequent writes of {@link BookProvider}.
+ * Each statement is compiled the first time it is needed and then reused, its arguments bound
+ * straight from the values, instead of building and compiling the SQL of every write again.
+ * A statement holds its bindings between bind and execute, so every use of one is
+ * synchronized on it.
+ */
+class BookStatements {
+
+    /**
+     * Columns of the values of {@link #insert}, the first ones in the order of its arguments.
+     * The supplier name and phone are stored as the id of their supplier.
+     */
+    private static final String[] INSERT_COLUMNS = {BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
+    private static final int INSERT_BOUND_COLUMNS = 3;
+
+    private static final String SQL_INSERT = "INSERT INTO " + BookEntry.TABLE_NAME + " ("
+            + BookEntry.COLUMN_BOOK_NAME + ", " + BookEntry.COLUMN_BOOK_PRICE + ", "
+            + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ", "
+            + BookEntry.COLUMN_BOOK_SYNC_ID + ") VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID + " FROM "
+            + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ? AND "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + " = ?";
+
+    private static final String SQL_INSERT_SUPPLIER = "INSERT OR IGNORE INTO "
+            + SupplierEntry.TABLE_NAME + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NO + ") VALUES (?, ?)";
+
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = ? WHERE " + BookEntry._ID + " = ?";
+
+    private static final String SQL_DELETE = "DELETE FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry._ID + " = ?";
+
+    /**
+     * Sells units of a book only when enough of them are left, so the quantity never goes
+     * below zero whatever the order of concurrent sales.
+     */
+    private static final String SQL_SELL = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = " + BookEntry.COLUMN_BOOK_QUANTITY + " - ?"
+            + " WHERE " + BookEntry._ID + " = ? AND " + BookEntry.COLUMN_BOOK_QUANTITY + " >= ?";
+
+    /**
+     * Appends a sale to the ledger at the current price of the book.
+     */
+    private static final String SQL_RECORD_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_BOOK_ID + ", " + SaleEntry.COLUMN_UNITS + ", "
+            + SaleEntry.COLUMN_PRICE + ", " + SaleEntry.COLUMN_SOLD_AT + ", "
+            + SaleEntry.COLUMN_UTC_OFFSET + ") SELECT " + BookEntry._ID + ", ?, "
+            + BookEntry.COLUMN_BOOK_PRICE + ", ?, ? FROM "
+            + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " = ?";
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    // Compiled on first use, the database is not opened before the first write
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdateQuantity;
+    private SQLiteStatement mDelete;
+    private SQLiteStatement mSell;
+    private SQLiteStatement mRecordSale;
+    private SQLiteStatement mFindSupplier;
+    private SQLiteStatement mInsertSupplier;
+
+    BookStatements(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * @return true when {@link #insert} can write the values, i.e. they hold the columns of a
+     * new book and no other one. The quantity may be left out, its default is 0.
+     */
+    static boolean isFullInsert(ContentValues values) {
+        int size = values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)
+                ? INSERT_COLUMNS.length : INSERT_COLUMNS.length - 1;
+        if (values.size() != size) {
+            return false;
+        }
+        for (String column : INSERT_COLUMNS) {
+            if (!values.containsKey(column) && !BookEntry.COLUMN_BOOK_QUANTITY.equals(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true when the values only set the quantity, written by {@link #updateQuantity}.
+     */
+    static boolean isQuantityUpdate(ContentValues values) {
+        return values.size() == 1 && values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY);
+    }
+
+    /**
+     * Inserts a book from values accepted by {@link #isFullInsert}, with the supplier
+     * returned by {@link #supplierId} for its supplier name and phone.
+     *
+     * @return the id of the new book.
+     */
+    long insert(ContentValues values, long supplierId, String syncId) {
+        SQLiteStatement insert;
+        synchronized (this) {
+            if (mInsert == null) {
+                mInsert = compile(SQL_INSERT);
+            }
+            insert = mInsert;
+        }
+        synchronized (insert) {
+            try {
+                for (int i = 0; i < INSERT_BOUND_COLUMNS; i++) {
+                    Object value = values.get(INSERT_COLUMNS[i]);
+                    if (value == null && BookEntry.COLUMN_BOOK_QUANTITY.equals(INSERT_COLUMNS[i])) {
+                        value = 0L;
+                    }
+                    bind(insert, i + 1, value);
+                }
+                insert.bindLong(INSERT_BOUND_COLUMNS + 1, supplierId);
+                insert.bindString(INSERT_BOUND_COLUMNS + 2, syncId);
+                return insert.executeInsert();
+            } finally {
+                insert.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Sets the quantity of the given book.
+     *
+     * @return number of rows updated, 0 when the book does not exist.
+     */
+    int updateQuantity(long id, Object quantity) {
+        SQLiteStatement update;
+        synchronized (this) {
+            if (mUpdateQuantity == null) {
+                mUpdateQuantity = compile(SQL_UPDATE_QUANTITY);
+            }
+            update = mUpdateQuantity;
+        }
+        synchronized (update) {
+            try {
+                bind(update, 1, quantity);
+                update.bindLong(2, id);
+                return update.executeUpdateDelete();
+            } finally {
+                update.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Deletes the given book.
+     *
+     * @return number of rows deleted, 0 when the book does not exist.
+     */
+    int delete(long id) {
+        SQLiteStatement delete;
+        synchronized (this) {
+            if (mDelete == null) {
+                mDelete = compile(SQL_DELETE);
+            }
+            delete = mDelete;
+        }
+        synchronized (delete) {
+            try {
+                delete.bindLong(1, id);
+                return delete.executeUpdateDelete();
+            } finally {
+                delete.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Sells count units of the given book if at least that many are left.
+     *
+     * @return number of rows updated, 0 when the stock is too low or the book does not exist.
+     */
+    int sell(long id, int count) {
+        SQLiteStatement sell;
+        synchronized (this) {
+            if (mSell == null) {
+                mSell = compile(SQL_SELL);
+            }
+            sell = mSell;
+        }
+        synchronized (sell) {
+            try {
+                sell.bindLong(1, count);
+                sell.bindLong(2, id);
+                sell.bindLong(3, count);
+                return sell.executeUpdateDelete();
+            } finally {
+                sell.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Records the sale of count units of the given book, to be called in the transaction of
+     * {@link #sell}.
+     *
+     * @param utcOffset offset of the local zone at soldAt, which the rollups bucket by
+     * @return the id of the sale, -1 when the book does not exist.
+     */
+    long recordSale(long id, int count, long soldAt, int utcOffset) {
+        SQLiteStatement record;
+        synchronized (this) {
+            if (mRecordSale == null) {
+                mRecordSale = compile(SQL_RECORD_SALE);
+            }
+            record = mRecordSale;
+        }
+        synchronized (record) {
+            try {
+                record.bindLong(1, count);
+                record.bindLong(2, soldAt);
+                record.bindLong(3, utcOffset);
+                record.bindLong(4, id);
+                return record.executeInsert();
+            } finally {
+                record.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * @return the id of the supplier with the given name and phone, or -1 when there is none.
+     */
+    long findSupplierId(String name, String phone) {
+        SQLiteStatement find;
+        synchronized (this) {
+            if (mFindSupplier == null) {
+                mFindSupplier = compile(SQL_FIND_SUPPLIER);
+            }
+            find = mFindSupplier;
+        }
+        synchronized (find) {
+            try {
+                find.bindString(1, name);
+                find.bindString(2, phone);
+                return find.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            } finally {
+                find.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Finds the supplier with the given name and phone, adding it when there is none.
+     * To be called in the transaction writing the book, so the supplier is not deleted as an
+     * orphan before the book refers to it.
+     *
+     * @return the id of the supplier.
+     */
+    long supplierId(String name, String phone) {
+        long id = findSupplierId(name, phone);
+        if (id != -1) {
+            return id;
+        }
+        SQLiteStatement insert;
+        synchronized (this) {
+            if (mInsertSupplier == null) {
+                mInsertSupplier = compile(SQL_INSERT_SUPPLIER);
+            }
+            insert = mInsertSupplier;
+        }
+        synchronized (insert) {
+            try {
+                insert.bindString(1, name);
+                insert.bindString(2, phone);
+                id = insert.executeInsert();
+            } finally {
+                insert.clearBindings();
+            }
+        }
+        // Ignored when another thread added the same supplier first
+        return id != -1 ? id : findSupplierId(name, phone);
+    }
+
+    /**
+     * Compiles the statements not compiled yet, ahead of their first use.
+     */
+    synchronized void compileAll() {
+        if (mInsert == null) {
+            mInsert = compile(SQL_INSERT);
+        }
+        if (mUpdateQuantity == null) {
+            mUpdateQuantity = compile(SQL_UPDATE_QUANTITY);
+        }
+        if (mDelete == null) {
+            mDelete = compile(SQL_DELETE);
+        }
+        if (mSell == null) {
+            mSell = compile(SQL_SELL);
+        }
+        if (mRecordSale == null) {
+            mRecordSale = compile(SQL_RECORD_SALE);
+        }
+        if (mFindSupplier == null) {
+            mFindSupplier = compile(SQL_FIND_SUPPLIER);
+        }
+        if (mInsertSupplier == null) {
+            mInsertSupplier = compile(SQL_INSERT_SUPPLIER);
+        }
+    }
+
+    private SQLiteStatement compile(String sql) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        return database.compileStatement(sql);
+    }
+
+    /**
+     * Binds a value the way {@link SQLiteDatabase#insert} would, numbers as numbers and
+     * anything else as text, leaving the conversion to the column affinity.
+     */
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SupplierEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debounces the change notifications of {@link BookProvider}.
+ * Changes reported within the window are merged into a single notification sent once the
+ * window is over. A change of one book is sent on the uri of that book, a change of a few books
+ * on {@link BookEntry#CONTENT_URI} with their ids in {@link BookEntry#QUERY_PARAM_CHANGED_IDS},
+ * and anything bigger or without known ids on {@link BookEntry#CONTENT_URI} alone.
+ * A change of the suppliers is sent on {@link SupplierEntry#CONTENT_URI}.
+ */
+class ChangeNotifier {
+
+    /**
+     * Above this number of changed books, the ids are left out of the notification
+     */
+    private static final int MAX_NOTIFIED_IDS = 50;
+
+    private final ContentResolver mResolver;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private volatile long mWindowMs;
+
+    // Changes waiting for the end of the window, guarded by mLock
+    private final Object mLock = new Object();
+    private final Set<Long> mChangedIds = new HashSet<>();
+    private boolean mTableChanged;
+    private boolean mSuppliersChanged;
+    private boolean mScheduled;
+
+    // Counters of changes reported and of notifications actually sent
+    private final AtomicLong mRequestedCount = new AtomicLong();
+    private final AtomicLong mSentCount = new AtomicLong();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver resolver, long windowMs) {
+        mResolver = resolver;
+        mWindowMs = windowMs;
+        mThread = new HandlerThread(ChangeNotifier.class.getSimpleName(),
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Sets how long changes are collected before being notified, 0 notifies right away.
+     * Changes already waiting keep the window they were reported in.
+     *
+     * @return the window replaced.
+     */
+    long setWindowMs(long windowMs) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Notify window cannot be negative");
+        }
+        long previous = mWindowMs;
+        mWindowMs = windowMs;
+        return previous;
+    }
+
+    /**
+     * Sends the changes waiting for the end of the window, then stops the thread of the
+     * notifier. Changes reported afterwards are never sent.
+     */
+    void quit() {
+        mHandler.removeCallbacks(mFlush);
+        flush();
+        mThread.quit();
+    }
+
+    /**
+     * Reports a change of the book with the given id.
+     */
+    void notifyRowChanged(long id) {
+        mRequestedCount.incrementAndGet();
+        synchronized (mLock) {
+            mChangedIds.add(id);
+            schedule();
+        }
+    }
+
+    /**
+     * Reports a change of an unknown set of books.
+     */
+    void notifyTableChanged() {
+        mRequestedCount.incrementAndGet();
+        synchronized (mLock) {
+            mTableChanged = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Reports a change of the suppliers.
+     */
+    void notifySuppliersChanged() {
+        mRequestedCount.incrementAndGet();
+        synchronized (mLock) {
+            mSuppliersChanged = true;
+            schedule();
+        }
+    }
+
+    long getRequestedCount() {
+        return mRequestedCount.get();
+    }
+
+    long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * @return number of reported changes merged into another notification.
+     */
+    long getSuppressedCount() {
+        return mRequestedCount.get() - mSentCount.get();
+    }
+
+    private void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mFlush, mWindowMs);
+        }
+    }
+
+    private void flush() {
+        Uri uri;
+        boolean suppliersChanged;
+        synchronized (mLock) {
+            mScheduled = false;
+            suppliersChanged = mSuppliersChanged;
+            mSuppliersChanged = false;
+            if (mTableChanged || mChangedIds.size() > MAX_NOTIFIED_IDS) {
+                uri = BookEntry.CONTENT_URI;
+            } else if (mChangedIds.size() == 1) {
+                uri = ContentUris.withAppendedId(BookEntry.CONTENT_URI,
+                        mChangedIds.iterator().next());
+            } else if (!mChangedIds.isEmpty()) {
+                uri = BookEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(BookEntry.QUERY_PARAM_CHANGED_IDS,
+                                TextUtils.join(",", mChangedIds))
+                        .build();
+            } else {
+                uri = null;
+            }
+            mTableChanged = false;
+            mChangedIds.clear();
+        }
+        if (suppliersChanged) {
+            mSentCount.incrementAndGet();
+            mResolver.notifyChange(SupplierEntry.CONTENT_URI, null);
+        }
+        if (uri != null) {
+            mSentCount.incrementAndGet();
+            mResolver.notifyChange(uri, null);
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cursor of a book list reading its rows in chunks of {@link #CHUNK_SIZE} the first time
+ * they are moved to, instead of filling windows with the whole result up front. Its count is
+ * given up front, and only the first chunk and the chunks around the position are kept, at
+ * most {@link #MAX_CHUNKS} of them, so opening and scrolling the list costs the same whatever
+ * the number of books. Moving close to the end of a chunk reads the next one in the direction
+ * of the moves on a background thread.
+ * A chunk following one already read starts with a seek past the sort key of its last row,
+ * like the keyset pages, any other one with an OFFSET. Chunks are read as they are needed, so
+ * a change committed in between may show in one chunk and not in the other; the change
+ * notification of the cursor then has its loader query again.
+ * Moves wait for the chunk to be read, unless {@link BookEntry#EXTRA_NON_BLOCKING} was
+ * requested through {@link #respond}.
+ */
+class ChunkedBookCursor extends AbstractCursor {
+
+    private static final String LOG_TAG = ChunkedBookCursor.class.getSimpleName();
+
+    static final int CHUNK_SIZE = 200;
+
+    /**
+     * Chunks kept besides the first one, the ones farthest from the position are dropped first
+     */
+    static final int MAX_CHUNKS = 6;
+
+    /**
+     * Rows from the end of a chunk from which the following one is read ahead
+     */
+    private static final int PREFETCH_DISTANCE = 50;
+
+    private static final ExecutorService sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String[] mColumns;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mOrderBy;
+    private final int mCount;
+
+    /**
+     * Columns read, the projection followed by the sort columns missing from it
+     */
+    private final String[] mQueryColumns;
+    /**
+     * Indices of the sort columns in {@link #mQueryColumns}, in order
+     */
+    private final int[] mSortIndices;
+    /**
+     * Selection of the rows after a sort key, arguments appended in {@link #afterKeyArgs}
+     */
+    private final String mAfterKeySelection;
+
+    // Guarded by mChunks, along with mLoading, mLastKeys, mShownUnread and mClosed
+    private final SparseArray<Object[][]> mChunks = new SparseArray<>();
+    private final SparseBooleanArray mLoading = new SparseBooleanArray();
+    /**
+     * Sort key of the last row of each chunk read, kept after its rows are dropped
+     */
+    private final SparseArray<Object[]> mLastKeys = new SparseArray<>();
+    /**
+     * Chunks a row of which was moved to before they were read, notified once read
+     */
+    private final SparseBooleanArray mShownUnread = new SparseBooleanArray();
+    private boolean mClosed;
+
+    private volatile boolean mNonBlocking;
+
+    private Object[] mRow;
+
+    /**
+     * Row of a position not read yet, null in every column
+     */
+    private final Object[] mUnreadRow;
+
+    /**
+     * @param columns   columns of the cursor, of the table
+     * @param selection selection of the rows, may be null
+     * @param orderBy   order of the rows, columns ending with a unique one, each ASC or DESC
+     * @param count     number of rows selected
+     */
+    ChunkedBookCursor(SQLiteDatabase db, String table, String[] columns, String selection,
+                      String[] selectionArgs, String orderBy, int count) {
+        mDb = db;
+        mTable = table;
+        mColumns = columns;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mOrderBy = orderBy;
+        mCount = count;
+
+        String[] sortColumns = orderBy.split(",");
+        boolean[] descending = new boolean[sortColumns.length];
+        List<String> queryColumns = new ArrayList<>(Arrays.asList(columns));
+        mSortIndices = new int[sortColumns.length];
+        for (int i = 0; i < sortColumns.length; i++) {
+            String[] term = sortColumns[i].trim().split(" ");
+            sortColumns[i] = term[0];
+            descending[i] = term.length > 1 && "DESC".equalsIgnoreCase(term[1]);
+            int index = queryColumns.indexOf(sortColumns[i]);
+            if (index < 0) {
+                index = queryColumns.size();
+                queryColumns.add(sortColumns[i]);
+            }
+            mSortIndices[i] = index;
+        }
+        mQueryColumns = queryColumns.toArray(new String[queryColumns.size()]);
+        mUnreadRow = new Object[mQueryColumns.length];
+        mAfterKeySelection = afterKeySelection(sortColumns, descending);
+    }
+
+    /**
+     * @return the selection of the rows after a sort key, with a bound alone on the first
+     * column so the planner seeks its index to it.
+     */
+    private static String afterKeySelection(String[] sortColumns, boolean[] descending) {
+        int last = sortColumns.length - 1;
+        StringBuilder selection = new StringBuilder();
+        if (last > 0) {
+            selection.append(sortColumns[0]).append(descending[0] ? " <= ? AND " : " >= ? AND ");
+        }
+        for (int i = 0; i < last; i++) {
+            selection.append('(').append(sortColumns[i]).append(descending[i] ? " < ?" : " > ?")
+                    .append(" OR (").append(sortColumns[i]).append(" = ? AND ");
+        }
+        selection.append(sortColumns[last]).append(descending[last] ? " < ?" : " > ?");
+        for (int i = 0; i < last; i++) {
+            selection.append("))");
+        }
+        return selection.toString();
+    }
+
+    private String[] afterKeyArgs(Object[] key) {
+        int last = key.length - 1;
+        List<String> args = new ArrayList<>();
+        if (last > 0) {
+            args.add(String.valueOf(key[0]));
+        }
+        for (int i = 0; i < last; i++) {
+            args.add(String.valueOf(key[i]));
+            args.add(String.valueOf(key[i]));
+        }
+        args.add(String.valueOf(key[last]));
+        return args.toArray(new String[args.size()]);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        if (extras.getBoolean(BookEntry.EXTRA_NON_BLOCKING)) {
+            mNonBlocking = true;
+        }
+        return Bundle.EMPTY;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int index = newPosition / CHUNK_SIZE;
+        int offset = newPosition % CHUNK_SIZE;
+        Object[][] rows;
+        if (mNonBlocking) {
+            rows = readChunk(index);
+            if (rows == null) {
+                prefetch(index);
+            }
+        } else {
+            rows = chunk(index);
+        }
+        synchronized (mChunks) {
+            if (mClosed) {
+                mRow = null;
+                return false;
+            }
+        }
+        // Fewer rows than counted when some were deleted since, those show like rows not read
+        mRow = rows != null && offset < rows.length ? rows[offset] : mUnreadRow;
+
+        if (newPosition > oldPosition && offset >= CHUNK_SIZE - PREFETCH_DISTANCE) {
+            prefetch(index + 1);
+        } else if (newPosition < oldPosition && offset < PREFETCH_DISTANCE) {
+            prefetch(index - 1);
+        }
+        dropFarChunks(index);
+        return true;
+    }
+
+    /**
+     * @return the rows of the chunk if they were read, without waiting for them. Otherwise the
+     * observers of the cursor are notified once they are.
+     */
+    private Object[][] readChunk(int index) {
+        synchronized (mChunks) {
+            Object[][] rows = mChunks.get(index);
+            if (rows == null) {
+                mShownUnread.put(index, true);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * @return the rows of the chunk, read now unless they are already, null once closed.
+     */
+    private Object[][] chunk(int index) {
+        boolean interrupted = false;
+        synchronized (mChunks) {
+            while (true) {
+                if (mClosed) {
+                    return null;
+                }
+                Object[][] rows = mChunks.get(index);
+                if (rows != null) {
+                    return rows;
+                }
+                if (!mLoading.get(index)) {
+                    mLoading.put(index, true);
+                    break;
+                }
+                // Being read ahead by the background thread
+                try {
+                    mChunks.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Object[][] rows = null;
+        boolean shownUnread = false;
+        try {
+            rows = read(index);
+            return rows;
+        } finally {
+            synchronized (mChunks) {
+                mLoading.delete(index);
+                if (rows != null && !mClosed) {
+                    mChunks.put(index, rows);
+                    if (rows.length > 0) {
+                        mLastKeys.put(index, sortKey(rows[rows.length - 1]));
+                    }
+                    shownUnread = mShownUnread.get(index);
+                    mShownUnread.delete(index);
+                }
+                mChunks.notifyAll();
+            }
+            if (shownUnread) {
+                mDataSetObservable.notifyChanged();
+            }
+        }
+    }
+
+    private void prefetch(final int index) {
+        if (index < 0 || index * CHUNK_SIZE >= mCount) {
+            return;
+        }
+        synchronized (mChunks) {
+            if (mChunks.get(index) != null || mLoading.get(index)) {
+                return;
+            }
+        }
+        sPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    chunk(index);
+                } catch (RuntimeException e) {
+                    // Read again when moved to
+                    Log.w(LOG_TAG, "Prefetch of chunk " + index + " failed", e);
+                }
+            }
+        });
+    }
+
+    private void dropFarChunks(int index) {
+        synchronized (mChunks) {
+            // The first chunk is kept, the list opens at it and the first screen is saved from it
+            int kept = mChunks.get(0) != null ? MAX_CHUNKS + 1 : MAX_CHUNKS;
+            while (mChunks.size() > kept) {
+                int farthest = -1;
+                for (int i = 0; i < mChunks.size(); i++) {
+                    int key = mChunks.keyAt(i);
+                    if (key != 0 && (farthest < 0
+                            || Math.abs(key - index) > Math.abs(mChunks.keyAt(farthest) - index))) {
+                        farthest = i;
+                    }
+                }
+                mChunks.removeAt(farthest);
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of the chunk, after the last row of the previous chunk when it was read.
+     */
+    private Object[][] read(int index) {
+        Object[] afterKey;
+        synchronized (mChunks) {
+            afterKey = mLastKeys.get(index - 1);
+        }
+        String selection = mSelection;
+        String[] selectionArgs = mSelectionArgs;
+        String limit = String.valueOf(CHUNK_SIZE);
+        if (afterKey != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, mAfterKeySelection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    afterKeyArgs(afterKey));
+        } else if (index > 0) {
+            limit = index * CHUNK_SIZE + "," + CHUNK_SIZE;
+        }
+        Cursor cursor = mDb.query(mTable, mQueryColumns, selection, selectionArgs,
+                null, null, mOrderBy, limit);
+        try {
+            Object[][] rows = new Object[cursor.getCount()][];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[mQueryColumns.length];
+                for (int column = 0; column < row.length; column++) {
+                    row[column] = value(cursor, column);
+                }
+                rows[i] = row;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Object value(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    private Object[] sortKey(Object[] row) {
+        Object[] key = new Object[mSortIndices.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = row[mSortIndices[i]];
+        }
+        return key;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (mChunks) {
+            mClosed = true;
+            mChunks.clear();
+            mLastKeys.clear();
+            mShownUnread.clear();
+        }
+        mRow = null;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = mRow[column];
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = mRow[column];
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = mRow[column];
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = mRow[column];
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return (long) getDouble(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = mRow[column];
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            // Text that is not a number reads as 0, like in SQLite
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mRow[column] == null;
+    }
+}
@@ -0,0 +1,133 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Streaming reader for delimiter separated files (CSV or TSV).
+ * Records are read one at a time from a fixed size buffer, so memory use does not depend on
+ * the size of the file. Quoted fields may contain delimiters, doubled quotes and line breaks.
+ */
+public class CsvReader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final char QUOTE = '"';
+
+    private final Reader mReader;
+    private final char mDelimiter;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private final StringBuilder mField = new StringBuilder();
+    private int mBufferPos;
+    private int mBufferEnd;
+
+    /**
+     * Number of characters consumed so far, always at a record boundary between two calls
+     * of {@link #readRecord(List)}.
+     */
+    private long mPosition;
+
+    public CsvReader(Reader reader, char delimiter) {
+        mReader = reader;
+        mDelimiter = delimiter;
+    }
+
+    /**
+     * Reads the next record into the given list, replacing its previous content.
+     *
+     * @return false once the end of the input has been reached.
+     */
+    public boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+        mField.setLength(0);
+        boolean quoted = false;
+        boolean fieldStart = true;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field before position " + mPosition);
+                }
+                if (c == QUOTE) {
+                    if (peek() == QUOTE) {
+                        // Doubled quote inside a quoted field stands for a single quote
+                        read();
+                        mField.append(QUOTE);
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    mField.append((char) c);
+                }
+            } else if (c == QUOTE && fieldStart) {
+                quoted = true;
+            } else if (c == mDelimiter) {
+                fields.add(mField.toString());
+                mField.setLength(0);
+                fieldStart = true;
+                c = read();
+                continue;
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c == '\r') {
+                if (peek() == '\n') {
+                    read();
+                }
+                break;
+            } else {
+                mField.append((char) c);
+            }
+            fieldStart = false;
+            c = read();
+        }
+        fields.add(mField.toString());
+        return true;
+    }
+
+    /**
+     * @return number of characters consumed, usable with {@link #skipTo(long)} to resume reading.
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Discards input up to the given position, which must be a value returned earlier by
+     * {@link #getPosition()} on the same input.
+     */
+    public void skipTo(long position) throws IOException {
+        while (mPosition < position) {
+            if (read() == -1) {
+                throw new IOException("Input ended before position " + position);
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (mBufferPos == mBufferEnd && !fill()) {
+            return -1;
+        }
+        mPosition++;
+        return mBuffer[mBufferPos++];
+    }
+
+    private int peek() throws IOException {
+        if (mBufferPos == mBufferEnd && !fill()) {
+            return -1;
+        }
+        return mBuffer[mBufferPos];
+    }
+
+    private boolean fill() throws IOException {
+        int count = mReader.read(mBuffer, 0, BUFFER_SIZE);
+        if (count <= 0) {
+            return false;
+        }
+        mBufferPos = 0;
+        mBufferEnd = count;
+        return true;
+    }
+}
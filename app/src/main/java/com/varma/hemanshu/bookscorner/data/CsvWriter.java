@@ -0,0 +1,63 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes delimiter separated records readable by {@link CsvReader}.
+ * Fields holding the delimiter, a quote or a line break are quoted, all others are written as is.
+ */
+public class CsvWriter {
+
+    private static final char QUOTE = '"';
+
+    private final Writer mWriter;
+    private final char mDelimiter;
+
+    public CsvWriter(Writer writer, char delimiter) {
+        mWriter = writer;
+        mDelimiter = delimiter;
+    }
+
+    /**
+     * Writes a single record, null fields are written as empty ones.
+     */
+    public void writeRecord(String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                mWriter.write(mDelimiter);
+            }
+            writeField(fields[i]);
+        }
+        mWriter.write('\n');
+    }
+
+    private void writeField(String field) throws IOException {
+        if (field == null) {
+            return;
+        }
+        if (!needsQuotes(field)) {
+            mWriter.write(field);
+            return;
+        }
+        mWriter.write(QUOTE);
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == QUOTE) {
+                mWriter.write(QUOTE);
+            }
+            mWriter.write(c);
+        }
+        mWriter.write(QUOTE);
+    }
+
+    private boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == mDelimiter || c == QUOTE || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,266 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.SparseArray;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counters and latency histograms of the calls of {@link BookProvider}, per operation and
+ * matched uri, along with its transactions, notifications and row cache.
+ * Recording a call takes a few additions under the lock of its own histogram, so it is cheap
+ * enough for every call. Latencies are counted in buckets of powers of two microseconds.
+ */
+class ProviderMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int BULK_INSERT = 4;
+    private static final String[] OPERATION_NAMES = {"query", "insert", "update", "delete",
+            "bulkInsert"};
+
+    static final String[] COLUMNS = {MetricsEntry.COLUMN_NAME,
+            MetricsEntry.COLUMN_COUNT,
+            MetricsEntry.COLUMN_ROWS,
+            MetricsEntry.COLUMN_TOTAL_US,
+            MetricsEntry.COLUMN_MAX_US,
+            MetricsEntry.COLUMN_P50_US,
+            MetricsEntry.COLUMN_P90_US,
+            MetricsEntry.COLUMN_P99_US};
+
+    /**
+     * Bucket i counts the latencies below 2^i microseconds not counted by bucket i - 1,
+     * the last one all the longer ones, from about 8 seconds.
+     */
+    private static final int BUCKETS = 24;
+
+    /**
+     * Latencies and rows of one kind of call.
+     */
+    static class Histogram {
+        final String name;
+        private final long[] mBuckets = new long[BUCKETS];
+        private long mCount;
+        private long mRows;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long nanos, long rows) {
+            long micros = nanos / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            mBuckets[Math.min(bucket, BUCKETS - 1)]++;
+            mCount++;
+            mRows += rows;
+            mTotalNanos += nanos;
+            if (nanos > mMaxNanos) {
+                mMaxNanos = nanos;
+            }
+        }
+
+        /**
+         * @return the values of the {@link #COLUMNS}, null when nothing was recorded.
+         */
+        synchronized Object[] toRow() {
+            if (mCount == 0) {
+                return null;
+            }
+            return new Object[]{name, mCount, mRows, mTotalNanos / 1000, mMaxNanos / 1000,
+                    percentile(0.50), percentile(0.90), percentile(0.99)};
+        }
+
+        /**
+         * @return the upper bound in microseconds of the bucket holding the percentile,
+         * the maximum for the last bucket.
+         */
+        private long percentile(double fraction) {
+            long rank = (long) Math.ceil(mCount * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return mMaxNanos / 1000;
+        }
+    }
+
+    /**
+     * Histograms by matched uri code, one per operation
+     */
+    private final SparseArray<Histogram[]> mCalls = new SparseArray<>();
+
+    /**
+     * Histograms of the call() methods by name, only read once made
+     */
+    private final Map<String, Histogram> mMethods = new HashMap<>();
+    private final List<Histogram> mMethodList = new ArrayList<>();
+    private final Histogram mBatches = new Histogram("applyBatch");
+    private final Histogram mTransactions = new Histogram("transaction");
+    private final BookRowCache mRowCache;
+    private final ChangeNotifier mNotifier;
+
+    /**
+     * @param uriPaths paths of the uris by their matcher code
+     * @param methods  names of the methods of call() to record
+     */
+    ProviderMetrics(SparseArray<String> uriPaths, String[] methods, BookRowCache rowCache,
+                    ChangeNotifier notifier) {
+        for (int i = 0; i < uriPaths.size(); i++) {
+            Histogram[] histograms = new Histogram[OPERATION_NAMES.length];
+            for (int operation = 0; operation < histograms.length; operation++) {
+                histograms[operation] = new Histogram(OPERATION_NAMES[operation] + " "
+                        + uriPaths.valueAt(i));
+            }
+            mCalls.put(uriPaths.keyAt(i), histograms);
+        }
+        for (String method : methods) {
+            Histogram histogram = new Histogram("call " + method);
+            mMethods.put(method, histogram);
+            mMethodList.add(histogram);
+        }
+        mRowCache = rowCache;
+        mNotifier = notifier;
+    }
+
+    /**
+     * Records a completed call on a matched uri, started at the given {@link System#nanoTime}.
+     *
+     * @param rows rows returned by a query, written by the other operations
+     */
+    void record(int operation, int match, long startNanos, long rows) {
+        long nanos = System.nanoTime() - startNanos;
+        Histogram[] histograms = mCalls.get(match);
+        if (histograms != null) {
+            histograms[operation].record(nanos, rows);
+        }
+    }
+
+    /**
+     * Records a completed call() of one of the methods given to the constructor.
+     *
+     * @param rows rows written by the method
+     */
+    void recordCall(String method, long startNanos, long rows) {
+        long nanos = System.nanoTime() - startNanos;
+        Histogram histogram = mMethods.get(method);
+        if (histogram != null) {
+            histogram.record(nanos, rows);
+        }
+    }
+
+    /**
+     * Records a completed applyBatch() of the given number of operations.
+     */
+    void recordBatch(long startNanos, int operations) {
+        mBatches.record(System.nanoTime() - startNanos, operations);
+    }
+
+    /**
+     * Records an outermost transaction, begun at the given {@link System#nanoTime}.
+     */
+    void recordTransaction(long startNanos) {
+        mTransactions.record(System.nanoTime() - startNanos, 0);
+    }
+
+    /**
+     * @return a cursor over the metrics with the given columns, all of them when null.
+     */
+    Cursor query(String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] indices = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indices[i] = indexOf(projection[i]);
+            if (indices[i] < 0) {
+                throw new IllegalArgumentException("Metrics have no column " + projection[i]);
+            }
+        }
+        List<Object[]> rows = rows();
+        MatrixCursor cursor = new MatrixCursor(projection, rows.size());
+        for (Object[] row : rows) {
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                values[i] = row[indices[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Prints the metrics, one per line.
+     */
+    void dump(PrintWriter writer) {
+        for (Object[] row : rows()) {
+            if (row[3] == null) {
+                writer.println(String.format(Locale.US, "%-32s %d", row[0], (Long) row[1]));
+            } else {
+                long count = (Long) row[1];
+                writer.println(String.format(Locale.US,
+                        "%-32s count=%d rows=%d mean=%dus p50<=%dus p90<=%dus p99<=%dus max=%dus",
+                        row[0], count, (Long) row[2], (Long) row[3] / count, (Long) row[5],
+                        (Long) row[6], (Long) row[7], (Long) row[4]));
+            }
+        }
+    }
+
+    private List<Object[]> rows() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < mCalls.size(); i++) {
+            for (Histogram histogram : mCalls.valueAt(i)) {
+                addRow(rows, histogram.toRow());
+            }
+        }
+        for (Histogram histogram : mMethodList) {
+            addRow(rows, histogram.toRow());
+        }
+        addRow(rows, mBatches.toRow());
+        addRow(rows, mTransactions.toRow());
+        addCounter(rows, "notifications requested", mNotifier.getRequestedCount());
+        addCounter(rows, "notifications sent", mNotifier.getSentCount());
+        addCounter(rows, "notifications merged", mNotifier.getSuppressedCount());
+        addCounter(rows, "row_cache hits", mRowCache.hitCount());
+        addCounter(rows, "row_cache misses", mRowCache.missCount());
+        addCounter(rows, "row_cache evictions", mRowCache.evictionCount());
+        addCounter(rows, "row_cache bytes", mRowCache.size());
+        return rows;
+    }
+
+    private static void addRow(List<Object[]> rows, Object[] row) {
+        if (row != null) {
+            rows.add(row);
+        }
+    }
+
+    /**
+     * Adds a counter, without rows nor latencies.
+     */
+    private static void addCounter(List<Object[]> rows, String name, long count) {
+        rows.add(new Object[]{name, count, null, null, null, null, null, null});
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,51 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import java.util.Random;
+
+/**
+ * Delays between the attempts of a failed sync call. The delay doubles with every retry up
+ * to a maximum, and each one is drawn between half and all of it, so stores failing at the
+ * same time do not all retry at the same time.
+ */
+public class Backoff {
+
+    public static final Backoff DEFAULT = new Backoff(1000, 60000, 6);
+
+    private final long mInitialDelayMs;
+    private final long mMaxDelayMs;
+    private final int mMaxAttempts;
+    private final Random mRandom = new Random();
+
+    public Backoff(long initialDelayMs, long maxDelayMs, int maxAttempts) {
+        if (initialDelayMs < 0 || maxDelayMs < initialDelayMs) {
+            throw new IllegalArgumentException("Backoff requires a valid DELAY range");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Backoff requires a positive MAX ATTEMPTS");
+        }
+        mInitialDelayMs = initialDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return number of attempts of a call, the first one included.
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param retry number of the retry, 1 for the one after the first attempt
+     * @return time to wait before that retry.
+     */
+    public long getDelayMs(int retry) {
+        long delay = mInitialDelayMs;
+        for (int i = 1; i < retry && delay < mMaxDelayMs; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelayMs);
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+}
@@ -0,0 +1,108 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * A book as exchanged with the server, or the deletion of one.
+ * Written as a JSON object with the field names below, the book fields being absent for a
+ * deletion.
+ */
+public class BookRecord {
+
+    static final String FIELD_ID = "id";
+    static final String FIELD_VERSION = "version";
+    static final String FIELD_DELETED = "deleted";
+    static final String FIELD_NAME = "name";
+    static final String FIELD_PRICE = "price";
+    static final String FIELD_QUANTITY = "quantity";
+    static final String FIELD_SUPPLIER_NAME = "supplier_name";
+    static final String FIELD_SUPPLIER_PHONE = "supplier_phone";
+
+    /**
+     * Sync id of the book
+     */
+    public String syncId;
+
+    /**
+     * Server version, for an upload the one the local change is based on
+     */
+    public long version;
+    public boolean deleted;
+    public String name;
+    public int price;
+    public int quantity;
+    public String supplierName;
+    public String supplierPhone;
+
+    // Local state of an uploaded book, not sent
+    long localId = -1;
+    int dirty;
+
+    void write(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name(FIELD_ID).value(syncId);
+        writer.name(FIELD_VERSION).value(version);
+        writer.name(FIELD_DELETED).value(deleted);
+        if (!deleted) {
+            writer.name(FIELD_NAME).value(name);
+            writer.name(FIELD_PRICE).value(price);
+            writer.name(FIELD_QUANTITY).value(quantity);
+            writer.name(FIELD_SUPPLIER_NAME).value(supplierName);
+            writer.name(FIELD_SUPPLIER_PHONE).value(supplierPhone);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Reads a record, skipping the fields it does not know.
+     */
+    static BookRecord read(JsonReader reader) throws IOException {
+        BookRecord record = new BookRecord();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (field) {
+                case FIELD_ID:
+                    record.syncId = reader.nextString();
+                    break;
+                case FIELD_VERSION:
+                    record.version = reader.nextLong();
+                    break;
+                case FIELD_DELETED:
+                    record.deleted = reader.nextBoolean();
+                    break;
+                case FIELD_NAME:
+                    record.name = reader.nextString();
+                    break;
+                case FIELD_PRICE:
+                    record.price = reader.nextInt();
+                    break;
+                case FIELD_QUANTITY:
+                    record.quantity = reader.nextInt();
+                    break;
+                case FIELD_SUPPLIER_NAME:
+                    record.supplierName = reader.nextString();
+                    break;
+                case FIELD_SUPPLIER_PHONE:
+                    record.supplierPhone = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        if (record.syncId == null) {
+            throw new SyncException("Record without an ID", false);
+        }
+        return record;
+    }
+}
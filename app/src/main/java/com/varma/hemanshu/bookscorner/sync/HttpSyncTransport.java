@@ -0,0 +1,222 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link SyncTransport} talking JSON over HTTP to the server at a base url, which may as well
+ * be a local mock server. Bodies are gzip compressed both ways and streamed, a batch is never
+ * held in memory as text.
+ * <p>
+ * Upload: POST {base}/books/upload with {"books": [records]}, answered with
+ * {"results": [{"id", "status": "ok" | "conflict", "version", "book": record}]}.
+ * Download: GET {base}/books?since={cursor}&limit={limit}, answered with
+ * {"books": [records], "cursor", "has_more"}.
+ */
+public class HttpSyncTransport implements SyncTransport {
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 60000;
+
+    private static final String GZIP = "gzip";
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+
+    private static final String FIELD_BOOKS = "books";
+    private static final String FIELD_RESULTS = "results";
+    private static final String FIELD_STATUS = "status";
+    private static final String FIELD_BOOK = "book";
+    private static final String FIELD_CURSOR = "cursor";
+    private static final String FIELD_HAS_MORE = "has_more";
+    private static final String STATUS_OK = "ok";
+
+    private final Uri mBaseUri;
+
+    public HttpSyncTransport(String baseUrl) {
+        mBaseUri = Uri.parse(baseUrl);
+    }
+
+    @Override
+    public List<UploadResult> upload(List<BookRecord> records) throws IOException {
+        Uri uri = mBaseUri.buildUpon().appendPath(FIELD_BOOKS).appendPath("upload").build();
+        HttpURLConnection connection = open(uri);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(0);
+            connection.setRequestProperty("Content-Type", JSON_TYPE);
+            connection.setRequestProperty("Content-Encoding", GZIP);
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(
+                    new BufferedOutputStream(connection.getOutputStream())), "UTF-8"));
+            try {
+                writer.beginObject();
+                writer.name(FIELD_BOOKS).beginArray();
+                for (BookRecord record : records) {
+                    record.write(writer);
+                }
+                writer.endArray();
+                writer.endObject();
+            } finally {
+                // Also finishes the gzip stream
+                writer.close();
+            }
+
+            JsonReader reader = openResponse(connection, uri);
+            try {
+                List<UploadResult> results = new ArrayList<>(records.size());
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (FIELD_RESULTS.equals(reader.nextName())) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            results.add(readUploadResult(reader));
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return results;
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static UploadResult readUploadResult(JsonReader reader) throws IOException {
+        UploadResult result = new UploadResult();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case BookRecord.FIELD_ID:
+                    result.syncId = reader.nextString();
+                    break;
+                case FIELD_STATUS:
+                    result.accepted = STATUS_OK.equals(reader.nextString());
+                    break;
+                case BookRecord.FIELD_VERSION:
+                    result.version = reader.nextLong();
+                    break;
+                case FIELD_BOOK:
+                    result.serverRecord = BookRecord.read(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        if (!result.accepted && result.serverRecord == null) {
+            throw new SyncException("Conflict without the server BOOK of " + result.syncId, false);
+        }
+        return result;
+    }
+
+    @Override
+    public DownloadPage download(String cursor, int limit) throws IOException {
+        Uri.Builder builder = mBaseUri.buildUpon().appendPath(FIELD_BOOKS);
+        if (cursor != null) {
+            builder.appendQueryParameter("since", cursor);
+        }
+        Uri uri = builder.appendQueryParameter("limit", String.valueOf(limit)).build();
+        HttpURLConnection connection = open(uri);
+        try {
+            JsonReader reader = openResponse(connection, uri);
+            try {
+                DownloadPage page = new DownloadPage();
+                page.records = new ArrayList<>();
+                page.cursor = cursor;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case FIELD_BOOKS:
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                page.records.add(BookRecord.read(reader));
+                            }
+                            reader.endArray();
+                            break;
+                        case FIELD_CURSOR:
+                            page.cursor = reader.nextString();
+                            break;
+                        case FIELD_HAS_MORE:
+                            page.hasMore = reader.nextBoolean();
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
+                return page;
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(Uri uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Set explicitly, so the response is not decompressed behind our back on some
+        // platforms and left compressed on others
+        connection.setRequestProperty("Accept-Encoding", GZIP);
+        connection.setRequestProperty("Accept", JSON_TYPE);
+        return connection;
+    }
+
+    /**
+     * Checks the status of the response and opens its body.
+     * Timeouts, throttling and server errors are worth retrying, other errors are not.
+     */
+    private static JsonReader openResponse(HttpURLConnection connection, Uri uri)
+            throws IOException {
+        int status = connection.getResponseCode();
+        if (status < HttpURLConnection.HTTP_OK || status >= HttpURLConnection.HTTP_MULT_CHOICE) {
+            boolean retryable = status == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                    || status == 429 || status >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+            throw new SyncException("HTTP " + status + " from " + uri, retryable,
+                    retryAfterMs(connection));
+        }
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return new JsonReader(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * @return the delay of the Retry-After header given in seconds, -1 without one.
+     */
+    private static long retryAfterMs(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            // An HTTP date, left to the backoff
+            return -1;
+        }
+    }
+}
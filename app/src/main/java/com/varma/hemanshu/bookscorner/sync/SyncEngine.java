@@ -0,0 +1,425 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.varma.hemanshu.bookscorner.data.BookContract;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.TombstoneEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Syncs the books with the server: uploads the dirty books and the tombstones in batches,
+ * then applies the changes of the server page by page, each page in a single
+ * {@link ContentResolver#applyBatch} transaction.
+ * <p>
+ * Conflicts are resolved by version, the server keeping the last word. An upload based on a
+ * version the server has moved past is rejected and the server state replaces the local one,
+ * and a downloaded change newer than the version a dirty book is based on replaces it too.
+ * Changes not newer than the local version, such as the echo of an upload, are skipped.
+ * <p>
+ * Each call to the transport is retried with the {@link Backoff}. The download cursor is
+ * saved once its page is committed, so an interrupted sync continues from there.
+ */
+public class SyncEngine {
+
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    public static final int UPLOAD_BATCH_SIZE = 500;
+    public static final int DOWNLOAD_PAGE_SIZE = 500;
+
+    private static final String KEY_DOWNLOAD_CURSOR = "download_cursor";
+
+    private static final String[] UPLOAD_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_SYNC_ID,
+            BookEntry.COLUMN_BOOK_VERSION,
+            BookEntry.COLUMN_BOOK_DIRTY,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
+
+    private static final String[] LOCAL_STATE_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_SYNC_ID,
+            BookEntry.COLUMN_BOOK_VERSION,
+            BookEntry.COLUMN_BOOK_DIRTY};
+
+    private static final Uri BOOKS_URI = BookContract.asSyncAdapter(BookEntry.CONTENT_URI);
+    private static final Uri TOMBSTONES_URI = BookContract.asSyncAdapter(TombstoneEntry.CONTENT_URI);
+
+    /**
+     * Counters of a sync.
+     */
+    public static class Result {
+        public int uploaded;
+        public int downloaded;
+        public int conflicts;
+        public long elapsedMs;
+    }
+
+    /**
+     * A call to the transport, repeated by {@link #withRetry}.
+     */
+    private interface Call<T> {
+        T run() throws IOException;
+    }
+
+    private final ContentResolver mResolver;
+    private final SyncTransport mTransport;
+    private final SharedPreferences mState;
+    private final Backoff mBackoff;
+
+    /**
+     * @param state where the download cursor is kept between syncs
+     */
+    public SyncEngine(ContentResolver resolver, SyncTransport transport, SharedPreferences state,
+                      Backoff backoff) {
+        mResolver = resolver;
+        mTransport = transport;
+        mState = state;
+        mBackoff = backoff;
+    }
+
+    public Result sync() throws IOException, RemoteException, OperationApplicationException {
+        long start = SystemClock.elapsedRealtime();
+        Result result = new Result();
+        uploadBooks(result);
+        uploadTombstones(result);
+        download(result);
+        result.elapsedMs = SystemClock.elapsedRealtime() - start;
+        return result;
+    }
+
+    /**
+     * Uploads the dirty books, read in id order one page at a time.
+     */
+    private void uploadBooks(Result result)
+            throws IOException, RemoteException, OperationApplicationException {
+        Uri pageUri = BookEntry.buildFirstPageUri(null, UPLOAD_BATCH_SIZE);
+        while (pageUri != null) {
+            List<BookRecord> records = new ArrayList<>(UPLOAD_BATCH_SIZE);
+            Cursor cursor = mResolver.query(pageUri, UPLOAD_PROJECTION,
+                    BookEntry.COLUMN_BOOK_DIRTY + " > 0", null, null);
+            if (cursor == null) {
+                return;
+            }
+            String nextPageUri;
+            try {
+                while (cursor.moveToNext()) {
+                    BookRecord record = new BookRecord();
+                    record.localId = cursor.getLong(0);
+                    record.syncId = cursor.getString(1);
+                    record.version = cursor.getLong(2);
+                    record.dirty = cursor.getInt(3);
+                    record.name = cursor.getString(4);
+                    record.price = cursor.getInt(5);
+                    record.quantity = cursor.getInt(6);
+                    record.supplierName = cursor.getString(7);
+                    record.supplierPhone = cursor.getString(8);
+                    records.add(record);
+                }
+                Bundle extras = cursor.getExtras();
+                nextPageUri = extras == null ? null : extras.getString(BookEntry.EXTRA_NEXT_PAGE_URI);
+            } finally {
+                cursor.close();
+            }
+            if (!records.isEmpty()) {
+                upload(records, result);
+            }
+            pageUri = nextPageUri == null ? null : Uri.parse(nextPageUri);
+        }
+    }
+
+    private void uploadTombstones(Result result)
+            throws IOException, RemoteException, OperationApplicationException {
+        List<BookRecord> records = new ArrayList<>();
+        Cursor cursor = mResolver.query(TombstoneEntry.CONTENT_URI, new String[]{
+                TombstoneEntry.COLUMN_SYNC_ID, TombstoneEntry.COLUMN_VERSION}, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                BookRecord record = new BookRecord();
+                record.syncId = cursor.getString(0);
+                record.version = cursor.getLong(1);
+                record.deleted = true;
+                records.add(record);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (int start = 0; start < records.size(); start += UPLOAD_BATCH_SIZE) {
+            upload(records.subList(start, Math.min(start + UPLOAD_BATCH_SIZE, records.size())),
+                    result);
+        }
+    }
+
+    /**
+     * Uploads a batch and applies its results in one transaction.
+     */
+    private void upload(final List<BookRecord> records, Result result)
+            throws IOException, RemoteException, OperationApplicationException {
+        List<SyncTransport.UploadResult> results = withRetry(
+                new Call<List<SyncTransport.UploadResult>>() {
+                    @Override
+                    public List<SyncTransport.UploadResult> run() throws IOException {
+                        return mTransport.upload(records);
+                    }
+                });
+        if (results.size() != records.size()) {
+            throw new SyncException("Upload of " + records.size() + " books answered with "
+                    + results.size() + " results", false);
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            BookRecord record = records.get(i);
+            SyncTransport.UploadResult uploadResult = results.get(i);
+            if (!record.syncId.equals(uploadResult.syncId)) {
+                throw new SyncException("Upload result " + i + " is not for " + record.syncId, false);
+            }
+            if (record.deleted) {
+                operations.add(deleteTombstone(record.syncId));
+            }
+            if (uploadResult.accepted) {
+                result.uploaded++;
+                if (!record.deleted) {
+                    acknowledge(operations, record, uploadResult.version);
+                }
+                continue;
+            }
+            result.conflicts++;
+            BookRecord server = uploadResult.serverRecord;
+            if (record.deleted) {
+                // The book changed on the server after it was deleted here, it comes back
+                if (!server.deleted) {
+                    operations.add(insert(server));
+                }
+            } else if (server.deleted) {
+                operations.add(delete(record.localId));
+            } else {
+                operations.add(update(record.localId, server));
+            }
+        }
+        mResolver.applyBatch(BookContract.CONTENT_AUTHORITY, operations);
+    }
+
+    /**
+     * Moves an uploaded book to its new server version. The dirty count of the upload is
+     * cleared only when the book did not change since it was read, a later change stays dirty
+     * and is uploaded on top of the new version.
+     */
+    private static void acknowledge(List<ContentProviderOperation> operations, BookRecord record,
+                                    long version) {
+        String[] idArgs = {String.valueOf(record.localId)};
+        operations.add(ContentProviderOperation.newUpdate(BOOKS_URI)
+                .withSelection(BookEntry._ID + "=?", idArgs)
+                .withValue(BookEntry.COLUMN_BOOK_VERSION, version)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(BOOKS_URI)
+                .withSelection(BookEntry._ID + "=? AND " + BookEntry.COLUMN_BOOK_DIRTY + "=?",
+                        new String[]{idArgs[0], String.valueOf(record.dirty)})
+                .withValue(BookEntry.COLUMN_BOOK_DIRTY, 0)
+                .build());
+    }
+
+    /**
+     * Downloads and applies the changes of the server, one committed page at a time.
+     */
+    private void download(Result result)
+            throws IOException, RemoteException, OperationApplicationException {
+        String cursor = mState.getString(KEY_DOWNLOAD_CURSOR, null);
+        SyncTransport.DownloadPage page;
+        do {
+            final String pageCursor = cursor;
+            page = withRetry(new Call<SyncTransport.DownloadPage>() {
+                @Override
+                public SyncTransport.DownloadPage run() throws IOException {
+                    return mTransport.download(pageCursor, DOWNLOAD_PAGE_SIZE);
+                }
+            });
+            apply(page.records, result);
+            cursor = page.cursor;
+            mState.edit().putString(KEY_DOWNLOAD_CURSOR, cursor).commit();
+        } while (page.hasMore && !page.records.isEmpty());
+    }
+
+    /**
+     * Applies downloaded records in one transaction.
+     */
+    private void apply(List<BookRecord> records, Result result)
+            throws RemoteException, OperationApplicationException {
+        if (records.isEmpty()) {
+            return;
+        }
+        Map<String, BookRecord> local = readLocalState(records);
+        Set<String> tombstones = readTombstones(records);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(records.size());
+        for (BookRecord remote : records) {
+            BookRecord book = local.get(remote.syncId);
+            if (book == null) {
+                if (tombstones.contains(remote.syncId)) {
+                    // Deleted here, the change of the server wins unless it is a deletion too
+                    operations.add(deleteTombstone(remote.syncId));
+                    if (!remote.deleted) {
+                        result.conflicts++;
+                    }
+                }
+                if (!remote.deleted) {
+                    operations.add(insert(remote));
+                    result.downloaded++;
+                }
+                continue;
+            }
+            if (remote.version <= book.version) {
+                continue;
+            }
+            if (book.dirty > 0) {
+                // The local change is based on an older version, the server wins
+                result.conflicts++;
+            }
+            operations.add(remote.deleted ? delete(book.localId) : update(book.localId, remote));
+            result.downloaded++;
+        }
+        mResolver.applyBatch(BookContract.CONTENT_AUTHORITY, operations);
+    }
+
+    /**
+     * @return the local id, version and dirty count of the given books, by sync id.
+     */
+    private Map<String, BookRecord> readLocalState(List<BookRecord> records) {
+        Map<String, BookRecord> local = new HashMap<>();
+        Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, LOCAL_STATE_PROJECTION,
+                inSelection(BookEntry.COLUMN_BOOK_SYNC_ID, records.size()), syncIds(records), null);
+        if (cursor == null) {
+            return local;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                BookRecord book = new BookRecord();
+                book.localId = cursor.getLong(0);
+                book.syncId = cursor.getString(1);
+                book.version = cursor.getLong(2);
+                book.dirty = cursor.getInt(3);
+                local.put(book.syncId, book);
+            }
+        } finally {
+            cursor.close();
+        }
+        return local;
+    }
+
+    private Set<String> readTombstones(List<BookRecord> records) {
+        Set<String> tombstones = new HashSet<>();
+        Cursor cursor = mResolver.query(TombstoneEntry.CONTENT_URI,
+                new String[]{TombstoneEntry.COLUMN_SYNC_ID},
+                inSelection(TombstoneEntry.COLUMN_SYNC_ID, records.size()), syncIds(records), null);
+        if (cursor == null) {
+            return tombstones;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                tombstones.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tombstones;
+    }
+
+    private static ContentProviderOperation insert(BookRecord remote) {
+        ContentValues values = bookValues(remote);
+        values.put(BookEntry.COLUMN_BOOK_SYNC_ID, remote.syncId);
+        return ContentProviderOperation.newInsert(BOOKS_URI).withValues(values).build();
+    }
+
+    private static ContentProviderOperation update(long localId, BookRecord remote) {
+        return ContentProviderOperation.newUpdate(BOOKS_URI)
+                .withSelection(BookEntry._ID + "=?", new String[]{String.valueOf(localId)})
+                .withValues(bookValues(remote))
+                .build();
+    }
+
+    private static ContentProviderOperation delete(long localId) {
+        return ContentProviderOperation.newDelete(BOOKS_URI)
+                .withSelection(BookEntry._ID + "=?", new String[]{String.valueOf(localId)})
+                .build();
+    }
+
+    private static ContentProviderOperation deleteTombstone(String syncId) {
+        return ContentProviderOperation.newDelete(TOMBSTONES_URI)
+                .withSelection(TombstoneEntry.COLUMN_SYNC_ID + "=?", new String[]{syncId})
+                .build();
+    }
+
+    /**
+     * @return the values of the server state of a book, clean at its server version.
+     */
+    private static ContentValues bookValues(BookRecord remote) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, remote.name);
+        values.put(BookEntry.COLUMN_BOOK_PRICE, remote.price);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, remote.quantity);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, remote.supplierName);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, remote.supplierPhone);
+        values.put(BookEntry.COLUMN_BOOK_VERSION, remote.version);
+        values.put(BookEntry.COLUMN_BOOK_DIRTY, 0);
+        return values;
+    }
+
+    private static String inSelection(String column, int count) {
+        StringBuilder selection = new StringBuilder(column).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        return selection.append(')').toString();
+    }
+
+    private static String[] syncIds(List<BookRecord> records) {
+        String[] ids = new String[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = records.get(i).syncId;
+        }
+        return ids;
+    }
+
+    /**
+     * Runs the call, retrying network failures and retryable server errors after the delays
+     * of the backoff, or the delay asked by the server when it is longer.
+     */
+    private <T> T withRetry(Call<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.run();
+            } catch (IOException e) {
+                boolean retryable = !(e instanceof SyncException) || ((SyncException) e).isRetryable();
+                if (!retryable || attempt >= mBackoff.getMaxAttempts()) {
+                    throw e;
+                }
+                long delayMs = mBackoff.getDelayMs(attempt);
+                if (e instanceof SyncException) {
+                    delayMs = Math.max(delayMs, ((SyncException) e).getRetryAfterMs());
+                }
+                Log.w(LOG_TAG, "Sync attempt " + attempt + " failed, retrying in " + delayMs + " ms", e);
+                SystemClock.sleep(delayMs);
+            }
+        }
+    }
+}
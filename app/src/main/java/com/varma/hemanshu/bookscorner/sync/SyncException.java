@@ -0,0 +1,34 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import java.io.IOException;
+
+/**
+ * Failure of a sync call reported by the server, or a response the engine cannot use.
+ * Other IOExceptions are network failures, always worth retrying.
+ */
+public class SyncException extends IOException {
+
+    private final boolean mRetryable;
+    private final long mRetryAfterMs;
+
+    public SyncException(String message, boolean retryable) {
+        this(message, retryable, -1);
+    }
+
+    /**
+     * @param retryAfterMs time the server asked to wait before retrying, -1 when not given
+     */
+    public SyncException(String message, boolean retryable, long retryAfterMs) {
+        super(message);
+        mRetryable = retryable;
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    public boolean isRetryable() {
+        return mRetryable;
+    }
+
+    public long getRetryAfterMs() {
+        return mRetryAfterMs;
+    }
+}
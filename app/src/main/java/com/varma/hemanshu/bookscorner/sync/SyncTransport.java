@@ -0,0 +1,52 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Connection of the {@link SyncEngine} to the server.
+ */
+public interface SyncTransport {
+
+    /**
+     * Sends local changes to the server, each one accepted only when the server still has
+     * the version it is based on.
+     *
+     * @return one result per record, in the order of the records.
+     */
+    List<UploadResult> upload(List<BookRecord> records) throws IOException;
+
+    /**
+     * Reads the changes made on the server after the given cursor.
+     *
+     * @param cursor cursor of the last page applied, null for all the books
+     */
+    DownloadPage download(String cursor, int limit) throws IOException;
+
+    /**
+     * Outcome of an uploaded record.
+     */
+    class UploadResult {
+        public String syncId;
+        public boolean accepted;
+
+        /**
+         * New server version of an accepted record
+         */
+        public long version;
+
+        /**
+         * Current server state of a rejected record, which replaces the local one
+         */
+        public BookRecord serverRecord;
+    }
+
+    /**
+     * Changes of the server, with the cursor to pass for the next ones.
+     */
+    class DownloadPage {
+        public List<BookRecord> records;
+        public String cursor;
+        public boolean hasMore;
+    }
+}
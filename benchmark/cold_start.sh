@@ -0,0 +1,91 @@
+#!/bin/sh
+# Cold starts of the app on the connected device, installed with its current catalog.
+# Each run kills the process and launches MainActivity, reading the time to the first frame
+# from "am start -W" and the time to the real list from the "Fully drawn" line MainActivity
+# reports once its loader delivered.
+#
+#   benchmark/cold_start.sh [runs]
+#   benchmark/cold_start.sh [runs] --record-baseline
+#
+# The medians are written to benchmark/build/benchmark-results/ColdStart.json. A start slower
+# than benchmark/baseline/ColdStart.json by more than COLD_START_TOLERANCE (0.25) fails.
+# Record the baseline on the reference device and commit it along with the change it measures.
+set -e
+
+PACKAGE=com.varma.hemanshu.bookscorner
+ACTIVITY=$PACKAGE/.MainActivity
+RUNS=${1:-20}
+TOLERANCE=${COLD_START_TOLERANCE:-0.25}
+DIR=$(cd "$(dirname "$0")" && pwd)
+RESULTS=$DIR/build/benchmark-results/ColdStart.json
+BASELINE=$DIR/baseline/ColdStart.json
+
+# Prints the milliseconds of a duration like +1s234ms
+to_ms() {
+    echo "$1" | sed -e 's/^+//' | awk '{
+        s = 0; ms = 0
+        if (match($0, /[0-9]+s/)) s = substr($0, RSTART, RLENGTH - 1)
+        if (match($0, /[0-9]+ms/)) ms = substr($0, RSTART, RLENGTH - 2)
+        print s * 1000 + ms
+    }'
+}
+
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+displayed=""
+drawn=""
+i=0
+while [ "$i" -lt "$RUNS" ]; do
+    adb shell am force-stop $PACKAGE
+    adb logcat -c
+    total=$(adb shell am start -W -n $ACTIVITY | tr -d '\r' | sed -n 's/^TotalTime: //p')
+    # The list loads after the first frame
+    sleep 3
+    fully=$(adb logcat -d | tr -d '\r' | sed -n "s/.*Fully drawn $PACKAGE[^:]*: \(+[0-9smh]*\).*/\1/p" | tail -n 1)
+    if [ -z "$total" ] || [ -z "$fully" ]; then
+        echo "Run $i: no start time, is the app installed and the screen on?" >&2
+        exit 1
+    fi
+    displayed="$displayed $total"
+    drawn="$drawn $(to_ms "$fully")"
+    i=$((i + 1))
+done
+
+displayed_ms=$(echo $displayed | tr ' ' '\n' | median)
+drawn_ms=$(echo $drawn | tr ' ' '\n' | median)
+echo "ColdStart time_to_initial_display: $displayed_ms ms, time_to_full_display: $drawn_ms ms"
+
+mkdir -p "$(dirname "$RESULTS")"
+cat > "$RESULTS" <<EOF
+{
+  "name": "ColdStart",
+  "results": [
+    {"benchmark": "time_to_initial_display", "rows": 0, "unit": "ms", "score": $displayed_ms, "runs": $RUNS},
+    {"benchmark": "time_to_full_display", "rows": 0, "unit": "ms", "score": $drawn_ms, "runs": $RUNS}
+  ]
+}
+EOF
+
+if [ "$2" = "--record-baseline" ]; then
+    mkdir -p "$(dirname "$BASELINE")"
+    cp "$RESULTS" "$BASELINE"
+    echo "Recorded $BASELINE"
+    exit 0
+fi
+if [ ! -f "$BASELINE" ]; then
+    echo "No baseline in $BASELINE"
+    exit 0
+fi
+
+failed=0
+for benchmark in time_to_initial_display time_to_full_display; do
+    score=$(sed -n "s/.*\"$benchmark\".*\"score\": \([0-9.]*\).*/\1/p" "$RESULTS")
+    base=$(sed -n "s/.*\"$benchmark\".*\"score\": \([0-9.]*\).*/\1/p" "$BASELINE")
+    if awk "BEGIN { exit !($score > $base * (1 + $TOLERANCE)) }"; then
+        echo "$benchmark: $score ms, baseline $base ms" >&2
+        failed=1
+    fi
+done
+exit $failed
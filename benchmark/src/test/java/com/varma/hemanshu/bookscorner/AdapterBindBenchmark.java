@@ -0,0 +1,91 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.app.Activity;
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.varma.hemanshu.bookscorner.benchmark.BenchmarkResults;
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+
+import java.util.Collection;
+
+/**
+ * Binding of the list items by {@link BookCursorAdapter}, scrolling once through catalogs of
+ * each size with a screenful of recycled holders. The books are in a MatrixCursor, so only
+ * the binding is measured, not the database.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class AdapterBindBenchmark {
+
+    private static final int HOLDERS = 12;
+    private static final int BINDS_PER_ITERATION = 1000;
+    private static final int ITERATIONS = 100;
+
+    private static final String[] COLUMNS = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static Collection<Object[]> parameters() {
+        return SyntheticCatalog.sizes();
+    }
+
+    private final int mRows;
+
+    public AdapterBindBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    @Test
+    public void bindView() throws Exception {
+        BenchmarkResults results = new BenchmarkResults("AdapterBindBenchmark-" + mRows);
+        SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.SEED, mRows);
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, mRows);
+        for (int i = 0; i < mRows; i++) {
+            ContentValues book = catalog.nextBook();
+            cursor.addRow(new Object[]{i + 1,
+                    book.getAsString(BookEntry.COLUMN_BOOK_NAME),
+                    book.getAsInteger(BookEntry.COLUMN_BOOK_PRICE),
+                    book.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY)});
+        }
+
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        RecyclerView parent = new RecyclerView(activity);
+        parent.setLayoutManager(new LinearLayoutManager(activity));
+        final BookCursorAdapter adapter = new BookCursorAdapter(activity,
+                new BookCursorAdapter.OnBookClickListener() {
+                    @Override
+                    public void onBookClick(long id) {
+                    }
+                });
+        adapter.swapCursor(cursor, BookListSnapshot.of(cursor));
+        final BookCursorAdapter.BookViewHolder[] holders = new BookCursorAdapter.BookViewHolder[HOLDERS];
+        for (int i = 0; i < HOLDERS; i++) {
+            holders[i] = adapter.onCreateViewHolder(parent, 0);
+        }
+
+        // Spread over the whole catalog, so the larger ones are scrolled through too
+        final long binds = (long) (ITERATIONS + ITERATIONS / 10) * BINDS_PER_ITERATION;
+        results.measure("bind_view", mRows, ITERATIONS / 10, ITERATIONS, BINDS_PER_ITERATION,
+                new BenchmarkResults.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        for (int i = 0; i < BINDS_PER_ITERATION; i++) {
+                            long bind = (long) iteration * BINDS_PER_ITERATION + i;
+                            adapter.onBindViewHolder(holders[i % HOLDERS],
+                                    (int) (bind * mRows / binds));
+                        }
+                    }
+                });
+        results.finish();
+    }
+}
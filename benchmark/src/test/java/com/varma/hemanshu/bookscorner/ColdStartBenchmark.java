@@ -0,0 +1,160 @@
+package com.varma.hemanshu.bookscorner;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.varma.hemanshu.bookscorner.benchmark.BenchmarkResults;
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The data side of a cold start: each iteration opens the seeded database with a new
+ * {@link BookProvider}, as a new process does, then reads the first screen of the list with
+ * and without the warm up of {@link BookStartup}, along with the screen saved for the start.
+ * The time from the launch to the real list on a device is measured by cold_start.sh.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class ColdStartBenchmark {
+
+    private static final int SEED_CHUNK = 10000;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static Collection<Object[]> parameters() {
+        return SyntheticCatalog.sizes();
+    }
+
+    private final int mRows;
+    private final int mIterations;
+    private BookProvider mProvider;
+    private ContentResolver mResolver;
+    private BookStartup mStartup;
+
+    public ColdStartBenchmark(int rows) {
+        mRows = rows;
+        // Each iteration reads the whole list once or twice
+        mIterations = rows >= 1000000 ? 5 : rows >= 100000 ? 10 : 50;
+    }
+
+    @Before
+    public void setUp() {
+        openProvider();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mStartup = new BookStartup(RuntimeEnvironment.application);
+        SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.SEED, mRows);
+        for (int seeded = 0; seeded < mRows; seeded += SEED_CHUNK) {
+            mResolver.bulkInsert(BookEntry.CONTENT_URI,
+                    catalog.nextBooks(Math.min(SEED_CHUNK, mRows - seeded)));
+        }
+        mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_CHECKPOINT,
+                BookEntry.CHECKPOINT_RESTART, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void coldStart() throws Exception {
+        long[] cold = new long[mIterations];
+        long[] warmUp = new long[mIterations];
+        long[] warmed = new long[mIterations];
+        long[] saved = new long[mIterations];
+        // As the list saves it when the app goes to the background
+        Cursor list = listCursor();
+        try {
+            mStartup.writeFirstScreen(BookStartup.FirstScreen.of(list));
+        } finally {
+            list.close();
+        }
+        for (int i = 0; i < mIterations; i++) {
+            openProvider();
+            long start = System.nanoTime();
+            readFirstScreen();
+            cold[i] = System.nanoTime() - start;
+
+            openProvider();
+            start = System.nanoTime();
+            mStartup.warmUp();
+            warmUp[i] = System.nanoTime() - start;
+            start = System.nanoTime();
+            readFirstScreen();
+            warmed[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            BookStartup.FirstScreen screen = mStartup.readFirstScreen();
+            assertNotNull(screen);
+            screen.toCursor().close();
+            saved[i] = System.nanoTime() - start;
+        }
+
+        BenchmarkResults results = new BenchmarkResults("ColdStartBenchmark-" + mRows);
+        record(results, "first_screen_cold", cold);
+        record(results, "warm_up", warmUp);
+        record(results, "first_screen_after_warm_up", warmed);
+        record(results, "saved_first_screen", saved);
+        results.finish();
+    }
+
+    /**
+     * Replaces the provider with a new one, which opens the database again on first use.
+     */
+    private void openProvider() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+        mProvider = Robolectric.buildContentProvider(BookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY).get();
+    }
+
+    private Cursor listCursor() {
+        return mResolver.query(BookEntry.buildListUri(BookEntry.LIST_MODE_ADDED, null),
+                BookCursorAdapter.PROJECTION, null, null, null);
+    }
+
+    /**
+     * Runs the query of the list loader and reads the rows of its first screen.
+     */
+    private void readFirstScreen() {
+        Cursor cursor = listCursor();
+        try {
+            assertEquals(mRows, cursor.getCount());
+            for (int i = 0; i < BookStartup.FIRST_SCREEN_ROWS && cursor.moveToNext(); i++) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                cursor.getInt(2);
+                cursor.getInt(3);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records the median of the times, the other ones as details.
+     */
+    private void record(BenchmarkResults results, String benchmark, long[] times) {
+        Arrays.sort(times);
+        results.record(benchmark, mRows, BenchmarkResults.UNIT_NS_PER_OP, times[times.length / 2])
+                .put("iterations", times.length)
+                .put("min_ns", times[0])
+                .put("p90_ns", times[(int) (times.length * 0.9)])
+                .put("max_ns", times[times.length - 1]);
+    }
+}
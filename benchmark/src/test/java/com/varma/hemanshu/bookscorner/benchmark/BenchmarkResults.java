@@ -0,0 +1,218 @@
+package com.varma.hemanshu.bookscorner.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Measures of a benchmark run, written as JSON to the results directory and compared to the
+ * baseline when one is given. Each entry has a score, lower is better, in its unit.
+ */
+public class BenchmarkResults {
+
+    public static final String UNIT_NS_PER_OP = "ns/op";
+    public static final String UNIT_BYTES = "bytes";
+
+    /**
+     * One timed iteration of a benchmark.
+     */
+    public interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    public static class Entry {
+        final String benchmark;
+        final int rows;
+        final String unit;
+        final double score;
+        final Map<String, Object> details = new LinkedHashMap<>();
+
+        Entry(String benchmark, int rows, String unit, double score) {
+            this.benchmark = benchmark;
+            this.rows = rows;
+            this.unit = unit;
+            this.score = score;
+        }
+
+        public Entry put(String name, Object value) {
+            details.put(name, value);
+            return this;
+        }
+
+        String key() {
+            return benchmark + "@" + rows;
+        }
+    }
+
+    private final String mName;
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    /**
+     * @param name name of the results file, unique to the benchmark run
+     */
+    public BenchmarkResults(String name) {
+        mName = name;
+    }
+
+    /**
+     * Runs the operation warmup times, then times each of the given iterations.
+     * The score is the median time of an iteration divided by the operations it runs.
+     */
+    public Entry measure(String benchmark, int rows, int warmup, int iterations,
+                         int operationsPerIteration, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+        long[] times = new long[iterations];
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            operation.run(warmup + i);
+            times[i] = System.nanoTime() - start;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+        Arrays.sort(times);
+
+        long operations = (long) iterations * operationsPerIteration;
+        Entry entry = new Entry(benchmark, rows, UNIT_NS_PER_OP,
+                (double) times[iterations / 2] / operationsPerIteration)
+                .put("iterations", iterations)
+                .put("operations_per_iteration", operationsPerIteration)
+                .put("min_ns", times[0])
+                .put("p90_ns", times[(int) (iterations * 0.9)])
+                .put("max_ns", times[iterations - 1]);
+        if (allocatedBefore >= 0) {
+            entry.put("allocated_bytes_per_op", allocated / operations);
+        }
+        mEntries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Records a measured value other than a time, like a size.
+     */
+    public Entry record(String benchmark, int rows, String unit, double value) {
+        Entry entry = new Entry(benchmark, rows, unit, value);
+        mEntries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Writes the results to {results dir}/{name}.json, then fails on the entries slower than
+     * their baseline by more than the tolerance.
+     */
+    public void finish() throws IOException, JSONException {
+        JSONArray results = new JSONArray();
+        for (Entry entry : mEntries) {
+            JSONObject result = new JSONObject();
+            result.put("benchmark", entry.benchmark);
+            result.put("rows", entry.rows);
+            result.put("unit", entry.unit);
+            result.put("score", entry.score);
+            for (Map.Entry<String, Object> detail : entry.details.entrySet()) {
+                result.put(detail.getKey(), detail.getValue());
+            }
+            results.put(result);
+            System.out.println(String.format(Locale.US, "%s %s rows=%d: %.1f %s",
+                    mName, entry.benchmark, entry.rows, entry.score, entry.unit));
+        }
+        File directory = new File(System.getProperty("benchmark.resultsDir", "build/benchmark-results"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, mName + ".json")), "UTF-8");
+        try {
+            writer.write(new JSONObject().put("name", mName).put("results", results).toString(2));
+        } finally {
+            writer.close();
+        }
+        checkBaseline();
+    }
+
+    /**
+     * Compares the scores to the ones of the same file in the baseline directory, if given.
+     */
+    private void checkBaseline() throws IOException, JSONException {
+        String baseline = System.getProperty("benchmark.baseline", "");
+        if (baseline.isEmpty()) {
+            return;
+        }
+        File file = new File(baseline, mName + ".json");
+        if (!file.isFile()) {
+            System.out.println("No baseline for " + mName + " in " + baseline);
+            return;
+        }
+        Map<String, Double> baselineScores = new LinkedHashMap<>();
+        JSONArray results = new JSONObject(read(file)).getJSONArray("results");
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            baselineScores.put(result.getString("benchmark") + "@" + result.getInt("rows"),
+                    result.getDouble("score"));
+        }
+
+        double tolerance = Double.parseDouble(System.getProperty("benchmark.tolerance", "0.25"));
+        StringBuilder regressions = new StringBuilder();
+        for (Entry entry : mEntries) {
+            Double baselineScore = baselineScores.get(entry.key());
+            if (baselineScore != null && entry.score > baselineScore * (1 + tolerance)) {
+                regressions.append(String.format(Locale.US, "\n%s: %.1f %s, baseline %.1f",
+                        entry.key(), entry.score, entry.unit, baselineScore));
+            }
+        }
+        if (regressions.length() > 0) {
+            fail(mName + " regressed by more than " + (int) (tolerance * 100) + "%:" + regressions);
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return new String(bytes, 0, read, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, -1 when the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (allocations.isThreadAllocatedMemorySupported()
+                    && allocations.isThreadAllocatedMemoryEnabled()) {
+                return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,73 @@
+package com.varma.hemanshu.bookscorner.benchmark;
+
+import android.content.ContentValues;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic books, the same ones for the same seed, so runs compare.
+ * Books of a catalog share about one supplier per hundred books.
+ */
+public class SyntheticCatalog {
+
+    public static final long SEED = 20181201L;
+
+    private static final String[] WORDS = {"Android", "Art", "Book", "Code", "Data", "Design",
+            "Garden", "History", "Java", "Kitchen", "Light", "Mind", "Night", "Ocean", "Patterns",
+            "Practice", "Quiet", "River", "Science", "Stars", "Story", "Travel", "Winter", "World"};
+
+    private final Random mRandom;
+    private final int mSuppliers;
+
+    public SyntheticCatalog(long seed, int rows) {
+        mRandom = new Random(seed);
+        mSuppliers = Math.max(10, rows / 100);
+    }
+
+    /**
+     * @return the catalog sizes to run, from the benchmark.sizes property.
+     */
+    public static Collection<Object[]> sizes() {
+        List<Object[]> sizes = new ArrayList<>();
+        for (String size : System.getProperty("benchmark.sizes", "1000").split(",")) {
+            sizes.add(new Object[]{Integer.parseInt(size.trim())});
+        }
+        return sizes;
+    }
+
+    /**
+     * @return values of the next book, as the editor inserts them.
+     */
+    public ContentValues nextBook() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, nextName());
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 1 + mRandom.nextInt(5000));
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, mRandom.nextInt(200));
+        int supplier = mRandom.nextInt(mSuppliers);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, "Supplier " + supplier);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO, String.valueOf(9000000000L + supplier));
+        return values;
+    }
+
+    public ContentValues[] nextBooks(int count) {
+        ContentValues[] books = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            books[i] = nextBook();
+        }
+        return books;
+    }
+
+    public String nextName() {
+        return WORDS[mRandom.nextInt(WORDS.length)] + " " + WORDS[mRandom.nextInt(WORDS.length)]
+                + " " + (1 + mRandom.nextInt(1000));
+    }
+
+    public int nextInt(int bound) {
+        return mRandom.nextInt(bound);
+    }
+}
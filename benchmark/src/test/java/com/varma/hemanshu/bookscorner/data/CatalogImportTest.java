@@ -0,0 +1,355 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports of {@link BookCatalogImporter}: the rows the provider rejects, the resume of an
+ * interrupted import, and the heap used by a large file. Runs on Robolectric, the importer
+ * builds ContentValues and calls the provider through a ContentResolver.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogImportTest {
+
+    private static final int CHUNK_SIZE = 100;
+
+    private static final String HEADER = "name,price,quantity,supplier,phone\n";
+
+    /**
+     * Book name the provider below rejects
+     */
+    private static final String REJECTED_NAME = "Rejected";
+
+    /**
+     * Rows of the generated file of the heap test, about 40 MB of text
+     */
+    private static final int LARGE_ROWS = 1000000;
+
+    /**
+     * Growth of the used heap allowed once the import is under way, far below the file
+     */
+    private static final long MAX_HEAP_GROWTH = 8 * 1024 * 1024;
+
+    /**
+     * Book provider rejecting the books named {@link #REJECTED_NAME} when inserting them, where
+     * the importer accepts them.
+     */
+    public static class RejectingBookProvider extends BookProvider {
+        @Override
+        public Bundle call(String method, String arg, Bundle extras) {
+            if (BookEntry.METHOD_BULK_INSERT.equals(method)) {
+                for (Parcelable parcelable : extras.getParcelableArray(BookEntry.EXTRA_VALUES)) {
+                    ContentValues values = (ContentValues) parcelable;
+                    if (REJECTED_NAME.equals(values.getAsString(BookEntry.COLUMN_BOOK_NAME))) {
+                        values.put(BookEntry.COLUMN_BOOK_PRICE, -1);
+                    }
+                }
+            }
+            return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Provider counting the rows it is sent without keeping them, so the heap measured is the
+     * one of the importer.
+     */
+    public static class CountingProvider extends ContentProvider {
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Bundle call(String method, String arg, Bundle extras) {
+            Bundle result = new Bundle();
+            result.putInt(BookEntry.EXTRA_ROWS_INSERTED,
+                    extras.getParcelableArray(BookEntry.EXTRA_VALUES).length);
+            result.putIntArray(BookEntry.EXTRA_REJECTED_ROWS, new int[0]);
+            result.putStringArrayList(BookEntry.EXTRA_REJECTED_REASONS, new ArrayList<String>());
+            return result;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    /**
+     * Catalog generated as it is read, so the file itself is never held in memory.
+     */
+    private static class GeneratedCatalog extends Reader {
+        private final int mRows;
+        private int mRow = -1;
+        private String mLine = "";
+        private int mOffset;
+
+        GeneratedCatalog(int rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mOffset == mLine.length()) {
+                if (mRow == mRows) {
+                    return -1;
+                }
+                mLine = mRow < 0 ? HEADER : line(mRow);
+                mRow++;
+                mOffset = 0;
+            }
+            int count = Math.min(length, mLine.length() - mOffset);
+            mLine.getChars(mOffset, mOffset + count, buffer, offset);
+            mOffset += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Progress stored by the listener, as the import service does
+     */
+    private static class Checkpoints implements BookCatalogImporter.Listener {
+        final BookCatalogImporter.Progress saved = new BookCatalogImporter.Progress();
+        final List<Long> rejectedRows = new ArrayList<>();
+        /**
+         * Chunk after whose commit the process dies before storing the progress, -1 for none
+         */
+        int crashAtChunk = -1;
+        int chunks;
+
+        @Override
+        public void onChunkCommitted(BookCatalogImporter.Progress progress) {
+            if (chunks++ == crashAtChunk) {
+                throw new IllegalStateException("Crash");
+            }
+            saved.importId = progress.importId;
+            saved.position = progress.position;
+            saved.rowsRead = progress.rowsRead;
+            saved.rowsImported = progress.rowsImported;
+            saved.rowsRejected = progress.rowsRejected;
+        }
+
+        @Override
+        public void onRowRejected(long rowNumber, String reason) {
+            rejectedRows.add(rowNumber);
+        }
+    }
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider(RejectingBookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void reportsRowsRejectedByProvider() throws IOException {
+        StringBuilder file = new StringBuilder(HEADER);
+        for (int i = 1; i <= 250; i++) {
+            file.append(i % 40 == 0 ? REJECTED_NAME : "Book " + i)
+                    .append(",100,5,Supplier,12345\n");
+        }
+        Checkpoints listener = new Checkpoints();
+        BookCatalogImporter.Progress progress = new BookCatalogImporter(mResolver, CHUNK_SIZE)
+                .importCatalog(new StringReader(file.toString()), ',',
+                        new BookCatalogImporter.Progress(), listener);
+
+        List<Long> expected = new ArrayList<>();
+        for (long row = 40; row <= 250; row += 40) {
+            expected.add(row);
+        }
+        assertEquals(expected, listener.rejectedRows);
+        assertEquals(expected.size(), progress.rowsRejected);
+        assertEquals(250 - expected.size(), progress.rowsImported);
+        assertEquals(250 - expected.size(), bookCount());
+    }
+
+    @Test
+    public void resumeAfterChunkCommittedInPartDoesNotDuplicate() throws IOException {
+        String file = catalog(350);
+        BookCatalogImporter importer = new BookCatalogImporter(mResolver, CHUNK_SIZE);
+
+        // The first 250 rows of the file were committed, the last 50 of them as the part of
+        // the third chunk a yield committed before the process died
+        Checkpoints listener = new Checkpoints();
+        importer.importCatalog(new StringReader(file.substring(0, lineEnd(file, 250))), ',',
+                new BookCatalogImporter.Progress(), listener);
+        assertEquals(250, bookCount());
+        BookCatalogImporter.Progress resumed = copyBefore(listener.saved, file, 200);
+
+        BookCatalogImporter.Progress progress = importer.importCatalog(new StringReader(file),
+                ',', resumed, new Checkpoints());
+        assertEquals(350, bookCount());
+        assertEquals(350, progress.rowsImported);
+        assertEquals(0, progress.rowsRejected);
+    }
+
+    @Test
+    public void resumeAfterLostCheckpointDoesNotDuplicate() throws IOException {
+        String file = catalog(350);
+        BookCatalogImporter importer = new BookCatalogImporter(mResolver, CHUNK_SIZE);
+
+        // The third chunk is committed, its checkpoint is never stored
+        Checkpoints listener = new Checkpoints();
+        listener.crashAtChunk = 2;
+        try {
+            importer.importCatalog(new StringReader(file), ',',
+                    new BookCatalogImporter.Progress(), listener);
+            fail("Import went on after the crash");
+        } catch (IllegalStateException expected) {
+            // Killed
+        }
+        assertEquals(300, bookCount());
+        assertEquals(200, listener.saved.rowsRead);
+
+        listener.crashAtChunk = -1;
+        BookCatalogImporter.Progress progress = importer.importCatalog(new StringReader(file),
+                ',', listener.saved, listener);
+        assertEquals(350, bookCount());
+        assertEquals(350, progress.rowsImported);
+    }
+
+    @Test
+    public void heapStaysConstantOnLargeFile() throws IOException {
+        Robolectric.buildContentProvider(CountingProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY);
+        final int chunks = LARGE_ROWS / BookCatalogImporter.DEFAULT_CHUNK_SIZE;
+        final long[] heap = new long[10];
+        BookCatalogImporter.Progress progress = new BookCatalogImporter(mResolver,
+                BookCatalogImporter.DEFAULT_CHUNK_SIZE).importCatalog(
+                new GeneratedCatalog(LARGE_ROWS), ',', new BookCatalogImporter.Progress(),
+                new BookCatalogImporter.Listener() {
+                    int mChunk;
+
+                    @Override
+                    public void onChunkCommitted(BookCatalogImporter.Progress progress) {
+                        // Sampled at every tenth of the file
+                        if (mChunk % (chunks / heap.length) == 0
+                                && mChunk / (chunks / heap.length) < heap.length) {
+                            heap[mChunk / (chunks / heap.length)] = usedHeap();
+                        }
+                        mChunk++;
+                    }
+
+                    @Override
+                    public void onRowRejected(long rowNumber, String reason) {
+                        fail("Rejected row " + rowNumber + ": " + reason);
+                    }
+                });
+        assertEquals(LARGE_ROWS, progress.rowsImported);
+
+        // From the first tenth on, once the chunk and the buffers were allocated
+        long baseline = heap[1];
+        for (int i = 2; i < heap.length; i++) {
+            assertTrue("Heap grew by " + (heap[i] - baseline) + " bytes at " + i + "0% of the "
+                    + "file", heap[i] - baseline < MAX_HEAP_GROWTH);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String catalog(int rows) {
+        StringBuilder file = new StringBuilder(HEADER);
+        for (int i = 0; i < rows; i++) {
+            file.append(line(i));
+        }
+        return file.toString();
+    }
+
+    private static String line(int row) {
+        return "Book " + row + "," + (100 + row % 900) + "," + row % 50 + ",Supplier "
+                + row % 20 + ",98765" + row % 20 + "\n";
+    }
+
+    /**
+     * @return the offset in the file right after the given number of rows.
+     */
+    private static int lineEnd(String file, int rows) {
+        int offset = file.indexOf('\n') + 1;
+        for (int i = 0; i < rows; i++) {
+            offset = file.indexOf('\n', offset) + 1;
+        }
+        return offset;
+    }
+
+    /**
+     * @return the progress of the given import right after the given number of rows.
+     */
+    private static BookCatalogImporter.Progress copyBefore(BookCatalogImporter.Progress saved,
+                                                           String file, int rows) {
+        BookCatalogImporter.Progress progress = new BookCatalogImporter.Progress();
+        progress.importId = saved.importId;
+        progress.position = lineEnd(file, rows);
+        progress.rowsRead = rows;
+        progress.rowsImported = rows;
+        return progress;
+    }
+
+    private int bookCount() {
+        Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, new String[]{BookEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
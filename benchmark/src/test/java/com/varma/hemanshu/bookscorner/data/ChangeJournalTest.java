@@ -0,0 +1,90 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.ChangeEntry;
+import com.varma.hemanshu.bookscorner.data.SummaryConsistencyTest.OpenBookProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Size of the change journal while the provider stays open, written to by batches and by
+ * single rows far past {@link ChangeEntry#MAX_ENTRIES} changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChangeJournalTest {
+
+    private static final int BATCH_ROWS = 2000;
+
+    /**
+     * Journal size a write may leave, the compaction running once it is a tenth over the limit
+     */
+    private static final long MAX_SIZE = ChangeEntry.MAX_ENTRIES + ChangeEntry.MAX_ENTRIES / 10;
+
+    private OpenBookProvider mProvider;
+    private ContentResolver mResolver;
+    private SyntheticCatalog mCatalog;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(OpenBookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mCatalog = new SyntheticCatalog(SyntheticCatalog.SEED, BATCH_ROWS);
+    }
+
+    @Test
+    public void batchesKeepJournalBounded() {
+        for (int i = 0; i < 3 * ChangeEntry.MAX_ENTRIES / BATCH_ROWS; i++) {
+            mResolver.bulkInsert(BookEntry.CONTENT_URI, mCatalog.nextBooks(BATCH_ROWS));
+            assertTrue("Journal of " + journalSize() + " changes after batch " + i,
+                    journalSize() <= MAX_SIZE);
+        }
+        assertLastChangeKept();
+    }
+
+    @Test
+    public void singleWritesKeepJournalBounded() {
+        mResolver.bulkInsert(BookEntry.CONTENT_URI, mCatalog.nextBooks(BATCH_ROWS));
+        for (int i = 0; i < 2 * ChangeEntry.MAX_ENTRIES; i++) {
+            ContentValues values = new ContentValues();
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, i % 100);
+            mResolver.update(ContentUris.withAppendedId(BookEntry.CONTENT_URI,
+                    1 + i % BATCH_ROWS), values, null, null);
+            if (i % 1000 == 0) {
+                assertTrue("Journal of " + journalSize() + " changes after write " + i,
+                        journalSize() <= MAX_SIZE);
+            }
+        }
+        assertLastChangeKept();
+    }
+
+    /**
+     * Checks the compaction kept the newest changes, with no gap in their sequences.
+     */
+    private void assertLastChangeKept() {
+        long range = DatabaseUtils.longForQuery(mProvider.dbHelper.getReadableDatabase(),
+                "SELECT max(" + ChangeEntry._ID + ") - min(" + ChangeEntry._ID + ") + 1 FROM "
+                        + ChangeEntry.TABLE_NAME, null);
+        assertEquals(journalSize(), range);
+        assertTrue(journalSize() >= ChangeEntry.MAX_ENTRIES);
+    }
+
+    private long journalSize() {
+        return DatabaseUtils.queryNumEntries(mProvider.dbHelper.getReadableDatabase(),
+                ChangeEntry.TABLE_NAME);
+    }
+}
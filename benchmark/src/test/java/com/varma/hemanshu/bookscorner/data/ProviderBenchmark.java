@@ -0,0 +1,288 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.varma.hemanshu.bookscorner.benchmark.BenchmarkResults;
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SupplierEntry;
+import com.varma.hemanshu.bookscorner.data.SummaryConsistencyTest.OpenBookProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes and reads of {@link BookProvider} over a seeded catalog of each size, along with the
+ * size of the database file. The operations run in order on the same catalog, deleting all
+ * the books last.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class ProviderBenchmark {
+
+    private static final int SEED_CHUNK = 10000;
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 1000;
+    private static final int SCREEN_ROWS = 20;
+
+    private static final String[] LIST_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static Collection<Object[]> parameters() {
+        return SyntheticCatalog.sizes();
+    }
+
+    private final int mRows;
+    private OpenBookProvider mProvider;
+    private ContentResolver mResolver;
+
+    public ProviderBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(OpenBookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void provider() throws Exception {
+        final BenchmarkResults results = new BenchmarkResults("ProviderBenchmark-" + mRows);
+        final SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.SEED, mRows);
+
+        // Seeding is measured too, one bulk insert per chunk
+        int chunks = (mRows + SEED_CHUNK - 1) / SEED_CHUNK;
+        final int chunk = Math.min(mRows, SEED_CHUNK);
+        results.measure("bulk_insert", mRows, 0, chunks, chunk, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.bulkInsert(BookEntry.CONTENT_URI, catalog.nextBooks(chunk));
+            }
+        });
+        // Books, their suppliers, search index, journal and sync columns
+        mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_CHECKPOINT,
+                BookEntry.CHECKPOINT_RESTART, null);
+        File database = RuntimeEnvironment.application.getDatabasePath("books.db");
+        results.record("database_size", mRows, BenchmarkResults.UNIT_BYTES, database.length());
+
+        results.measure("insert", mRows, WARMUP, ITERATIONS, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.insert(BookEntry.CONTENT_URI, catalog.nextBook());
+            }
+        });
+
+        // An edit of the quantity alone, through the provider
+        results.measure("update_quantity", mRows, WARMUP, ITERATIONS, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_QUANTITY, catalog.nextInt(200));
+                mResolver.update(randomBook(catalog), values, null, null);
+            }
+        });
+
+        // The same update on the database, through the compiled statement and through
+        // SQLiteDatabase.update, which builds and binds its statement on every call
+        final BookStatements statements = new BookStatements(mProvider.dbHelper);
+        results.measure("update_quantity_statement", mRows, WARMUP, ITERATIONS, 1,
+                new BenchmarkResults.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        statements.updateQuantity(1 + catalog.nextInt(mRows),
+                                catalog.nextInt(200));
+                    }
+                });
+        final SQLiteDatabase database = mProvider.dbHelper.getWritableDatabase();
+        results.measure("update_quantity_database", mRows, WARMUP, ITERATIONS, 1,
+                new BenchmarkResults.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        ContentValues values = new ContentValues();
+                        values.put(BookEntry.COLUMN_BOOK_QUANTITY, catalog.nextInt(200));
+                        database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + "=?",
+                                new String[]{String.valueOf(1 + catalog.nextInt(mRows))});
+                    }
+                });
+
+        // The decrement along with the sale in the ledger and its rollups
+        results.measure("sell", mRows, WARMUP, ITERATIONS, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                Bundle extras = new Bundle();
+                extras.putLong(BookEntry.EXTRA_BOOK_ID, 1 + catalog.nextInt(mRows));
+                mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_SELL, null, extras);
+            }
+        });
+
+        // Through SQLiteDatabase.update, also updating the search index
+        results.measure("update_name", mRows, WARMUP, ITERATIONS, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_NAME, catalog.nextName());
+                mResolver.update(randomBook(catalog), values, null, null);
+            }
+        });
+
+        // Renaming a supplier journals and marks dirty all its books, about a hundred
+        final int suppliers = Math.max(10, mRows / 100);
+        results.measure("update_supplier", mRows, 5, 50, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier renamed " + iteration);
+                mResolver.update(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI,
+                        1 + catalog.nextInt(suppliers)), values, null, null);
+            }
+        });
+
+        // Mostly misses of the row cache on the larger catalogs
+        results.measure("query_by_id", mRows, WARMUP, ITERATIONS, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mResolver.query(randomBook(catalog), null, null, null, null));
+            }
+        });
+
+        final Uri cachedBook = randomBook(catalog);
+        results.measure("query_by_id_cached", mRows, WARMUP, ITERATIONS, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mResolver.query(cachedBook, null, null, null, null));
+            }
+        });
+
+        results.measure("search", mRows, 20, 200, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                String word = catalog.nextName().split(" ")[0];
+                readAll(mResolver.query(BookEntry.buildSearchUri(word), null, null, null, null));
+            }
+        });
+        // The first letters typed, each matching a large part of the catalog
+        for (final int length : new int[]{1, 2}) {
+            results.measure("search_prefix_" + length, mRows, 20, 200, 1,
+                    new BenchmarkResults.Operation() {
+                        @Override
+                        public void run(int iteration) {
+                            String prefix = catalog.nextName().substring(0, length);
+                            readAll(mResolver.query(BookEntry.buildSearchUri(prefix),
+                                    null, null, null, null));
+                        }
+                    });
+        }
+
+        // The first screen of the list and a screen from its middle, read a chunk at a time
+        final int total = mRows + WARMUP + ITERATIONS;
+        for (final String mode : new String[]{BookEntry.LIST_MODE_ADDED, BookEntry.LIST_MODE_NAME}) {
+            results.measure("list_first_screen_" + mode, mRows, WARMUP, ITERATIONS, 1,
+                    new BenchmarkResults.Operation() {
+                        @Override
+                        public void run(int iteration) {
+                            assertEquals(SCREEN_ROWS, readScreen(listCursor(mode), 0));
+                        }
+                    });
+            results.measure("list_middle_screen_" + mode, mRows, 5, 50, 1,
+                    new BenchmarkResults.Operation() {
+                        @Override
+                        public void run(int iteration) {
+                            assertEquals(SCREEN_ROWS, readScreen(listCursor(mode), total / 2));
+                        }
+                    });
+        }
+
+        // The whole list, as the list screen reads it
+        int iterations = mRows >= 1000000 ? 3 : mRows >= 100000 ? 5 : 20;
+        results.measure("query_all", mRows, 1, iterations, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(total, readAll(mResolver.query(
+                        BookEntry.buildListUri(BookEntry.LIST_MODE_ADDED, null),
+                        LIST_PROJECTION, null, null, null)));
+            }
+        });
+
+        results.measure("delete_all", mRows, 0, 1, 1, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(total, mResolver.delete(BookEntry.CONTENT_URI, null, null));
+            }
+        });
+
+        results.finish();
+    }
+
+    /**
+     * @return uri of one of the seeded books, their ids start at 1.
+     */
+    private Uri randomBook(SyntheticCatalog catalog) {
+        return ContentUris.withAppendedId(BookEntry.CONTENT_URI, 1 + catalog.nextInt(mRows));
+    }
+
+    private Cursor listCursor(String mode) {
+        return mResolver.query(BookEntry.buildListUri(mode, null), LIST_PROJECTION,
+                null, null, null);
+    }
+
+    /**
+     * Reads every column of a screen of rows from the position and closes the cursor.
+     *
+     * @return number of rows read.
+     */
+    private static int readScreen(Cursor cursor, int position) {
+        try {
+            int columns = cursor.getColumnCount();
+            int read = 0;
+            if (cursor.moveToPosition(position)) {
+                do {
+                    for (int i = 0; i < columns; i++) {
+                        cursor.getString(i);
+                    }
+                    read++;
+                } while (read < SCREEN_ROWS && cursor.moveToNext());
+            }
+            return read;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads every column of every row and closes the cursor.
+     *
+     * @return number of rows read.
+     */
+    private static int readAll(Cursor cursor) {
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    cursor.getString(i);
+                }
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.varma.hemanshu.bookscorner.benchmark.BenchmarkResults;
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.ChangeEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SaleEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SalesRollupEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SummaryEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SupplierEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.TombstoneEntry;
+import com.varma.hemanshu.bookscorner.sync.SyncEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Query plans of the queries the app makes through {@link BookProvider}: the loaders of the
+ * activities, the paging, the sync, the change journal and the sales reports. The SQL the provider runs for
+ * each one is explained on a seeded catalog of each size. A query expected to seek fails on
+ * a SCAN of a table, and any query fails on a temp B-tree sorting more than it is allowed to.
+ * The plan and the time of every query go to the benchmark results.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class QueryPlanTest {
+
+    /**
+     * What a query may sort with a temp B-tree: nothing, only the rows of equal sort keys of
+     * a keyset page, or all the rows it matched through an index.
+     */
+    private static final int SORTS_NOTHING = 0;
+    private static final int SORTS_TIES = 1;
+    private static final int SORTS_MATCHES = 2;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String[] LIST_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    private static final String[] EDITOR_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
+
+    private static final String[] SYNC_UPLOAD_PROJECTION = {BookEntry._ID,
+            BookEntry.COLUMN_BOOK_SYNC_ID,
+            BookEntry.COLUMN_BOOK_VERSION,
+            BookEntry.COLUMN_BOOK_DIRTY,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO};
+
+    /**
+     * {@link BookProvider} keeping the SQL of the queries it runs.
+     */
+    public static class TracingBookProvider extends BookProvider {
+
+        final List<String> queries = new ArrayList<>();
+        BookDbHelper dbHelper;
+
+        @Override
+        BookDbHelper createDbHelper() {
+            dbHelper = new BookDbHelper(getContext(), new SQLiteDatabase.CursorFactory() {
+                @Override
+                public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                        String editTable, SQLiteQuery query) {
+                    synchronized (queries) {
+                        // "SQLiteQuery: " followed by the SQL
+                        queries.add(query.toString().substring(query.toString().indexOf(' ') + 1));
+                    }
+                    return new SQLiteCursor(masterQuery, editTable, query);
+                }
+            });
+            return dbHelper;
+        }
+
+        List<String> takeQueries() {
+            synchronized (queries) {
+                List<String> taken = new ArrayList<>(queries);
+                queries.clear();
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * A query of the app, with the plan it is expected to have.
+     */
+    private static class Shape {
+        final String name;
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        // Reads the rows in index order from the first one, all of them or a page
+        boolean scans;
+        int sorts = SORTS_NOTHING;
+
+        Shape(String name, Uri uri, String[] projection, String selection, String... selectionArgs) {
+            this.name = name;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs.length == 0 ? null : selectionArgs;
+        }
+
+        Shape scans() {
+            scans = true;
+            return this;
+        }
+
+        Shape sorts(int sorts) {
+            this.sorts = sorts;
+            return this;
+        }
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static Collection<Object[]> parameters() {
+        return SyntheticCatalog.sizes();
+    }
+
+    private final int mRows;
+    private TracingBookProvider mProvider;
+    private ContentResolver mResolver;
+
+    public QueryPlanTest(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(TracingBookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.SEED, mRows);
+        for (int seeded = 0; seeded < mRows; seeded += 10000) {
+            mResolver.bulkInsert(BookEntry.CONTENT_URI,
+                    catalog.nextBooks(Math.min(10000, mRows - seeded)));
+        }
+        // Some deleted books waiting for their upload
+        mResolver.delete(ContentUris.withAppendedId(BookEntry.CONTENT_URI, mRows), null, null);
+        // Some sales in the ledger and its rollups
+        for (int id = 1; id <= 100; id++) {
+            Bundle extras = new Bundle();
+            extras.putLong(BookEntry.EXTRA_BOOK_ID, id);
+            mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_SELL, null, extras);
+        }
+    }
+
+    @Test
+    public void queryPlans() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+
+        // MainActivity, the list in each mode, searched, and the summary
+        for (String mode : new String[]{BookEntry.LIST_MODE_ADDED, BookEntry.LIST_MODE_NAME,
+                BookEntry.LIST_MODE_PRICE, BookEntry.LIST_MODE_QUANTITY}) {
+            shapes.add(new Shape("list " + mode, BookEntry.buildListUri(mode, null),
+                    LIST_PROJECTION, null).scans());
+        }
+        shapes.add(new Shape("list low_stock",
+                BookEntry.buildListUri(BookEntry.LIST_MODE_LOW_STOCK, null), LIST_PROJECTION, null));
+        // A supplier name may have several phones, so the books of all of them get sorted
+        shapes.add(new Shape("list supplier", BookEntry.buildListUri(null, "Supplier 3"),
+                LIST_PROJECTION, null).sorts(SORTS_MATCHES));
+        shapes.add(new Shape("list supplier price",
+                BookEntry.buildListUri(BookEntry.LIST_MODE_PRICE, "Supplier 3"),
+                LIST_PROJECTION, null).sorts(SORTS_MATCHES));
+        // Name matches then the other ones, newest first from the index, whatever the prefix
+        for (String query : new String[]{"river", "d", "da", "supp"}) {
+            shapes.add(new Shape("search " + query, BookEntry.buildSearchUri(query),
+                    LIST_PROJECTION, null));
+        }
+        // A single row
+        shapes.add(new Shape("summary", SummaryEntry.CONTENT_URI, null, null).scans());
+
+        // BooksEditorActivity
+        shapes.add(new Shape("book", ContentUris.withAppendedId(BookEntry.CONTENT_URI, mRows / 2),
+                EDITOR_PROJECTION, null));
+
+        // Keyset pages, the first ones and the ones after them, both ways
+        for (String column : new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_NAME,
+                BookEntry.COLUMN_BOOK_PRICE, BookEntry.COLUMN_BOOK_QUANTITY}) {
+            int sorts = BookEntry._ID.equals(column) ? SORTS_NOTHING : SORTS_TIES;
+            for (boolean descending : new boolean[]{false, true}) {
+                String name = column + (descending ? " desc" : "");
+                Shape first = new Shape("page " + name,
+                        BookEntry.buildFirstPageUri(column, descending, PAGE_SIZE),
+                        LIST_PROJECTION, null).scans().sorts(sorts);
+                shapes.add(first);
+                shapes.add(new Shape("next page " + name, nextPage(first), LIST_PROJECTION, null)
+                        .sorts(sorts));
+            }
+        }
+        // The supplier name is in another table, so the first page sorts all the books
+        Shape supplierPage = new Shape("page supplier_name",
+                BookEntry.buildFirstPageUri(BookEntry.COLUMN_BOOK_SUPPLIER_NAME, PAGE_SIZE),
+                EDITOR_PROJECTION, null).scans().sorts(SORTS_MATCHES);
+        shapes.add(supplierPage);
+        shapes.add(new Shape("next page supplier_name", nextPage(supplierPage),
+                EDITOR_PROJECTION, null).sorts(SORTS_TIES));
+
+        // SyncEngine
+        Shape upload = new Shape("sync upload",
+                BookEntry.buildFirstPageUri(null, SyncEngine.UPLOAD_BATCH_SIZE),
+                SYNC_UPLOAD_PROJECTION, BookEntry.COLUMN_BOOK_DIRTY + " > 0").scans();
+        shapes.add(upload);
+        shapes.add(new Shape("sync next upload", nextPage(upload), SYNC_UPLOAD_PROJECTION,
+                BookEntry.COLUMN_BOOK_DIRTY + " > 0"));
+        shapes.add(new Shape("sync local state", BookEntry.CONTENT_URI,
+                new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_SYNC_ID,
+                        BookEntry.COLUMN_BOOK_VERSION, BookEntry.COLUMN_BOOK_DIRTY},
+                BookEntry.COLUMN_BOOK_SYNC_ID + " IN (?,?)", "a", "b"));
+        shapes.add(new Shape("sync tombstones", TombstoneEntry.CONTENT_URI,
+                new String[]{TombstoneEntry.COLUMN_SYNC_ID, TombstoneEntry.COLUMN_VERSION},
+                null).scans());
+        shapes.add(new Shape("sync known tombstones", TombstoneEntry.CONTENT_URI,
+                new String[]{TombstoneEntry.COLUMN_SYNC_ID},
+                TombstoneEntry.COLUMN_SYNC_ID + " IN (?,?)", "a", "b"));
+
+        // Sales reports over a year, by book and of all books
+        long now = System.currentTimeMillis();
+        long yearAgo = now - 365 * SalesRollupEntry.DAY_MILLIS;
+        shapes.add(new Shape("sales daily book", SalesRollupEntry.buildReportUri(
+                SalesRollupEntry.DAILY_URI, 1, yearAgo, now), null, null));
+        shapes.add(new Shape("sales daily", SalesRollupEntry.buildReportUri(
+                SalesRollupEntry.DAILY_URI, -1, yearAgo, now), null, null));
+        shapes.add(new Shape("sales hourly book", SalesRollupEntry.buildReportUri(
+                SalesRollupEntry.HOURLY_URI, 1, now - SalesRollupEntry.DAY_MILLIS, now), null, null));
+        shapes.add(new Shape("sales of book", SaleEntry.CONTENT_URI, null,
+                SaleEntry.COLUMN_BOOK_ID + " = ?", "1"));
+
+        // Change journal and suppliers
+        shapes.add(new Shape("changes", ChangeEntry.buildChangesUri(mRows / 2), null, null));
+        shapes.add(new Shape("suppliers", SupplierEntry.CONTENT_URI, null, null).scans());
+        shapes.add(new Shape("supplier", ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, 1),
+                null, null));
+
+        BenchmarkResults results = new BenchmarkResults("QueryPlanTest-" + mRows);
+        StringBuilder failures = new StringBuilder();
+        for (final Shape shape : shapes) {
+            mProvider.takeQueries();
+            readAll(query(shape));
+            List<String> queries = mProvider.takeQueries();
+            assertFalse(shape.name + " ran no query", queries.isEmpty());
+
+            List<String> plan = new ArrayList<>();
+            for (String sql : queries) {
+                for (String detail : explain(sql)) {
+                    plan.add(detail);
+                    String failure = check(shape, detail);
+                    if (failure != null) {
+                        failures.append('\n').append(shape.name).append(": ").append(failure)
+                                .append(" in ").append(sql);
+                    }
+                }
+            }
+
+            int iterations = !shape.scans || shape.uri.getQueryParameter(
+                    BookEntry.QUERY_PARAM_PAGE_SIZE) != null ? 100
+                    : mRows >= 1000000 ? 3 : mRows >= 100000 ? 5 : 20;
+            results.measure(shape.name, mRows, iterations / 10, iterations, 1,
+                    new BenchmarkResults.Operation() {
+                        @Override
+                        public void run(int iteration) {
+                            readAll(query(shape));
+                        }
+                    }).put("plan", TextUtils.join("; ", plan));
+        }
+        results.finish();
+        if (failures.length() > 0) {
+            fail("Unexpected query plans:" + failures);
+        }
+    }
+
+    /**
+     * The first descending pages by id hold the first books of the list newest first, and
+     * the descending pages by name follow one another without a gap or a repeat.
+     */
+    @Test
+    public void descendingPages() {
+        Cursor list = mResolver.query(BookEntry.buildListUri(BookEntry.LIST_MODE_ADDED, null),
+                LIST_PROJECTION, null, null, null);
+        long[] listIds = new long[3 * PAGE_SIZE];
+        for (int i = 0; i < listIds.length && list.moveToPosition(i); i++) {
+            listIds[i] = list.getLong(0);
+        }
+        list.close();
+        Uri pageUri = BookEntry.buildFirstPageUri(null, true, PAGE_SIZE);
+        int position = 0;
+        for (int page = 0; page < 3 && pageUri != null; page++) {
+            Cursor cursor = mResolver.query(pageUri, LIST_PROJECTION, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    assertEquals("Page row " + position, listIds[position++], cursor.getLong(0));
+                }
+                pageUri = nextPageUri(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        pageUri = BookEntry.buildFirstPageUri(BookEntry.COLUMN_BOOK_NAME, true, PAGE_SIZE);
+        String lastName = null;
+        long lastId = 0;
+        for (int page = 0; page < 3 && pageUri != null; page++) {
+            Cursor cursor = mResolver.query(pageUri, LIST_PROJECTION, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String name = cursor.getString(1);
+                    long id = cursor.getLong(0);
+                    if (lastName != null) {
+                        int order = name.compareTo(lastName);
+                        assertTrue(name + " " + id + " after " + lastName + " " + lastId,
+                                order < 0 || (order == 0 && id < lastId));
+                    }
+                    lastName = name;
+                    lastId = id;
+                }
+                pageUri = nextPageUri(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private static Uri nextPageUri(Cursor cursor) {
+        String next = cursor.getExtras().getString(BookEntry.EXTRA_NEXT_PAGE_URI);
+        return next == null ? null : Uri.parse(next);
+    }
+
+    /**
+     * @return why the step of the plan is not expected for the shape, null when it is.
+     */
+    private static String check(Shape shape, String detail) {
+        if (detail.contains("AUTOMATIC")) {
+            return "index built for the query";
+        }
+        if (detail.startsWith("SCAN ") && !detail.contains("VIRTUAL TABLE INDEX") && !shape.scans) {
+            return detail;
+        }
+        if (detail.contains("TEMP B-TREE")) {
+            boolean ties = detail.contains("RIGHT PART OF ORDER BY");
+            if (shape.sorts == SORTS_NOTHING || (shape.sorts == SORTS_TIES && !ties)) {
+                return detail;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the detail of every step of the plan of the query, its arguments bound to 1.
+     */
+    private List<String> explain(String sql) {
+        String[] args = new String[sql.length() - sql.replace("?", "").length()];
+        Arrays.fill(args, "1");
+        Cursor cursor = mProvider.dbHelper.getReadableDatabase()
+                .rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            List<String> details = new ArrayList<>();
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex));
+            }
+            return details;
+        } finally {
+            cursor.close();
+            mProvider.takeQueries();
+        }
+    }
+
+    private Cursor query(Shape shape) {
+        return mResolver.query(shape.uri, shape.projection, shape.selection, shape.selectionArgs,
+                null);
+    }
+
+    /**
+     * @return uri of the page after the first one of the shape.
+     */
+    private Uri nextPage(Shape first) {
+        Cursor cursor = query(first);
+        try {
+            String next = cursor.getExtras().getString(BookEntry.EXTRA_NEXT_PAGE_URI);
+            if (next == null) {
+                fail(first.name + " has a single page");
+            }
+            return Uri.parse(next);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void readAll(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
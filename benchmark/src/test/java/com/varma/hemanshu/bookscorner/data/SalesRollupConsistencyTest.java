@@ -0,0 +1,183 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SaleEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SalesRollupEntry;
+import com.varma.hemanshu.bookscorner.data.SummaryConsistencyTest.OpenBookProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * The hourly and daily sales kept by the triggers against the same buckets aggregated over the
+ * whole ledger, for sales made in zones with daylight saving time and with offsets that are
+ * not whole hours.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SalesRollupConsistencyTest {
+
+    private static final int BOOKS = 50;
+    private static final int SALES = 5000;
+    private static final int SELLS = 200;
+
+    private static final String[] ZONES = {"UTC", "America/New_York", "Asia/Kolkata",
+            "Asia/Kathmandu", "Australia/Lord_Howe"};
+
+    private OpenBookProvider mProvider;
+    private ContentResolver mResolver;
+    private SyntheticCatalog mCatalog;
+    private TimeZone mDefaultZone;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(OpenBookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mCatalog = new SyntheticCatalog(SyntheticCatalog.SEED, BOOKS);
+        mDefaultZone = TimeZone.getDefault();
+
+        ContentValues[] books = mCatalog.nextBooks(BOOKS);
+        for (ContentValues book : books) {
+            // Enough for every sale of the test
+            book.put(BookEntry.COLUMN_BOOK_QUANTITY, SALES * 10);
+        }
+        mResolver.bulkInsert(BookEntry.CONTENT_URI, books);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultZone);
+    }
+
+    @Test
+    public void rollupsMatchLedger() {
+        // Sales made now through the provider, in the zone of the device
+        for (int i = 0; i < SELLS; i++) {
+            TimeZone.setDefault(TimeZone.getTimeZone(ZONES[i % ZONES.length]));
+            Bundle extras = new Bundle();
+            extras.putLong(BookEntry.EXTRA_BOOK_ID, 1 + mCatalog.nextInt(BOOKS));
+            extras.putInt(BookEntry.EXTRA_COUNT, 1 + mCatalog.nextInt(3));
+            mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_SELL, null, extras);
+        }
+
+        // Sales spread over a year, each in one of the zones
+        BookStatements statements = new BookStatements(mProvider.dbHelper);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < SALES; i++) {
+            long soldAt = now - (long) mCatalog.nextInt(365 * 24 * 60) * 60 * 1000;
+            TimeZone zone = TimeZone.getTimeZone(ZONES[mCatalog.nextInt(ZONES.length)]);
+            statements.recordSale(1 + mCatalog.nextInt(BOOKS), 1 + mCatalog.nextInt(5), soldAt,
+                    zone.getOffset(soldAt));
+        }
+
+        checkRollup(SalesRollupEntry.HOURLY_TABLE_NAME, SalesRollupEntry.HOUR_MILLIS);
+        checkRollup(SalesRollupEntry.DAILY_TABLE_NAME, SalesRollupEntry.DAY_MILLIS);
+    }
+
+    /**
+     * Sales on both sides of local midnight, and on the day the clocks move forward, fall in
+     * the bucket of their local date.
+     */
+    @Test
+    public void dailyBucketsAreLocalDates() {
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        TimeZone kolkata = TimeZone.getTimeZone("Asia/Kolkata");
+        BookStatements statements = new BookStatements(mProvider.dbHelper);
+        long[] soldAt = {
+                // The evening before daylight saving time starts
+                localTime(newYork, 2018, Calendar.MARCH, 10, 23, 30),
+                // The day it starts at 2:00, before and after
+                localTime(newYork, 2018, Calendar.MARCH, 11, 0, 30),
+                localTime(newYork, 2018, Calendar.MARCH, 11, 23, 30),
+                localTime(newYork, 2018, Calendar.MARCH, 12, 0, 30)};
+        for (long time : soldAt) {
+            statements.recordSale(1, 1, time, newYork.getOffset(time));
+        }
+        // Still the day before in UTC
+        long early = localTime(kolkata, 2018, Calendar.MARCH, 12, 0, 15);
+        statements.recordSale(2, 1, early, kolkata.getOffset(early));
+
+        List<String> expected = Arrays.asList(
+                "1 " + localDate(2018, Calendar.MARCH, 10) + " 1",
+                "1 " + localDate(2018, Calendar.MARCH, 11) + " 2",
+                "1 " + localDate(2018, Calendar.MARCH, 12) + " 1",
+                "2 " + localDate(2018, Calendar.MARCH, 12) + " 1");
+        assertEquals(expected, rows("SELECT " + SalesRollupEntry.COLUMN_BOOK_ID + ", "
+                + SalesRollupEntry.COLUMN_BUCKET + ", " + SalesRollupEntry.COLUMN_SALES + " FROM "
+                + SalesRollupEntry.DAILY_TABLE_NAME + " ORDER BY 1, 2"));
+    }
+
+    /**
+     * Compares every bucket of a rollup with the sales of the ledger grouped by the local
+     * time of each, cut to the size of the buckets.
+     */
+    private void checkRollup(String table, long bucketMillis) {
+        String localTime = "(" + SaleEntry.COLUMN_SOLD_AT + " + " + SaleEntry.COLUMN_UTC_OFFSET
+                + ")";
+        List<String> expected = rows("SELECT " + SaleEntry.COLUMN_BOOK_ID + ", "
+                + localTime + " - " + localTime + " % " + bucketMillis + " AS b, "
+                + "sum(" + SaleEntry.COLUMN_UNITS + "), "
+                + "sum(" + SaleEntry.COLUMN_UNITS + " * " + SaleEntry.COLUMN_PRICE + "), "
+                + "count(*) FROM " + SaleEntry.TABLE_NAME + " GROUP BY 1, b ORDER BY 1, b");
+        List<String> rollup = rows("SELECT " + SalesRollupEntry.COLUMN_BOOK_ID + ", "
+                + SalesRollupEntry.COLUMN_BUCKET + ", " + SalesRollupEntry.COLUMN_UNITS + ", "
+                + SalesRollupEntry.COLUMN_REVENUE + ", " + SalesRollupEntry.COLUMN_SALES
+                + " FROM " + table + " ORDER BY 1, 2");
+        assertFalse("No sale in " + table, rollup.isEmpty());
+        assertEquals("Book, bucket, units, revenue and sales of " + table, expected, rollup);
+    }
+
+    private List<String> rows(String sql) {
+        SQLiteDatabase db = mProvider.dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            List<String> rows = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(i == 0 ? "" : " ").append(cursor.getLong(i));
+                }
+                rows.add(row.toString());
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long localTime(TimeZone zone, int year, int month, int day, int hour,
+                                  int minute) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return the bucket of the given local date, its midnight read as a UTC time.
+     */
+    private static long localDate(int year, int month, int day) {
+        return localTime(TimeZone.getTimeZone("UTC"), year, month, day, 0, 0);
+    }
+}
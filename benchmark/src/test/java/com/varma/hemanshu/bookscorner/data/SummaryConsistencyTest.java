@@ -0,0 +1,218 @@
+package com.varma.hemanshu.bookscorner.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SummaryEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * The summary row kept by the triggers against the same totals computed over all the books,
+ * after each step of a random mix of the writes the app makes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SummaryConsistencyTest {
+
+    private static final int SEEDED = 2000;
+    private static final int OPERATIONS = 1000;
+    private static final int CHECK_EVERY = 50;
+    private static final int IMPORTED = 300;
+
+    private static final String SQL_RECOMPUTE = "SELECT count(*), "
+            + "ifnull(sum(" + BookEntry.COLUMN_BOOK_QUANTITY + "), 0), "
+            + "ifnull(sum(" + BookEntry.COLUMN_BOOK_PRICE + " * "
+            + BookEntry.COLUMN_BOOK_QUANTITY + "), 0), "
+            + "count(CASE WHEN " + BookEntry.COLUMN_BOOK_QUANTITY + " <= "
+            + BookEntry.LOW_STOCK_LIMIT + " THEN 1 END) FROM " + BookEntry.TABLE_NAME;
+
+    /**
+     * {@link BookProvider} giving access to its database.
+     */
+    public static class OpenBookProvider extends BookProvider {
+
+        BookDbHelper dbHelper;
+
+        @Override
+        BookDbHelper createDbHelper() {
+            dbHelper = super.createDbHelper();
+            return dbHelper;
+        }
+    }
+
+    private OpenBookProvider mProvider;
+    private ContentResolver mResolver;
+    private SyntheticCatalog mCatalog;
+    private int mRenames;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(OpenBookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mCatalog = new SyntheticCatalog(SyntheticCatalog.SEED, SEEDED);
+    }
+
+    @Test
+    public void summaryMatchesRecomputation() throws Exception {
+        checkSummary("empty");
+        mResolver.bulkInsert(BookEntry.CONTENT_URI, mCatalog.nextBooks(SEEDED));
+        checkSummary("bulk insert");
+        importCatalog();
+        checkSummary("import");
+
+        for (int i = 1; i <= OPERATIONS; i++) {
+            String operation = randomOperation();
+            if (i % CHECK_EVERY == 0) {
+                checkSummary(operation + " at " + i);
+            }
+        }
+        mResolver.delete(BookEntry.CONTENT_URI, BookEntry.COLUMN_BOOK_QUANTITY + " < ?",
+                new String[]{"20"});
+        checkSummary("mass delete");
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+        checkSummary("delete all");
+    }
+
+    /**
+     * Runs one write picked at random.
+     *
+     * @return the name of the write.
+     */
+    private String randomOperation() throws Exception {
+        long id = 1 + mCatalog.nextInt(maxId());
+        switch (mCatalog.nextInt(8)) {
+            case 0:
+                mResolver.insert(BookEntry.CONTENT_URI, mCatalog.nextBook());
+                return "insert";
+            case 1: {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_PRICE, 1 + mCatalog.nextInt(5000));
+                mResolver.update(bookUri(id), values, null, null);
+                return "price update";
+            }
+            case 2: {
+                // Often across the low stock limit
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_QUANTITY,
+                        mCatalog.nextInt(2 * BookEntry.LOW_STOCK_LIMIT));
+                mResolver.update(bookUri(id), values, null, null);
+                return "quantity update";
+            }
+            case 3:
+                mResolver.delete(bookUri(id), null, null);
+                return "delete";
+            case 4:
+            case 5: {
+                Bundle extras = new Bundle();
+                extras.putLong(BookEntry.EXTRA_BOOK_ID, id);
+                extras.putInt(BookEntry.EXTRA_COUNT, 1 + mCatalog.nextInt(3));
+                mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_SELL, null, extras);
+                return "sale";
+            }
+            case 6: {
+                ContentValues values = new ContentValues();
+                values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Renamed " + mRenames++);
+                mResolver.update(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI,
+                        1 + mCatalog.nextInt(10)), values, null, null);
+                return "supplier rename";
+            }
+            default: {
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                operations.add(ContentProviderOperation.newInsert(BookEntry.CONTENT_URI)
+                        .withValues(mCatalog.nextBook()).build());
+                operations.add(ContentProviderOperation.newUpdate(bookUri(id))
+                        .withValue(BookEntry.COLUMN_BOOK_QUANTITY, mCatalog.nextInt(200)).build());
+                operations.add(ContentProviderOperation.newDelete(bookUri(id + 1)).build());
+                mResolver.applyBatch(BookContract.CONTENT_AUTHORITY, operations);
+                return "batch";
+            }
+        }
+    }
+
+    /**
+     * Imports a catalog file with some invalid rows, in chunks.
+     */
+    private void importCatalog() throws Exception {
+        StringBuilder file = new StringBuilder("name,price,quantity,supplier,phone\n");
+        for (int i = 0; i < IMPORTED; i++) {
+            // Every twentieth row has no price
+            file.append("Imported ").append(i).append(',')
+                    .append(i % 20 == 0 ? "" : String.valueOf(1 + mCatalog.nextInt(5000)))
+                    .append(',').append(mCatalog.nextInt(50)).append(",Supplier ")
+                    .append(i % 10).append(",9000000000\n");
+        }
+        new BookCatalogImporter(mResolver, 64).importCatalog(new StringReader(file.toString()),
+                ',', new BookCatalogImporter.Progress(), new BookCatalogImporter.Listener() {
+                    @Override
+                    public void onChunkCommitted(BookCatalogImporter.Progress progress) {
+                    }
+
+                    @Override
+                    public void onRowRejected(long rowNumber, String reason) {
+                    }
+                });
+    }
+
+    private void checkSummary(String after) {
+        long[] expected = new long[4];
+        Cursor cursor = mProvider.dbHelper.getReadableDatabase().rawQuery(SQL_RECOMPUTE, null);
+        try {
+            cursor.moveToFirst();
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = cursor.getLong(i);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long[] summary = new long[4];
+        cursor = mResolver.query(SummaryEntry.CONTENT_URI, new String[]{SummaryEntry.COLUMN_TITLES,
+                        SummaryEntry.COLUMN_UNITS, SummaryEntry.COLUMN_STOCK_VALUE,
+                        SummaryEntry.COLUMN_LOW_STOCK}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            for (int i = 0; i < summary.length; i++) {
+                summary[i] = cursor.getLong(i);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertArrayEquals("Titles, units, stock value and low stock after " + after,
+                expected, summary);
+    }
+
+    private int maxId() {
+        Cursor cursor = mProvider.dbHelper.getReadableDatabase().rawQuery(
+                "SELECT ifnull(max(" + BookEntry._ID + "), 0) + 1 FROM " + BookEntry.TABLE_NAME,
+                null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri bookUri(long id) {
+        return ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
+    }
+}
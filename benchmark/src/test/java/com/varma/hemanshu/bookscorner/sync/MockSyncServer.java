@@ -0,0 +1,196 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * Local sync server speaking the protocol of {@link HttpSyncTransport}, keeping the books in
+ * memory. An upload is accepted when it is based on the version of the server, which then
+ * bumps it, and every accepted change is appended to the log downloads are read from.
+ * Failures can be queued, each one answering the next request in place of the server.
+ */
+class MockSyncServer {
+
+    private final MockWebServer mServer = new MockWebServer();
+    private final Map<String, BookRecord> mBooks = new HashMap<>();
+    private final List<String> mLog = new ArrayList<>();
+    private final Queue<MockResponse> mFailures = new ArrayDeque<>();
+
+    MockSyncServer() {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse failure = nextFailure();
+                if (failure != null) {
+                    return failure;
+                }
+                try {
+                    HttpUrl url = request.getRequestUrl();
+                    if ("POST".equals(request.getMethod())
+                            && "/books/upload".equals(url.encodedPath())) {
+                        return upload(request);
+                    }
+                    if ("GET".equals(request.getMethod()) && "/books".equals(url.encodedPath())) {
+                        String since = url.queryParameter("since");
+                        return download(since == null ? 0 : Integer.parseInt(since),
+                                Integer.parseInt(url.queryParameter("limit")));
+                    }
+                    return new MockResponse().setResponseCode(404);
+                } catch (IOException | RuntimeException e) {
+                    return new MockResponse().setResponseCode(500).setBody(e.toString());
+                }
+            }
+        });
+    }
+
+    void start() throws IOException {
+        mServer.start();
+    }
+
+    void shutdown() throws IOException {
+        mServer.shutdown();
+    }
+
+    String getBaseUrl() {
+        return mServer.url("/").toString();
+    }
+
+    /**
+     * Adds a book changed by another device.
+     */
+    synchronized void put(BookRecord record) {
+        record.version++;
+        mBooks.put(record.syncId, record);
+        mLog.add(record.syncId);
+    }
+
+    synchronized int size() {
+        return mBooks.size();
+    }
+
+    /**
+     * @return the server state of the book, null when the server never had it.
+     */
+    synchronized BookRecord get(String syncId) {
+        return mBooks.get(syncId);
+    }
+
+    /**
+     * Answers the next request with the given status instead of serving it.
+     *
+     * @param retryAfter value of the Retry-After header, null for none
+     */
+    synchronized void failNext(int status, String retryAfter) {
+        MockResponse response = new MockResponse().setResponseCode(status);
+        if (retryAfter != null) {
+            response.setHeader("Retry-After", retryAfter);
+        }
+        mFailures.add(response);
+    }
+
+    int getRequestCount() {
+        return mServer.getRequestCount();
+    }
+
+    private synchronized MockResponse nextFailure() {
+        return mFailures.poll();
+    }
+
+    private synchronized MockResponse upload(RecordedRequest request) throws IOException {
+        InputStream in = request.getBody().inputStream();
+        if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        Buffer body = new Buffer();
+        JsonWriter writer = newWriter(body);
+        try {
+            writer.beginObject();
+            writer.name("results").beginArray();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"books".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    BookRecord record = BookRecord.read(reader);
+                    BookRecord current = mBooks.get(record.syncId);
+                    long version = current == null ? 0 : current.version;
+                    writer.beginObject();
+                    writer.name(BookRecord.FIELD_ID).value(record.syncId);
+                    if (current == null || record.version == version) {
+                        put(record);
+                        writer.name("status").value("ok");
+                        writer.name(BookRecord.FIELD_VERSION).value(record.version);
+                    } else {
+                        writer.name("status").value("conflict");
+                        writer.name("book");
+                        current.write(writer);
+                    }
+                    writer.endObject();
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            writer.endArray();
+            writer.endObject();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        return response(body);
+    }
+
+    private synchronized MockResponse download(int since, int limit) throws IOException {
+        int end = Math.min(mLog.size(), since + limit);
+        Buffer body = new Buffer();
+        JsonWriter writer = newWriter(body);
+        try {
+            writer.beginObject();
+            writer.name("books").beginArray();
+            for (int i = since; i < end; i++) {
+                mBooks.get(mLog.get(i)).write(writer);
+            }
+            writer.endArray();
+            writer.name("cursor").value(String.valueOf(end));
+            writer.name("has_more").value(end < mLog.size());
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+        return response(body);
+    }
+
+    private static JsonWriter newWriter(Buffer body) throws IOException {
+        return new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(body.outputStream()), "UTF-8"));
+    }
+
+    private static MockResponse response(Buffer body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json; charset=utf-8")
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(body);
+    }
+}
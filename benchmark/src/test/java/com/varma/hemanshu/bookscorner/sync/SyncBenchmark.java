@@ -0,0 +1,118 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.varma.hemanshu.bookscorner.benchmark.BenchmarkResults;
+import com.varma.hemanshu.bookscorner.benchmark.SyntheticCatalog;
+import com.varma.hemanshu.bookscorner.data.BookContract;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * End to end syncs of {@link SyncEngine} over HTTP with a {@link MockSyncServer}: the first
+ * sync of a new device downloading the whole catalog, and of a device uploading its own.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncBenchmark {
+
+    private static final int SEED_CHUNK = 10000;
+
+    private final int mRows = Integer.parseInt(System.getProperty("benchmark.syncRows", "1000"));
+    private MockSyncServer mServer;
+    private ContentResolver mResolver;
+    private SyncEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockSyncServer();
+        mServer.start();
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        Context context = RuntimeEnvironment.application;
+        mResolver = context.getContentResolver();
+        mEngine = new SyncEngine(mResolver, new HttpSyncTransport(mServer.getBaseUrl()),
+                context.getSharedPreferences("book_sync", Context.MODE_PRIVATE), Backoff.DEFAULT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void initialDownload() throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.SEED, mRows);
+        for (int i = 0; i < mRows; i++) {
+            ContentValues book = catalog.nextBook();
+            BookRecord record = new BookRecord();
+            record.syncId = UUID.randomUUID().toString();
+            record.name = book.getAsString(BookEntry.COLUMN_BOOK_NAME);
+            record.price = book.getAsInteger(BookEntry.COLUMN_BOOK_PRICE);
+            record.quantity = book.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
+            record.supplierName = book.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_NAME);
+            record.supplierPhone = book.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NO);
+            mServer.put(record);
+        }
+
+        BenchmarkResults results = new BenchmarkResults("SyncBenchmark-initialDownload-" + mRows);
+        sync(results, "initial_download");
+        assertEquals(mRows, countBooks());
+        results.finish();
+    }
+
+    @Test
+    public void initialUpload() throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.SEED, mRows);
+        for (int seeded = 0; seeded < mRows; seeded += SEED_CHUNK) {
+            mResolver.bulkInsert(BookEntry.CONTENT_URI,
+                    catalog.nextBooks(Math.min(SEED_CHUNK, mRows - seeded)));
+        }
+
+        BenchmarkResults results = new BenchmarkResults("SyncBenchmark-initialUpload-" + mRows);
+        sync(results, "initial_upload");
+        assertEquals(mRows, mServer.size());
+        results.finish();
+    }
+
+    /**
+     * Runs a single sync, measuring its time per book and its throughput.
+     */
+    private void sync(BenchmarkResults results, String benchmark) throws Exception {
+        final SyncEngine.Result[] result = new SyncEngine.Result[1];
+        long start = System.nanoTime();
+        results.measure(benchmark, mRows, 0, 1, mRows, new BenchmarkResults.Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                result[0] = mEngine.sync();
+            }
+        }).put("books_per_second", mRows * 1000000000L / (System.nanoTime() - start))
+                .put("uploaded", result[0].uploaded)
+                .put("downloaded", result[0].downloaded)
+                .put("conflicts", result[0].conflicts);
+        assertEquals(0, result[0].conflicts);
+    }
+
+    private int countBooks() {
+        Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, new String[]{BookEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.varma.hemanshu.bookscorner.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+
+import com.varma.hemanshu.bookscorner.data.BookContract;
+import com.varma.hemanshu.bookscorner.data.BookContract.BookEntry;
+import com.varma.hemanshu.bookscorner.data.BookContract.TombstoneEntry;
+import com.varma.hemanshu.bookscorner.data.BookProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Conflicts and retries of {@link SyncEngine} over HTTP with a {@link MockSyncServer}. Every
+ * test starts from a book synced at version 1, then changes it on the server, here, or both.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    /**
+     * Short delays, so a test waiting longer waited for the Retry-After of the server
+     */
+    private static final Backoff BACKOFF = new Backoff(10, 10, 4);
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private MockSyncServer mServer;
+    private ContentResolver mResolver;
+    private Context mContext;
+    private String mSyncId;
+    private long mLocalId;
+
+    /**
+     * Edit made here once the server answered an upload, before the engine applies the answer
+     */
+    private ContentValues mEditDuringUpload;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockSyncServer();
+        mServer.start();
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        mContext = RuntimeEnvironment.application;
+        mResolver = mContext.getContentResolver();
+
+        BookRecord record = new BookRecord();
+        record.syncId = UUID.randomUUID().toString();
+        record.name = "Server book";
+        record.price = 100;
+        record.quantity = 10;
+        record.supplierName = "Supplier";
+        record.supplierPhone = "12345";
+        mServer.put(record);
+        mSyncId = record.syncId;
+        newEngine().sync();
+        ContentValues book = localBook();
+        assertNotNull(book);
+        assertEquals(1, (long) book.getAsLong(BookEntry.COLUMN_BOOK_VERSION));
+        assertEquals(0, (int) book.getAsInteger(BookEntry.COLUMN_BOOK_DIRTY));
+        mLocalId = book.getAsLong(BookEntry._ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void staleUploadIsReplacedByServerRow() throws Exception {
+        changeOnServer("Server edit", false);
+        editLocally("Local edit");
+
+        SyncEngine.Result result = newEngine().sync();
+        assertEquals(1, result.conflicts);
+        assertEquals(0, result.uploaded);
+        ContentValues book = localBook();
+        assertEquals("Server edit", book.getAsString(BookEntry.COLUMN_BOOK_NAME));
+        assertEquals(2, (long) book.getAsLong(BookEntry.COLUMN_BOOK_VERSION));
+        assertEquals(0, (int) book.getAsInteger(BookEntry.COLUMN_BOOK_DIRTY));
+        assertEquals("Server edit", mServer.get(mSyncId).name);
+        assertEquals(2, mServer.get(mSyncId).version);
+    }
+
+    @Test
+    public void serverDeleteOfDirtyBookDeletesIt() throws Exception {
+        changeOnServer(null, true);
+        editLocally("Local edit");
+
+        SyncEngine.Result result = newEngine().sync();
+        assertEquals(1, result.conflicts);
+        assertNull(localBook());
+        // Deleted for the server, nothing to upload
+        assertEquals(0, countTombstones());
+        assertTrue(mServer.get(mSyncId).deleted);
+    }
+
+    @Test
+    public void localDeleteOfServerChangedBookBringsItBack() throws Exception {
+        changeOnServer("Server edit", false);
+        assertEquals(1, mResolver.delete(
+                ContentUris.withAppendedId(BookEntry.CONTENT_URI, mLocalId), null, null));
+        assertEquals(1, countTombstones());
+
+        SyncEngine.Result result = newEngine().sync();
+        assertEquals(1, result.conflicts);
+        ContentValues book = localBook();
+        assertNotNull(book);
+        assertEquals("Server edit", book.getAsString(BookEntry.COLUMN_BOOK_NAME));
+        assertEquals(2, (long) book.getAsLong(BookEntry.COLUMN_BOOK_VERSION));
+        assertEquals(0, (int) book.getAsInteger(BookEntry.COLUMN_BOOK_DIRTY));
+        assertEquals(0, countTombstones());
+        assertFalse(mServer.get(mSyncId).deleted);
+    }
+
+    @Test
+    public void editDuringUploadStaysDirty() throws Exception {
+        editLocally("Uploaded edit");
+        mEditDuringUpload = new ContentValues();
+        mEditDuringUpload.put(BookEntry.COLUMN_BOOK_NAME, "Later edit");
+
+        SyncEngine.Result result = newEngine().sync();
+        assertEquals(1, result.uploaded);
+        assertEquals(0, result.conflicts);
+        assertEquals("Uploaded edit", mServer.get(mSyncId).name);
+        ContentValues book = localBook();
+        assertEquals("Later edit", book.getAsString(BookEntry.COLUMN_BOOK_NAME));
+        assertEquals(2, (long) book.getAsLong(BookEntry.COLUMN_BOOK_VERSION));
+        assertTrue("The acknowledged upload cleared the later edit",
+                book.getAsInteger(BookEntry.COLUMN_BOOK_DIRTY) > 0);
+
+        // Uploaded on top of the acknowledged version
+        mEditDuringUpload = null;
+        result = newEngine().sync();
+        assertEquals(1, result.uploaded);
+        assertEquals(0, result.conflicts);
+        assertEquals("Later edit", mServer.get(mSyncId).name);
+        book = localBook();
+        assertEquals(3, (long) book.getAsLong(BookEntry.COLUMN_BOOK_VERSION));
+        assertEquals(0, (int) book.getAsInteger(BookEntry.COLUMN_BOOK_DIRTY));
+    }
+
+    @Test
+    public void throttledCallsWaitForRetryAfter() throws Exception {
+        changeOnServer("Server edit", false);
+        int requests = mServer.getRequestCount();
+        mServer.failNext(429, RETRY_AFTER_SECONDS);
+        mServer.failNext(503, RETRY_AFTER_SECONDS);
+
+        // The engine sleeps on the clock of Robolectric, which moves by the time slept
+        long start = SystemClock.elapsedRealtime();
+        SyncEngine.Result result = newEngine().sync();
+        long waitedMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(1, result.downloaded);
+        assertEquals("Server edit", localBook().getAsString(BookEntry.COLUMN_BOOK_NAME));
+        // The download failed twice then went through
+        assertEquals(requests + 3, mServer.getRequestCount());
+        assertTrue("Retried after " + waitedMs + " ms",
+                waitedMs >= 2 * Long.parseLong(RETRY_AFTER_SECONDS) * 1000);
+    }
+
+    @Test
+    public void throttledCallsGiveUpAfterMaxAttempts() throws Exception {
+        for (int i = 0; i < BACKOFF.getMaxAttempts(); i++) {
+            mServer.failNext(503, null);
+        }
+        try {
+            newEngine().sync();
+            fail("Sync went through a server always unavailable");
+        } catch (SyncException e) {
+            assertTrue(e.isRetryable());
+        }
+    }
+
+    private SyncEngine newEngine() {
+        final SyncTransport transport = new HttpSyncTransport(mServer.getBaseUrl());
+        return new SyncEngine(mResolver, new SyncTransport() {
+            @Override
+            public List<UploadResult> upload(List<BookRecord> records) throws IOException {
+                List<UploadResult> results = transport.upload(records);
+                if (mEditDuringUpload != null) {
+                    assertEquals(1, mResolver.update(ContentUris.withAppendedId(
+                            BookEntry.CONTENT_URI, mLocalId), mEditDuringUpload, null, null));
+                }
+                return results;
+            }
+
+            @Override
+            public DownloadPage download(String cursor, int limit) throws IOException {
+                return transport.download(cursor, limit);
+            }
+        }, mContext.getSharedPreferences("book_sync", Context.MODE_PRIVATE), BACKOFF);
+    }
+
+    /**
+     * Changes the book as another device would, based on the current server version.
+     */
+    private void changeOnServer(String name, boolean deleted) {
+        BookRecord current = mServer.get(mSyncId);
+        BookRecord change = new BookRecord();
+        change.syncId = mSyncId;
+        change.version = current.version;
+        change.deleted = deleted;
+        change.name = name;
+        change.price = current.price;
+        change.quantity = current.quantity;
+        change.supplierName = current.supplierName;
+        change.supplierPhone = current.supplierPhone;
+        mServer.put(change);
+    }
+
+    private void editLocally(String name) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_NAME, name);
+        assertEquals(1, mResolver.update(
+                ContentUris.withAppendedId(BookEntry.CONTENT_URI, mLocalId), values, null, null));
+    }
+
+    /**
+     * @return the id, name, version and dirty count of the book here, null once deleted.
+     */
+    private ContentValues localBook() {
+        Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, new String[]{BookEntry._ID,
+                        BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_VERSION,
+                        BookEntry.COLUMN_BOOK_DIRTY},
+                BookEntry.COLUMN_BOOK_SYNC_ID + "=?", new String[]{mSyncId}, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            ContentValues book = new ContentValues();
+            book.put(BookEntry._ID, cursor.getLong(0));
+            book.put(BookEntry.COLUMN_BOOK_NAME, cursor.getString(1));
+            book.put(BookEntry.COLUMN_BOOK_VERSION, cursor.getLong(2));
+            book.put(BookEntry.COLUMN_BOOK_DIRTY, cursor.getInt(3));
+            return book;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countTombstones() {
+        Cursor cursor = mResolver.query(TombstoneEntry.CONTENT_URI,
+                new String[]{TombstoneEntry.COLUMN_SYNC_ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}